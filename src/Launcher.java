@@ -0,0 +1,202 @@
+import gss.EventJournal;
+import gss.GSS;
+import gss.GSSConfiguration;
+import gss.JournalSync;
+import gss.SnapshotStore;
+import java.awt.Point;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import metrics.PrometheusEndpoint;
+import network.Address;
+import network.GvtMode;
+import network.Network;
+import network.NioTransport;
+import whiteboard.WhiteboardClient;
+import whiteboard.WhiteboardCodecs;
+import whiteboard.WhiteboardEvent;
+import whiteboard.WhiteboardState;
+
+public class Launcher {
+
+  /**
+   * Runs a mirrored GSS cluster with every node in its own process, talking over loopback TCP.
+   * <p>
+   * java Launcher cluster.properties starts one child process per server and client and waits
+   * for them. java Launcher cluster.properties i runs just node i, which is what the children do.
+   * Node i listens on basePort + i. Servers are nodes 0 to servers - 1 and the rest are headless
+   * whiteboard clients that draw a random walk. With metricsPort set, server i serves its metrics
+   * for Prometheus on metricsPort + i and registers them with JMX. With journal set, server i
+   * journals its committed events and snapshots its committed state in journal/gss-i, and
+   * recovers from them when it's restarted.
+   */
+
+  private static final int MOVE_PERIOD_MS = 1000 / 24;
+  private static final int STEP_PIXELS = 6;
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println("Usage: java Launcher <cluster.properties> [node index]");
+      System.exit(1);
+    }
+
+    Properties config = new Properties();
+    try (Reader reader = new FileReader(args[0])) {
+      config.load(reader);
+    }
+
+    if (args.length == 1) {
+      launchCluster(args[0], config);
+    } else {
+      runNode(config, Integer.parseInt(args[1]));
+    }
+  }
+
+  private static void launchCluster(String configPath, Properties config)
+      throws IOException, InterruptedException {
+    int nNodes = Integer.parseInt(config.getProperty("servers"))
+        + Integer.parseInt(config.getProperty("clients"));
+    String java = ProcessHandle.current().info().command().orElse("java");
+    String classpath = System.getProperty("java.class.path");
+
+    List<Process> processes = new ArrayList<>();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> processes.forEach(Process::destroy)));
+    for (int i = 0; i < nNodes; i++) {
+      processes.add(new ProcessBuilder(java, "-Djava.awt.headless=true", "-cp", classpath,
+          "Launcher", configPath, Integer.toString(i)).inheritIO().start());
+    }
+    for (Process process : processes) {
+      process.waitFor();
+    }
+  }
+
+  private static void runNode(Properties config, int index) {
+    int nServers = Integer.parseInt(config.getProperty("servers"));
+    int nClients = Integer.parseInt(config.getProperty("clients"));
+    float txSuccessRate = Float.parseFloat(config.getProperty("txSuccessRate", "1.0"));
+    String host = config.getProperty("host", "127.0.0.1");
+    int basePort = Integer.parseInt(config.getProperty("basePort", "7000"));
+    String[] connectionList = config.getProperty("connections").split(",");
+    GvtMode gvtMode = GvtMode.valueOf(config.getProperty("gvt", "vector_clock").toUpperCase());
+    String metricsPort = config.getProperty("metricsPort");
+    String journal = config.getProperty("journal");
+
+    int[] connections = new int[nClients];
+    Address[] serverAddresses = new Address[nServers];
+    Address[] clientAddresses = new Address[nClients];
+    Map<Address, InetSocketAddress> directory = new HashMap<>();
+    for (int i = 0; i < nServers + nClients; i++) {
+      Address address = new Address(i);
+      if (i < nServers) {
+        serverAddresses[i] = address;
+      } else {
+        clientAddresses[i - nServers] = address;
+        connections[i - nServers] = Integer.parseInt(connectionList[i - nServers].trim());
+      }
+      if (i != index) {
+        directory.put(address, new InetSocketAddress(host, basePort + i));
+      }
+    }
+    GSSConfiguration.SetConfiguration(nServers, nClients, serverAddresses, clientAddresses,
+        connections, gvtMode);
+    WhiteboardCodecs.register();
+
+    Network network = new Network(txSuccessRate,
+        new NioTransport(new InetSocketAddress(host, basePort + index), directory));
+
+    if (index < nServers) {
+      GSS server = new GSS(serverAddresses[index], network);
+      WhiteboardState blank = WhiteboardState.blank(WhiteboardClient.BOARD_WIDTH,
+          WhiteboardClient.BOARD_HEIGHT);
+      if (journal == null) {
+        server.setState(blank);
+      }
+      for (int c = 0; c < nClients; c++) {
+        if (connections[c] == index) {
+          server.addClient(clientAddresses[c]);
+        }
+      }
+      if (journal != null) {
+        Path saved = Path.of(journal, "gss-" + index);
+        SnapshotStore snapshots = new SnapshotStore(saved.resolve("snapshots"));
+        long start = System.nanoTime();
+        long replayed = server.recover(blank, snapshots, saved.resolve("events"));
+        System.out.printf("GSS %d recovered sim time %d in %d ms, %d events replayed\n", index,
+            server.getState().getSimTime(), (System.nanoTime() - start) / 1_000_000, replayed);
+        EventJournal events = new EventJournal(saved.resolve("events"), JournalSync.PERIODIC);
+        server.setJournal(events);
+        server.setSnapshots(snapshots);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          server.setJournal(null);
+          server.setSnapshots(null);
+          events.close();
+          snapshots.close();
+        }));
+      }
+      server.startRunning();
+      System.out.printf("GSS %d listening on port %d\n", index, basePort + index);
+      if (metricsPort != null) {
+        exportMetrics(server, Integer.parseInt(metricsPort) + index);
+      }
+    } else {
+      int c = index - nServers;
+      WhiteboardClient client = new WhiteboardClient(clientAddresses[c],
+          serverAddresses[connections[c]], network, true);
+      client.startRunning();
+      startRandomWalk(client, new Random(index));
+      System.out.printf("Client %d listening on port %d\n", c, basePort + index);
+    }
+  }
+
+  /**
+   * Register a server's metrics with JMX, and serve them for Prometheus to scrape at
+   * http://localhost:port/metrics.
+   */
+  private static void exportMetrics(GSS server, int port) {
+    server.getMetrics().registerMBean("gss");
+    try {
+      PrometheusEndpoint endpoint = new PrometheusEndpoint(port);
+      endpoint.add(server.getMetrics());
+      endpoint.start();
+      System.out.printf("GSS %d metrics on http://localhost:%d/metrics\n",
+          server.getAddress().getValue(), port);
+    } catch (IOException e) {
+      System.err.printf("Couldn't serve metrics on port %d: %s\n", port, e.getMessage());
+    }
+  }
+
+  /**
+   * Headless stand-in for the turtle in Main: draw a short segment in a random direction every
+   * frame.
+   */
+  private static void startRandomWalk(WhiteboardClient client, Random random) {
+    Point[] current = {new Point(WhiteboardClient.BOARD_WIDTH / 2,
+        WhiteboardClient.BOARD_HEIGHT / 2)};
+    ScheduledExecutorService walker = Executors.newSingleThreadScheduledExecutor();
+    walker.scheduleAtFixedRate(() -> {
+      Point next = new Point(
+          clamp(current[0].x + random.nextInt(-STEP_PIXELS, STEP_PIXELS + 1),
+              WhiteboardClient.BOARD_WIDTH),
+          clamp(current[0].y + random.nextInt(-STEP_PIXELS, STEP_PIXELS + 1),
+              WhiteboardClient.BOARD_HEIGHT));
+      client.acceptGameEvent(
+          new WhiteboardEvent(current[0], next, client.getState().getSimTime() + 1));
+      current[0] = next;
+    }, 1000, MOVE_PERIOD_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private static int clamp(int value, int bound) {
+    return Math.max(0, Math.min(bound - 1, value));
+  }
+}
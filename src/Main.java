@@ -10,6 +10,7 @@ import javax.swing.Timer;
 import network.Address;
 import network.Network;
 import whiteboard.WhiteboardClient;
+import whiteboard.WhiteboardCodecs;
 import whiteboard.WhiteboardEvent;
 import whiteboard.WhiteboardState;
 
@@ -34,6 +35,8 @@ public class Main {
   public static void setupNetwork(float txSuccessRate, int nServers, int nClients,
       int[] connections) {
     // Set up the TestingNetwork and GSSs
+    // Clients get the whole board encoded when they join, even on a local network
+    WhiteboardCodecs.register();
     Network network = new Network(txSuccessRate);
     servers = new HashMap<>();
     clients = new HashMap<>();
@@ -0,0 +1,26 @@
+package gss;
+
+import network.Address;
+import network.Message;
+
+public class AntiMessage extends Message {
+
+  /**
+   * Cancels an event a GSS forwarded to another GSS before a rollback showed it shouldn't have.
+   * The receiver annihilates it with the event that has the same output id: straight from its
+   * inputQueue if the event hasn't run yet, by rolling back if it has, or on arrival if the event
+   * is still on its way.
+   */
+
+  private final long outputId;
+
+  public AntiMessage(Address src, Address dst, int simTime, int gssTime, int[] vectorClock,
+      long outputId) {
+    super(src, dst, simTime, gssTime, vectorClock);
+    this.outputId = outputId;
+  }
+
+  public long getOutputId() {
+    return outputId;
+  }
+}
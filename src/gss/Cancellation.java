@@ -0,0 +1,20 @@
+package gss;
+
+/**
+ * When a GSS cancels events it has forwarded to other GSSs and then rolled back.
+ */
+public enum Cancellation {
+
+  /**
+   * Send an AntiMessage for every forwarded event as soon as it's rolled back, and forward it
+   * again when it's executed again. Each cancellation can roll the receiver back in turn.
+   */
+  AGGRESSIVE,
+
+  /**
+   * Hold off until the rolled-back events have been executed again, and only send AntiMessages
+   * for those that weren't. Forwarded events come from clients rather than from the state, so
+   * they almost always are, and mirrored servers don't roll each other back.
+   */
+  LAZY
+}
@@ -0,0 +1,62 @@
+package gss;
+
+class CheckpointInterval {
+
+  /**
+   * Chooses how many events a GSS executes between full copies of its state. Checkpointing every
+   * k events costs copyCost / k per event, and each rollback coasts forward over (k - 1) / 2
+   * events on average, so with rollbacks at a rate of rho per event the total is lowest at
+   * k = sqrt(2 copyCost / (rho eventCost)).
+   */
+
+  static final int MAX_INTERVAL = 64;
+
+  // Weight of the newest sample in the cost averages
+  private static final double SMOOTHING = 0.1;
+
+  private double copyNanos;
+  private double eventNanos;
+  private long events;
+  private long rollbacks;
+  private int interval = 1;
+
+  void executed(long nanos) {
+    events++;
+    eventNanos = smooth(eventNanos, nanos);
+  }
+
+  void checkpointed(long nanos) {
+    copyNanos = smooth(copyNanos, nanos);
+  }
+
+  void rolledBack() {
+    rollbacks++;
+  }
+
+  /**
+   * Recompute the interval from the costs and rollback rate seen so far. Counts are halved each
+   * time so that the rate follows recent behaviour.
+   */
+  void update() {
+    if (events == 0 || eventNanos == 0) {
+      return;
+    }
+    double rate = (double) rollbacks / events;
+    if (rate == 0) {
+      interval = MAX_INTERVAL;
+    } else {
+      long best = Math.round(Math.sqrt(2 * copyNanos / (rate * eventNanos)));
+      interval = (int) Math.max(1, Math.min(MAX_INTERVAL, best));
+    }
+    events /= 2;
+    rollbacks /= 2;
+  }
+
+  int get() {
+    return interval;
+  }
+
+  private static double smooth(double average, long sample) {
+    return average == 0 ? sample : average + SMOOTHING * (sample - average);
+  }
+}
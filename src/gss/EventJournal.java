@@ -0,0 +1,457 @@
+package gss;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+public class EventJournal implements AutoCloseable {
+
+  /**
+   * Append-only log of committed events, so that a GSS has a durable history of what it's
+   * executed. Events are handed to append, which only queues them, and a writer thread of the
+   * journal's own encodes them into memory-mapped segment files, so the simulation thread never
+   * waits on the disk. The writer takes whatever has queued up as one batch, and writes it as one
+   * or more frames.
+   * <p>
+   * A segment is a header, [magic][version], then frames of [length][crc][events], where the
+   * length and CRC-32C are of the events, and each event is written as GSSCodecs writes it in a
+   * GameEventMessage. A zero length ends the segment. When a frame doesn't fit in what's left of
+   * a segment, the journal moves on to the next one, named by its number. A journal opened on a
+   * directory that already has segments starts a new one after them, so a frame torn by a crash
+   * is only ever at the end of a segment, where replay stops reading it.
+   */
+
+  public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+  public static final int SYNC_PERIOD_MS = 50;
+  private static final int MAGIC = 0x47535345; // "GSSE"
+  private static final int VERSION = 1;
+  private static final int SEGMENT_HEADER = 8;
+  private static final int FRAME_HEADER = 8;
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  private final Path directory;
+  private final JournalSync sync;
+  private final long segmentBytes;
+  private final Thread writer;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final CRC32C crc = new CRC32C();
+  // Guarded by lock
+  private List<GameEvent> pending = new ArrayList<>();
+  private long appended;
+  private long synced;
+  private boolean flushRequested;
+  private boolean closed;
+  private Exception failure;
+  // Only touched by the writer
+  private long segmentNumber;
+  private FileChannel channel;
+  private MappedByteBuffer segment;
+  private int syncedPosition;
+  private long lastSync;
+
+  public EventJournal(Path directory, JournalSync sync) {
+    this(directory, sync, DEFAULT_SEGMENT_BYTES);
+  }
+
+  /**
+   * @param directory    where to keep the segments, created if it doesn't exist
+   * @param segmentBytes size of each segment file, at most Integer.MAX_VALUE
+   */
+  public EventJournal(Path directory, JournalSync sync, long segmentBytes) {
+    if (segmentBytes <= SEGMENT_HEADER + FRAME_HEADER || segmentBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Segment size out of range: " + segmentBytes);
+    }
+    this.directory = directory;
+    this.sync = sync;
+    this.segmentBytes = segmentBytes;
+    try {
+      Files.createDirectories(directory);
+      List<Path> existing = segments(directory);
+      segmentNumber = existing.isEmpty() ? 0 : numberOf(existing.get(existing.size() - 1)) + 1;
+      openSegment();
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't open event journal in " + directory, e);
+    }
+    lastSync = System.nanoTime();
+    writer = new Thread(this::writeEvents, "journal-" + directory.getFileName());
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queue an event to be written. Events are written in the order they're appended.
+   *
+   * @throws RuntimeException if the journal has failed or been closed
+   */
+  public void append(GameEvent event) {
+    lock.lock();
+    try {
+      checkOpen();
+      pending.add(event);
+      appended++;
+      if (pending.size() == 1) {
+        changed.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait until every event appended so far has been written and forced to disk.
+   */
+  public void flush() {
+    lock.lock();
+    try {
+      checkOpen();
+      long target = appended;
+      while (synced < target && failure == null) {
+        flushRequested = true;
+        changed.signalAll();
+        changed.awaitUninterruptibly();
+      }
+      checkOpen();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Write and force whatever's queued, and stop the writer.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    lock.lock();
+    try {
+      if (failure != null) {
+        throw new RuntimeException("Event journal in " + directory + " failed", failure);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return events appended and not yet written
+   */
+  public int getBacklog() {
+    lock.lock();
+    try {
+      return pending.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void checkOpen() {
+    if (failure != null) {
+      throw new RuntimeException("Event journal in " + directory + " failed", failure);
+    }
+    if (closed) {
+      throw new RuntimeException("Event journal in " + directory + " is closed");
+    }
+  }
+
+  private void writeEvents() {
+    List<GameEvent> batch = new ArrayList<>();
+    long written = 0;
+    try {
+      while (true) {
+        boolean flush;
+        boolean closing;
+        lock.lock();
+        try {
+          awaitWork();
+          List<GameEvent> taken = pending;
+          pending = batch;
+          batch = taken;
+          flush = flushRequested;
+          flushRequested = false;
+          closing = closed;
+        } finally {
+          lock.unlock();
+        }
+
+        write(batch);
+        written += batch.size();
+        batch.clear();
+        boolean periodDue = System.nanoTime() - lastSync
+            >= TimeUnit.MILLISECONDS.toNanos(SYNC_PERIOD_MS);
+        if (flush || closing || sync == JournalSync.EVERY_BATCH
+            || sync == JournalSync.PERIODIC && periodDue) {
+          force();
+        }
+
+        lock.lock();
+        try {
+          if (segment.position() == syncedPosition) {
+            // Full segments were forced as they filled, so everything written is on disk
+            synced = written;
+          }
+          changed.signalAll();
+          if (closing && pending.isEmpty()) {
+            break;
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+      channel.close();
+    } catch (IOException | RuntimeException e) {
+      lock.lock();
+      try {
+        failure = e;
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Wait for something to write, a flush or close, or with JournalSync.PERIODIC for the sync
+   * period to pass while anything written is unforced. Called holding lock.
+   */
+  private void awaitWork() {
+    long deadline = lastSync + TimeUnit.MILLISECONDS.toNanos(SYNC_PERIOD_MS);
+    while (pending.isEmpty() && !flushRequested && !closed) {
+      if (sync != JournalSync.PERIODIC || segment.position() == syncedPosition) {
+        changed.awaitUninterruptibly();
+        continue;
+      }
+      long wait = deadline - System.nanoTime();
+      if (wait <= 0) {
+        return;
+      }
+      try {
+        changed.awaitNanos(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Write a batch as frames, moving on to a new segment whenever the next event doesn't fit.
+   */
+  private void write(List<GameEvent> batch) throws IOException {
+    int next = 0;
+    while (next < batch.size()) {
+      if (segment.remaining() <= FRAME_HEADER) {
+        nextSegment();
+      }
+      int frameStart = segment.position();
+      segment.position(frameStart + FRAME_HEADER);
+      while (next < batch.size()) {
+        int mark = segment.position();
+        try {
+          GSSCodecs.encodeEvent(batch.get(next), segment);
+        } catch (BufferOverflowException e) {
+          segment.position(mark);
+          break;
+        }
+        next++;
+      }
+
+      int length = segment.position() - frameStart - FRAME_HEADER;
+      if (length == 0) {
+        segment.position(frameStart);
+        if (frameStart == SEGMENT_HEADER) {
+          throw new RuntimeException("Event at sim time " + batch.get(next).getSimTime()
+              + " doesn't fit in a segment of " + segmentBytes + " bytes");
+        }
+        nextSegment();
+        continue;
+      }
+      crc.reset();
+      crc.update(segment.slice(frameStart + FRAME_HEADER, length));
+      segment.putInt(frameStart + 4, (int) crc.getValue());
+      segment.putInt(frameStart, length);
+    }
+  }
+
+  private void nextSegment() throws IOException {
+    // An event that didn't fit may have been partly written past the end, so mark it
+    if (segment.remaining() >= 4) {
+      segment.putInt(segment.position(), 0);
+    }
+    force();
+    channel.close();
+    segmentNumber++;
+    openSegment();
+  }
+
+  private void openSegment() throws IOException {
+    Path path = directory.resolve(String.format("%020d%s", segmentNumber, SEGMENT_SUFFIX));
+    channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    segment.putInt(MAGIC);
+    segment.putInt(VERSION);
+    syncedPosition = 0;
+  }
+
+  private void force() {
+    int position = segment.position();
+    if (position > syncedPosition) {
+      segment.force(syncedPosition, position - syncedPosition);
+      syncedPosition = position;
+    }
+    lastSync = System.nanoTime();
+  }
+
+  /**
+   * Read back every event in a journal's directory, oldest first. Reading a segment stops at the
+   * first frame that's incomplete or fails its CRC, which after a crash is the frame being
+   * written when it happened.
+   *
+   * @return number of events read
+   */
+  public static long replay(Path directory, Consumer<? super GameEvent> consumer) {
+    return replay(directory, null, consumer);
+  }
+
+  /**
+   * Read back the events after one, in a journal of events in the order GameEvent.compareTo puts
+   * them, as a GSS's are. Segments that end before it aren't read at all.
+   *
+   * @param after last event not to read, or null to read them all
+   * @return number of events read
+   */
+  public static long replay(Path directory, GameEvent after,
+      Consumer<? super GameEvent> consumer) {
+    long count = 0;
+    try {
+      List<Path> segments = segments(directory);
+      int first = 0;
+      if (after != null) {
+        // The last segment that starts at or before it is the first with anything after it
+        for (int i = segments.size() - 1; i > 0; i--) {
+          GameEvent start = firstEvent(segments.get(i));
+          if (start != null && start.compareTo(after) <= 0) {
+            first = i;
+            break;
+          }
+        }
+      }
+      for (Path path : segments.subList(first, segments.size())) {
+        count += replaySegment(path, after, consumer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't read event journal in " + directory, e);
+    }
+    return count;
+  }
+
+  private static long replaySegment(Path path, GameEvent after,
+      Consumer<? super GameEvent> consumer) throws IOException {
+    ByteBuffer in = mapForReading(path);
+    long count = 0;
+    CRC32C crc = new CRC32C();
+    ByteBuffer frame;
+    while ((frame = nextFrame(in, crc)) != null) {
+      while (frame.hasRemaining()) {
+        GameEvent event = GSSCodecs.decodeEvent(frame);
+        if (after == null || event.compareTo(after) > 0) {
+          consumer.accept(event);
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return first event in a segment, or null if it doesn't have any
+   */
+  private static GameEvent firstEvent(Path path) throws IOException {
+    ByteBuffer frame = nextFrame(mapForReading(path), new CRC32C());
+    return frame == null ? null : GSSCodecs.decodeEvent(frame);
+  }
+
+  /**
+   * @return a segment's contents, positioned after its header
+   */
+  private static ByteBuffer mapForReading(Path path) throws IOException {
+    ByteBuffer in;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (in.remaining() < SEGMENT_HEADER || in.getInt() != MAGIC) {
+      throw new RuntimeException(path + " isn't an event journal segment");
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new RuntimeException("Unsupported event journal version " + version + " in " + path);
+    }
+    return in;
+  }
+
+  /**
+   * @return the events of the frame at the buffer's position, leaving the position after it, or
+   *     null at the end of the segment or a frame that's incomplete or fails its CRC
+   */
+  private static ByteBuffer nextFrame(ByteBuffer in, CRC32C crc) {
+    if (in.remaining() < FRAME_HEADER) {
+      return null;
+    }
+    int length = in.getInt();
+    int expectedCrc = in.getInt();
+    if (length <= 0 || length > in.remaining()) {
+      return null;
+    }
+    ByteBuffer frame = in.slice(in.position(), length);
+    crc.reset();
+    crc.update(frame.duplicate());
+    if ((int) crc.getValue() != expectedCrc) {
+      return null;
+    }
+    in.position(in.position() + length);
+    return frame;
+  }
+
+  private static List<Path> segments(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter((p) -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+          .sorted().toList();
+    }
+  }
+
+  private static long numberOf(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+  }
+}
@@ -1,63 +1,183 @@
 package gss;
 
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.PriorityQueue;
-import javax.swing.Timer;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import network.Address;
+import network.FrameScheduler;
 import network.Message;
 import network.Network;
 import network.Node;
+import network.Scheduler;
 
 public class GSS extends Node {
 
   /**
    * Game State Server (GSS). Receives updates from clients and other GSSs and orders them using
-   * Time Warp. Most of the details of Time Warp are in processInputQueueEvents and rollbackTo.
+   * Time Warp. Most of the details of Time Warp are in LogicalProcess; the GSS routes events to
+   * it and forwards and cancels them between servers.
    */
 
   public static final int HEARTBEAT_PERIOD_MS = 250;
   public static final int GSS_UPDATE_PERIOD_MS = 25;
   public static final int FOSSIL_COLLECT_PERIOD_MS = 1000;
+  // Longest an event-driven GSS goes without a frame while idle
+  public static final int MAX_IDLE_FRAME_PERIOD_MS = HEARTBEAT_PERIOD_MS;
+  // How long to wait for a client to acknowledge a state before assuming it was lost
+  public static final int STATE_RESEND_MS = 2 * HEARTBEAT_PERIOD_MS;
+  public static final int SNAPSHOT_PERIOD_MS = 10 * 1000;
 
-  private final PriorityQueue<GameEventMessage> inputQueue;
-  private final PriorityQueue<GameEventMessage> executedQueue;
   private final PriorityQueue<GameEventMessage> outputQueue;
-  private final PriorityQueue<GameState> saveStates;
+  private LogicalProcess[] processes;
+  private int regions;
+  private ForkJoinPool pool;
+  private StateSaving stateSaving;
+  private Cancellation cancellation;
+  private OptimismPolicy optimism;
+  private int outputsForwarded;
+  // Forwarded events that were rolled back and are waiting to be executed again, with LAZY
+  private final Map<Long, GameEventMessage> pendingCancellations;
+  // AntiMessages that arrived before the event they cancel
+  private final Map<Long, AntiMessage> pendingAntiMessages;
   public final Collection<Address> clients;
-  private int gssTime;
+  private final Map<Address, ClientView> clientViews;
+  // The whole state. With regions, joined from theirs after each frame that changes one.
   private GameState state;
+  // Set when an AntiMessage rolls back state outside of a frame
+  private boolean stateChanged;
+  // Copy of the state last sent to clients, shared by all of them, and its version. Each tile of
+  // a Tiled state has the version it last changed in.
+  private GameState snapshot;
+  private boolean snapshotStale = true;
+  private int stateVersion;
+  private int[] tileVersions;
+  private long frames;
+  private long frameBatchMillis = -1;
+  private boolean frameRequested;
+  private boolean lastFrameIdle;
+  private long idleFramePeriod;
+  private long antiMessagesSent;
+  private long annihilations;
+  private long lazyCancellationHits;
+  private long fullStatesSent;
+  private long deltasSent;
+  private long stateTransfersSent;
+  // Clients being sent the whole state in chunks, which get nothing else until it's through
+  private final Map<Address, StateTransfer.Outgoing> transfers = new LinkedHashMap<>();
+  private int nextTransferId;
+  // The snapshot encoded for StateTransfers, shared by every client that joins at its version
+  private ByteBuffer transferBytes;
+  private int transferVersion;
 
-  private Collection<Timer> timers;
+  private volatile Scheduler frameScheduler;
+  private final TimeWarpMetrics timeWarpMetrics;
+  private EventJournal journal;
+  // With regions, committed events waiting until every region is past them, so that the journal
+  // gets an event that's in several of them once, and everything in order
+  private final TreeSet<GameEvent> committedByRegions = new TreeSet<>();
+  private SnapshotStore snapshots;
+  // Last event in the latest snapshot saved, so the same one isn't saved twice
+  private GameEvent lastSnapshotThrough;
+  private long lastSnapshotMillis;
+  // Next key sequence of each client, for one that's added after recovering from a journal
+  private final Map<Integer, Integer> resumedSequences = new HashMap<>();
+  // Sequence for keys of events that don't come from a known client
+  private int nextSequence;
 
 
   public GSS(Address address, Network network) {
     super(address, network);
     clients = new ArrayList<>();
+    clientViews = new HashMap<>();
 
-    inputQueue = new PriorityQueue<>();
-    executedQueue = new PriorityQueue<>(Collections.reverseOrder());
     outputQueue = new PriorityQueue<>();
-    saveStates = new PriorityQueue<>(Collections.reverseOrder());
-    gssTime = 0;
+    processes = new LogicalProcess[0];
+    regions = 1;
+    stateSaving = StateSaving.INCREMENTAL;
+    cancellation = Cancellation.LAZY;
+    optimism = OptimismPolicy.unbounded();
+    pendingCancellations = new HashMap<>();
+    pendingAntiMessages = new HashMap<>();
+    timeWarpMetrics = new TimeWarpMetrics(metrics);
   }
 
   /**
-   * Must be called by the main thread to start timers.
+   * Start running frames, fossil collection and heartbeats on a frame scheduler of this GSS's
+   * own, so they neither need nor wait on the AWT event dispatch thread.
    */
   public void startRunning() {
-    timers = new ArrayList<>();
-    Timer t = new Timer(GSS_UPDATE_PERIOD_MS, e -> run());
-    Timer g = new Timer(FOSSIL_COLLECT_PERIOD_MS, e -> collectFossils());
-    Timer h = new Timer(HEARTBEAT_PERIOD_MS, e -> sendHeartbeat());
-    g.setInitialDelay(FOSSIL_COLLECT_PERIOD_MS);
-    timers.add(t);
-    timers.add(g);
-    timers.add(h);
-    t.start();
-    g.start();
-    h.start();
+    frameScheduler = newFrameScheduler("gss-" + getAddress().getValue());
+    if (frameBatchMillis < 0) {
+      every(GSS_UPDATE_PERIOD_MS, this::run);
+    } else {
+      idleFramePeriod = GSS_UPDATE_PERIOD_MS;
+      frameScheduler.schedule(() -> submit(this::idleFrame), idleFramePeriod);
+    }
+    every(FOSSIL_COLLECT_PERIOD_MS, this::collectFossils);
+    every(HEARTBEAT_PERIOD_MS, this::sendHeartbeat);
+  }
+
+  private void every(long periodMillis, Runnable task) {
+    frameScheduler.scheduleAtFixedRate(() -> submit(task), periodMillis, periodMillis);
+  }
+
+  /**
+   * Run frames when events arrive instead of every GSS_UPDATE_PERIOD_MS. A frame runs batchMillis
+   * after the first event that arrives while none is pending, so events that arrive close together
+   * share one, and 0 runs it as soon as possible. While no events arrive, frames still run to pick
+   * up what GVT releases and to resend lost states, but ever less often: the period doubles after
+   * each frame that finds nothing to do, up to MAX_IDLE_FRAME_PERIOD_MS. Call before startRunning.
+   *
+   * @param batchMillis how long to wait for more events before running a frame
+   */
+  public synchronized void setEventDriven(long batchMillis) {
+    if (batchMillis < 0) {
+      throw new IllegalArgumentException("Batching deadline must not be negative: " + batchMillis);
+    }
+    frameBatchMillis = batchMillis;
+  }
+
+  /**
+   * Ask for a frame soon, if frames are event-driven and one isn't already on its way.
+   */
+  private void requestFrame() {
+    Scheduler scheduler = frameScheduler;
+    if (frameBatchMillis < 0 || frameRequested || scheduler == null) {
+      return;
+    }
+    frameRequested = true;
+    idleFramePeriod = GSS_UPDATE_PERIOD_MS;
+    scheduler.schedule(() -> submit(this::requestedFrame), frameBatchMillis);
+  }
+
+  private synchronized void requestedFrame() {
+    frameRequested = false;
+    run();
+  }
+
+  /**
+   * Run a frame and schedule the next idle one, backing off while there's nothing to do.
+   */
+  private synchronized void idleFrame() {
+    run();
+    idleFramePeriod = lastFrameIdle ? Math.min(2 * idleFramePeriod, MAX_IDLE_FRAME_PERIOD_MS)
+        : GSS_UPDATE_PERIOD_MS;
+    frameScheduler.schedule(() -> submit(this::idleFrame), idleFramePeriod);
   }
 
   /**
@@ -69,76 +189,183 @@ public class GSS extends Node {
         continue;
       }
       GameEventMessage message = new GameEventMessage(null, getAddress(), server,
-          state.getSimTime(), state.getGssTime(), getVectorClock());
+          getState().getSimTime(), getState().getGssTime(), getVectorClock());
       this.send(message, server);
     }
   }
 
   public void stopRunning() {
-    for (Timer t : timers) {
-      t.stop();
-    }
+    frameScheduler.shutdown();
+  }
+
+  /**
+   * @return frames run so far
+   */
+  public synchronized long getFramesRun() {
+    return frames;
+  }
+
+  /**
+   * @return how many frames started a whole period or more late, because the last one ran long
+   *     or the host was too busy, or 0 if this GSS isn't running on its own thread
+   */
+  public long getFrameOverruns() {
+    return frameScheduler instanceof FrameScheduler frames ? frames.getOverrunCount() : 0;
   }
 
   public void addClient(Node client) {
-    clients.add(client.getAddress());
+    addClient(client.getAddress());
+  }
+
+  /**
+   * Add a client by address, for clients that run in another process.
+   */
+  public synchronized void addClient(Address client) {
+    clients.add(client);
+    ClientView view = new ClientView();
+    view.nextSequence = resumedSequences.getOrDefault(GSSConfiguration.getNodeIndex(client), 0);
+    clientViews.put(client, view);
   }
 
   /**
    * Process one 'frame' of simulation, which involves processing events in the input queue.
    */
   public synchronized void run() {
-    boolean stateUpdated = processInputQueueEvents();
+    long start = System.nanoTime();
+    boolean updated = processInputQueueEvents();
+    snapshotStale |= updated;
+    lastFrameIdle = !updated && outputQueue.isEmpty();
+    frames++;
+    long now = currentTimeMillis();
 
-    if (stateUpdated) {
-      broadcastStateToClients();
+    if (!clients.isEmpty()) {
+      if (snapshotStale) {
+        takeSnapshot();
+        snapshotStale = false;
+      }
+      broadcastStateToClients(now);
+      sendStateChunks(now);
     }
 
     if (!outputQueue.isEmpty()) {
       broadcastOutputsToGSSs();
     }
+
+    // Everything forwarded this frame goes to each server as one batch
+    flushOutbox();
+
+    int inputQueue = 0;
+    int executedQueue = 0;
+    int saveStates = 0;
+    for (LogicalProcess process : processes) {
+      inputQueue += process.getInputQueueSize();
+      executedQueue += process.getExecutedQueueSize();
+      saveStates += process.getSaveStateCount();
+    }
+    timeWarpMetrics.inputQueue.set(inputQueue);
+    timeWarpMetrics.executedQueue.set(executedQueue);
+    timeWarpMetrics.saveStates.set(saveStates);
+    timeWarpMetrics.gvtLag.set(getState().getSimTime() - (long) globalSimTime);
+    timeWarpMetrics.frameNanos.record(System.nanoTime() - start);
   }
 
   /**
-   * Process incoming GameEventMessages in the inputQueue. Most of the logic of Time Warp is here.
+   * Execute the events waiting in each LogicalProcess, up to the optimism window. With regions
+   * they run in parallel on the pool, and the whole state is joined from theirs afterwards.
    *
    * @return true if state has changed, otherwise false
    */
   private synchronized boolean processInputQueueEvents() {
-    inputQueue.removeIf((gem) -> gem.getEvent() == null);
-
-    boolean updated = !inputQueue.isEmpty();
-
-    GameEventMessage input = inputQueue.poll();
-    while (input != null) {
-      GameEvent event = input.getEvent();
-      if (!executedQueue.isEmpty() && input.compareTo(executedQueue.peek()) < 0) {
-        // a mis-ordering happened and we need to roll back to this time
-        rollbackTo(event.getSimTime());
-        inputQueue.add(input);
-        input = inputQueue.poll();
-        continue;
-      }
+    long horizon = (long) globalSimTime + optimism.getWindow();
+    boolean changed = stateChanged;
+    stateChanged = false;
+    if (processes.length == 1) {
+      boolean updated = processes[0].execute(horizon);
+      cancelPendingOutputs();
+      return updated || changed;
+    }
 
-      gssTime += 1;
-      state.applyEvent(input.getEvent());
-      state.setGssTime(gssTime);
-      executedQueue.add(input);
-      saveStates.add(state.copy());
+    List<ForkJoinTask<Boolean>> tasks = new ArrayList<>(processes.length);
+    for (LogicalProcess process : processes) {
+      tasks.add(pool.submit(() -> process.execute(horizon)));
+    }
+    boolean updated = changed;
+    for (ForkJoinTask<Boolean> task : tasks) {
+      updated |= task.join();
+    }
+    if (updated) {
+      GameState[] parts = new GameState[processes.length];
+      for (int i = 0; i < processes.length; i++) {
+        parts[i] = processes[i].getState();
+      }
+      state = ((Partitionable) state).join(parts);
+      state.setGssTime(gssTime());
+    }
+    return updated;
+  }
 
-      if (!input.wasForwarded()) {
-        outputQueue.add(input);
-        input.setForwarded(true);
+  /**
+   * Anything still pending cancellation that isn't waiting to be executed again won't come back,
+   * so it has to be cancelled after all.
+   */
+  private void cancelPendingOutputs() {
+    Iterator<GameEventMessage> pending = pendingCancellations.values().iterator();
+    while (pending.hasNext()) {
+      GameEventMessage cancelled = pending.next();
+      if (!processes[0].isPending(cancelled)) {
+        sendAntiMessages(cancelled);
+        pending.remove();
       }
+    }
+  }
 
-      input = inputQueue.poll();
+  private void committed(GameEventMessage event) {
+    if (journal == null) {
+      return;
     }
+    if (processes.length == 1) {
+      journal.append(event.getEvent());
+    } else {
+      committedByRegions.add(event.getEvent());
+    }
+  }
 
-    return updated;
+  /**
+   * Journal the events every region has committed. Any region holding one of them has committed
+   * it by now, and no region commits anything earlier later on.
+   */
+  private void journalCommittedByRegions() {
+    int horizon = Integer.MAX_VALUE;
+    for (LogicalProcess process : processes) {
+      horizon = Math.min(horizon, process.getCommitHorizon(globalSimTime));
+    }
+    while (!committedByRegions.isEmpty() && committedByRegions.first().getSimTime() < horizon) {
+      journal.append(committedByRegions.pollFirst());
+    }
+  }
+
+  /**
+   * Forward an event the first time it's executed, unless it was forwarded already and rolled
+   * back, in which case LAZY cancellation doesn't need to cancel it after all.
+   */
+  private void executed(GameEventMessage input) {
+    if (!input.wasForwarded()) {
+      forward(input);
+    } else if (pendingCancellations.remove(input.getOutputId()) != null) {
+      // Executed again just as it was forwarded, so the other servers already have it
+      lazyCancellationHits++;
+    }
+  }
+
+  private void forward(GameEventMessage input) {
+    input.setOutputId((long) nodeIndex << 32 | ++outputsForwarded);
+    outputQueue.add(input);
+    input.setForwarded(true);
   }
 
   /**
-   * Forward events in the outputQueue to other GSSs in the network as GameEventMessages.
+   * Forward events in the outputQueue to other GSSs in the network as GameEventMessages. They're
+   * queued in the outbox and sent at the end of the frame.
    */
   private synchronized void broadcastOutputsToGSSs() {
     for (GameEventMessage output : outputQueue) {
@@ -149,7 +376,8 @@ public class GSS extends Node {
         GameEventMessage message = new GameEventMessage(output.getEvent(), getAddress(), server,
             output.getSimTime(), output.getGssTime(), getVectorClock());
         message.setForwarded(output.wasForwarded());
-        this.send(message, server);
+        message.setOutputId(output.getOutputId());
+        this.sendBatched(message, server);
       }
     }
 
@@ -157,71 +385,204 @@ public class GSS extends Node {
   }
 
   /**
-   * Send this GSS's current state out to its clients as a GameStateMessage.
+   * Queue an AntiMessage for a forwarded event to every other GSS.
    */
-  private synchronized void broadcastStateToClients() {
-    for (Address client : clients) {
-      this.send(
-          new GameStateMessage(state.copy(), this.getAddress(), client, state.getSimTime(), gssTime,
-              getVectorClock()), client);
+  private void sendAntiMessages(GameEventMessage output) {
+    for (Address server : GSSConfiguration.getServerAddresses()) {
+      if (server.equals(this.getAddress())) {
+        continue;
+      }
+      this.sendBatched(new AntiMessage(getAddress(), server, output.getSimTime(), gssTime(),
+          getVectorClock(), output.getOutputId()), server);
+      antiMessagesSent++;
     }
   }
 
   /**
-   * Roll back to a saved state when a misordering happens.
-   *
-   * @param targetTime sim time to roll back to
+   * Cancel a rolled-back event if this GSS forwarded it. An event that hasn't gone out yet is
+   * just taken out of the outputQueue. With Cancellation.AGGRESSIVE the other servers get an
+   * AntiMessage now and the event is forwarded again when it's executed again; with LAZY the
+   * event waits in pendingCancellations to see if it is.
    */
-  private synchronized void rollbackTo(int targetTime) {
-    /*
-     * 1. Roll back state to target time. Discard saved states from later times.
-     * 2. Move all events in the executed queue with time > target time to the input queue.
-     * (3. Cancel (send anti-messages for) any outputs with time > target time that are affected.)
-     */
+  private void cancelOutput(GameEventMessage output) {
+    if (output.getOutputId() == 0 || output.getOutputId() >>> 32 != nodeIndex) {
+      return;
+    }
+    if (outputQueue.removeIf((o) -> o == output)) {
+      output.setForwarded(false);
+    } else if (cancellation == Cancellation.LAZY) {
+      pendingCancellations.put(output.getOutputId(), output);
+    } else {
+      sendAntiMessages(output);
+      output.setForwarded(false);
+    }
+  }
+
+  /**
+   * Copy the state to send to clients, once for all of them, and note which tiles changed since
+   * the last copy.
+   */
+  private void takeSnapshot() {
+    GameState current = getState().copy();
+    stateVersion++;
+    if (current instanceof Tiled tiled) {
+      if (tileVersions == null || tileVersions.length != tiled.getTileCount()) {
+        tileVersions = new int[tiled.getTileCount()];
+        Arrays.fill(tileVersions, stateVersion);
+      } else {
+        for (int tile = 0; tile < tileVersions.length; tile++) {
+          if (tiled.tileChanged(tile, snapshot)) {
+            tileVersions[tile] = stateVersion;
+          }
+        }
+      }
+    }
+    snapshot = current;
+  }
+
+  /**
+   * Bring clients up to date with the latest snapshot. A client that has none of it yet, because
+   * it's just joined or every state sent to it seems to have been lost, gets the whole snapshot as
+   * a StateTransfer. One that has an earlier snapshot gets a GameStateDeltaMessage with the tiles
+   * that changed since, or a GameStateMessage with the whole snapshot when most of them did. A
+   * client with an area of interest only gets the tiles in it, and nothing at all while nothing in
+   * it changes. Clients that need the same thing share one delta, and they're sent one after
+   * another so that it's only encoded once.
+   */
+  private synchronized void broadcastStateToClients(long now) {
+    Map<Update, List<Address>> byUpdate = new LinkedHashMap<>();
+    for (Address client : clients) {
+      if (transfers.containsKey(client)) {
+        continue; // it gets the rest of a whole state first
+      }
+      ClientView view = clientViews.get(client);
+      int base = view.base(now);
+      if (base >= stateVersion) {
+        continue; // it has this one, or it's on its way
+      }
+      if (base == 0 && view.interest == null) {
+        startStateTransfer(client, now);
+        continue;
+      }
+      if (!(snapshot instanceof Tiled)) {
+        byUpdate.computeIfAbsent(new Update(0, null), u -> new ArrayList<>()).add(client);
+        continue;
+      }
+      Rectangle interest = view.interest;
+      if (interest != null && base < view.interestFrom) {
+        base = 0; // it needs every tile in an area it's just moved to
+      }
+      byUpdate.computeIfAbsent(new Update(base, interest), u -> new ArrayList<>()).add(client);
+    }
+
+    for (Map.Entry<Update, List<Address>> group : byUpdate.entrySet()) {
+      int base = group.getKey().base();
+      Rectangle interest = group.getKey().interest();
+      GameStateDelta delta = null;
+      if (interest != null) {
+        int[] tiles = changedSince(base, ((Tiled) snapshot).tilesIn(interest));
+        if (tiles.length == 0) {
+          continue;
+        }
+        delta = ((Tiled) snapshot).deltaOf(tiles);
+      } else if (base > 0) {
+        int[] tiles = changedSince(base, null);
+        if (tiles.length * 2 <= tileVersions.length) {
+          delta = ((Tiled) snapshot).deltaOf(tiles);
+        }
+      }
+      for (Address client : group.getValue()) {
+        if (delta == null) {
+          this.send(new GameStateMessage(snapshot, getAddress(), client, snapshot.getSimTime(),
+              stateVersion, getVectorClock()), client);
+          fullStatesSent++;
+        } else {
+          this.send(new GameStateDeltaMessage(delta, base, getAddress(), client,
+              snapshot.getSimTime(), stateVersion, getVectorClock()), client);
+          deltasSent++;
+        }
+        clientViews.get(client).sent(stateVersion, now, base);
+      }
+    }
+  }
 
-    // 1. roll back state to target time
-    GameState saveState = saveStates.poll();
-    while (saveState != null && saveState.getSimTime() >= targetTime) {
-      saveState = saveStates.poll();
+  private void startStateTransfer(Address client, long now) {
+    if (transferBytes == null || transferVersion != stateVersion) {
+      transferBytes = SnapshotStore.toBytes(new SnapshotStore.Snapshot(snapshot, null), 0);
+      transferVersion = stateVersion;
     }
-    saveStates.add(saveState);
-    assert saveState != null;
-    state = saveState.copy();
+    transfers.put(client, new StateTransfer.Outgoing(++nextTransferId, transferBytes,
+        StateTransfer.CHUNK_BYTES, snapshot.getSimTime(), stateVersion, now));
+    stateTransfersSent++;
+  }
+
+  /**
+   * Send each StateTransfer's chunks as far as its window allows, going back to resend them if
+   * nothing's been acknowledged for a while.
+   */
+  private void sendStateChunks(long now) {
+    for (Map.Entry<Address, StateTransfer.Outgoing> entry : transfers.entrySet()) {
+      sendStateChunks(entry.getKey(), entry.getValue(), now);
+    }
+  }
 
-    // 2. move rolled-back events back to the input queue
-    GameEventMessage executed = executedQueue.poll();
-    while (executed != null && executed.getEvent().getSimTime() >= targetTime) {
-      inputQueue.add(executed);
-      executed = executedQueue.poll();
+  private void sendStateChunks(Address client, StateTransfer.Outgoing transfer, long now) {
+    int index = transfer.nextChunk(now);
+    while (index >= 0) {
+      this.send(new StateChunkMessage(getAddress(), client, transfer.getSimTime(),
+          transfer.getVersion(), getVectorClock(), transfer.getId(), index, transfer.getCount(),
+          transfer.chunk(index)), client);
+      index = transfer.nextChunk(now);
     }
-    if (executed != null) {
-      executedQueue.add(executed); // add the last one back
+  }
+
+  /**
+   * @param among tiles to look at, in increasing order, or null for all of them
+   * @return tiles that changed after the given version, in increasing order
+   */
+  private int[] changedSince(int version, int[] among) {
+    int[] tiles = new int[among == null ? tileVersions.length : among.length];
+    int count = 0;
+    for (int i = 0; i < tiles.length; i++) {
+      int tile = among == null ? i : among[i];
+      if (tileVersions[tile] > version) {
+        tiles[count++] = tile;
+      }
     }
+    return Arrays.copyOf(tiles, count);
   }
 
+
   /**
    * Throw out old snapshots and stored events with sim time less than GVT. These are committed and
    * safe to discard. GVT is managed by the parent class Node.
    */
   private synchronized void collectFossils() {
-    PriorityQueue<GameState> saveStatesReversed = new PriorityQueue<>(
-        saveStates.comparator().reversed());
-    saveStatesReversed.addAll(saveStates);
-    saveStates.clear();
-
-    // Here, be sure to keep at least one saveState with sim time < GVT so that there's
-    // one to roll back to if needed.
-    GameState saveState = saveStatesReversed.poll();
-    GameState last = saveState;
-    while (saveState != null && saveState.getSimTime() < globalSimTime) {
-      last = saveState;
-      saveState = saveStatesReversed.poll();
-    }
-    saveStatesReversed.add(last);
-    saveStates.addAll(saveStatesReversed);
-
-    executedQueue.removeIf((e) -> e.getSimTime() < globalSimTime);
+    long start = System.nanoTime();
+    long executed = 0;
+    long rolledBack = 0;
+    for (LogicalProcess process : processes) {
+      process.collectFossils(globalSimTime);
+      long[] work = process.takeWorkSinceUpdate();
+      executed += work[0];
+      rolledBack += work[1];
+    }
+    if (journal != null && processes.length > 1) {
+      journalCommittedByRegions();
+    }
     outputQueue.removeIf((o) -> o.getSimTime() < globalSimTime);
+    pendingAntiMessages.values().removeIf((a) -> a.getSimTime() < globalSimTime);
+    if (snapshots != null && currentTimeMillis() - lastSnapshotMillis >= SNAPSHOT_PERIOD_MS) {
+      SnapshotStore.Snapshot committed = processes[0].committedSnapshot(globalSimTime);
+      if (committed != null && committed.through() != lastSnapshotThrough) {
+        snapshots.save(committed);
+        lastSnapshotThrough = committed.through();
+        lastSnapshotMillis = currentTimeMillis();
+      }
+    }
+
+    optimism.update(executed, rolledBack);
+    timeWarpMetrics.fossilCollectionNanos.record(System.nanoTime() - start);
   }
 
   /* --------------
@@ -232,15 +593,436 @@ public class GSS extends Node {
       throw new RuntimeException("Attempted to handle wrong type of message");
     }
 
-    inputQueue.add(gem);
+    ClientView view = clientViews.get(sender);
+    if (view != null) {
+      // Clients put the version of the last state they got from here on everything they send
+      view.acknowledged(gem.getGssTime());
+    }
+    GameEvent event = gem.getEvent();
+    if (event != null && !event.hasKey()) {
+      // It's new from a client. Other servers get the key with it when it's forwarded.
+      if (view != null) {
+        event.setKey(GSSConfiguration.getNodeIndex(sender), view.nextSequence++);
+      } else {
+        event.setKey(nodeIndex, nextSequence++);
+      }
+    }
+    if (gem.getOutputId() != 0 && pendingAntiMessages.remove(gem.getOutputId()) != null) {
+      annihilations++;
+      return;
+    }
+    route(gem);
+    if (gem.getEvent() != null) {
+      requestFrame();
+    }
+  }
+
+  /**
+   * Add an event to the LogicalProcess of each region it touches. With regions each gets its own
+   * copy, and the event is forwarded straight away: a region rolling it back doesn't undo it in
+   * the others, so it's never cancelled.
+   */
+  private void route(GameEventMessage gem) {
+    if (processes.length == 1 || gem.getEvent() == null) {
+      processes[0].add(gem);
+      return;
+    }
+    if (!gem.wasForwarded()) {
+      forward(gem);
+    }
+    for (int region : ((Partitionable) state).regionsOf(gem.getEvent(), regions)) {
+      processes[region].add(gem.copyForRegion());
+    }
+  }
+
+  public synchronized void handleInterestMessage(Message m, Address sender) {
+    if (!(m instanceof InterestMessage interest)) {
+      throw new RuntimeException("Attempted to handle wrong type of message");
+    }
+
+    ClientView view = clientViews.get(sender);
+    if (view != null && !Objects.equals(view.interest, interest.getArea())) {
+      view.interest = interest.getArea();
+      view.interestFrom = Integer.MAX_VALUE;
+      // The client only takes states newer than its own, so the new area needs a new version
+      snapshotStale = true;
+    }
+  }
+
+  /**
+   * A client that's joining, or joining again after it restarted, needs the whole state, whatever
+   * it had before. A client this GSS doesn't have yet is added, if it's in the GSSConfiguration.
+   */
+  public synchronized void handleJoinMessage(Message m, Address sender) {
+    if (!(m instanceof JoinMessage)) {
+      throw new RuntimeException("Attempted to handle wrong type of message");
+    }
+
+    ClientView view = clientViews.get(sender);
+    if (view == null) {
+      if (GSSConfiguration.getNodeIndex(sender) >= 0) {
+        addClient(sender);
+      }
+    } else if (!transfers.containsKey(sender)) {
+      view.rejoined();
+    }
+  }
+
+  public synchronized void handleStateChunkAckMessage(Message m, Address sender) {
+    if (!(m instanceof StateChunkAckMessage ack)) {
+      throw new RuntimeException("Attempted to handle wrong type of message");
+    }
+
+    StateTransfer.Outgoing transfer = transfers.get(sender);
+    if (transfer == null || transfer.getId() != ack.getTransfer()) {
+      return; // it's for a transfer that's finished
+    }
+    long now = currentTimeMillis();
+    if (transfer.acked(ack.getReceived(), now)) {
+      transfers.remove(sender);
+      clientViews.get(sender).acknowledged(transfer.getVersion());
+    } else {
+      sendStateChunks(sender, transfer, now);
+    }
+  }
+
+  public synchronized void handleAntiMessage(Message m, Address sender) {
+    if (!(m instanceof AntiMessage anti)) {
+      throw new RuntimeException("Attempted to handle wrong type of message");
+    }
+
+    long outputId = anti.getOutputId();
+    boolean annihilated = false;
+    for (LogicalProcess process : processes) {
+      GameEventMessage executed = process.findExecuted(outputId, anti.getSimTime());
+      if (executed != null) {
+        // Undo it first, then it can be annihilated from the inputQueue like any other
+        process.rollbackTo(executed.getSimTime(), false);
+        stateChanged = true;
+      }
+      annihilated |= process.annihilate(outputId);
+    }
+    if (annihilated) {
+      annihilations++;
+    } else {
+      pendingAntiMessages.put(outputId, anti);
+    }
+    if (stateChanged) {
+      requestFrame();
+    }
+  }
+
+  @Override
+  protected synchronized int getLowestUpstreamSimTime() {
+    int lowest = Integer.MAX_VALUE;
+    for (Address client : clients) {
+      lowest = Math.min(lowest, vectorClock[GSSConfiguration.getNodeIndex(client)]);
+    }
+    return lowest;
+  }
+
+  @Override
+  protected synchronized int getLowestPendingSimTime() {
+    int lowest = Integer.MAX_VALUE;
+    for (LogicalProcess process : processes) {
+      lowest = Math.min(lowest, process.getLowestPendingSimTime());
+    }
+    return lowest;
+  }
+
+  /**
+   * @return events executed so far, over all regions
+   */
+  private int gssTime() {
+    int gssTime = 0;
+    for (LogicalProcess process : processes) {
+      gssTime += process.getGssTime();
+    }
+    return gssTime;
+  }
+
+  /**
+   * @return number of rollbacks since this GSS started
+   */
+  public synchronized long getRollbackCount() {
+    long rollbacks = 0;
+    for (LogicalProcess process : processes) {
+      rollbacks += process.getRollbackCount();
+    }
+    return rollbacks;
+  }
+
+  /**
+   * @return number of executed events that rollbacks have undone, i.e. wasted work
+   */
+  public synchronized long getRolledBackEventCount() {
+    long rolledBackEvents = 0;
+    for (LogicalProcess process : processes) {
+      rolledBackEvents += process.getRolledBackEventCount();
+    }
+    return rolledBackEvents;
+  }
+
+  /**
+   * @return most events this GSS has held in its executedQueue at once, summed over regions
+   */
+  public synchronized int getPeakExecutedEvents() {
+    int peakExecutedEvents = 0;
+    for (LogicalProcess process : processes) {
+      peakExecutedEvents += process.getPeakExecutedEvents();
+    }
+    return peakExecutedEvents;
+  }
+
+  /**
+   * @return number of AntiMessages this GSS has sent, one per event and server cancelled
+   */
+  public synchronized long getAntiMessagesSent() {
+    return antiMessagesSent;
+  }
+
+  /**
+   * @return number of events this GSS has annihilated with an AntiMessage
+   */
+  public synchronized long getAnnihilationCount() {
+    return annihilations;
+  }
+
+  /**
+   * @return number of rolled-back events that Cancellation.LAZY didn't have to cancel
+   */
+  public synchronized long getLazyCancellationHits() {
+    return lazyCancellationHits;
+  }
+
+  /**
+   * @return number of whole states this GSS has sent to its clients
+   */
+  public synchronized long getFullStatesSent() {
+    return fullStatesSent;
+  }
+
+  /**
+   * @return number of StateTransfers this GSS has started to clients, each with a whole state
+   */
+  public synchronized long getStateTransfersSent() {
+    return stateTransfersSent;
+  }
+
+  /**
+   * @return number of GameStateDeltaMessages this GSS has sent to its clients
+   */
+  public synchronized long getDeltasSent() {
+    return deltasSent;
+  }
+
+  /**
+   * @return bytes held by undo records that haven't been fossil collected
+   */
+  public synchronized long getUndoLogBytes() {
+    long bytes = 0;
+    for (LogicalProcess process : processes) {
+      bytes += process.getUndoLogBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Choose how state is saved for rollback. Must be called before setState.
+   */
+  public void setStateSaving(StateSaving stateSaving) {
+    this.stateSaving = stateSaving;
+  }
+
+  /**
+   * Choose when forwarded events that were rolled back are cancelled. Defaults to LAZY.
+   */
+  public void setCancellation(Cancellation cancellation) {
+    this.cancellation = cancellation;
+  }
+
+  /**
+   * Choose how far ahead of GVT this GSS may execute. Defaults to OptimismPolicy.unbounded().
+   */
+  public void setOptimismPolicy(OptimismPolicy optimism) {
+    this.optimism = optimism;
+  }
+
+  /**
+   * Append events to a journal as they're committed and fossil collected, each once and in
+   * order. With regions, an event is appended once every region is past it. The journal is still
+   * the caller's to close.
+   */
+  public synchronized void setJournal(EventJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Save a snapshot of the committed state every SNAPSHOT_PERIOD_MS, from the latest state saved
+   * for rollback that's entirely before GVT. Only a GSS with one region can take them. The store
+   * is still the caller's to close.
+   */
+  public synchronized void setSnapshots(SnapshotStore snapshots) {
+    if (snapshots != null && regions != 1) {
+      throw new IllegalArgumentException("Only a GSS with one region can take snapshots");
+    }
+    this.snapshots = snapshots;
+  }
+
+  /**
+   * Set the state to what was committed before this GSS last stopped, instead of calling
+   * setState: the latest snapshot, or initial if there isn't one, with the events journaled after
+   * it executed again. GVT starts from the recovered state's sim time, and clients' events are
+   * keyed on from where the journal left off. How long this takes depends on the size of a
+   * snapshot and of the journal's segments, not on how long the GSS has run.
+   *
+   * @return number of events executed again from the journal
+   */
+  public synchronized long recover(GameState initial, SnapshotStore snapshots,
+      Path journalDirectory) {
+    SnapshotStore.Snapshot latest = snapshots.load();
+    GameState recovered = latest == null ? initial : latest.state();
+    GameEvent through = latest == null ? null : latest.through();
+    Map<Integer, Integer> sequences = new HashMap<>();
+    if (through != null) {
+      sequences.put(through.getOrigin(), through.getSequence() + 1);
+    }
+    long replayed = EventJournal.replay(journalDirectory, through, (event) -> {
+      recovered.applyEvent(event);
+      recovered.setGssTime(recovered.getGssTime() + 1);
+      sequences.merge(event.getOrigin(), event.getSequence() + 1, Math::max);
+    });
+
+    setState(recovered);
+    resumeFrom(recovered.getSimTime());
+    resumedSequences.putAll(sequences);
+    nextSequence = Math.max(nextSequence, sequences.getOrDefault(nodeIndex, 0));
+    for (Map.Entry<Address, ClientView> entry : clientViews.entrySet()) {
+      entry.getValue().nextSequence = Math.max(entry.getValue().nextSequence,
+          sequences.getOrDefault(GSSConfiguration.getNodeIndex(entry.getKey()), 0));
+    }
+    return replayed;
+  }
+
+  /**
+   * Split the state into regions that run Time Warp independently of each other, in parallel on
+   * the common ForkJoinPool. The state must be Partitionable. Must be called before setState.
+   */
+  public void setRegions(int regions) {
+    setRegions(regions, ForkJoinPool.commonPool());
+  }
+
+  public void setRegions(int regions, ForkJoinPool pool) {
+    if (regions < 1) {
+      throw new IllegalArgumentException("A GSS needs at least one region, not " + regions);
+    }
+    this.regions = regions;
+    this.pool = pool;
   }
 
   public GameState getState() {
-    return this.state;
+    // Rolling back to a checkpoint replaces a LogicalProcess's state
+    return processes.length == 1 ? processes[0].getState() : this.state;
   }
 
-  public void setState(GameState state) {
+  public synchronized void setState(GameState state) {
     this.state = state;
-    saveStates.add(this.state.copy());
+    LogicalProcess.Listener listener = new LogicalProcess.Listener() {
+      @Override
+      public void executed(GameEventMessage event) {
+        GSS.this.executed(event);
+      }
+
+      @Override
+      public void rolledBack(GameEventMessage event, boolean cancel) {
+        if (cancel) {
+          cancelOutput(event);
+        }
+      }
+
+      @Override
+      public void committed(GameEventMessage event) {
+        GSS.this.committed(event);
+      }
+    };
+    if (regions == 1) {
+      processes = new LogicalProcess[]{
+          new LogicalProcess(state, stateSaving, listener, timeWarpMetrics)};
+      return;
+    }
+    if (!(state instanceof Partitionable partitionable)) {
+      throw new IllegalArgumentException(
+          state.getClass().getSimpleName() + " can't be split into regions");
+    }
+    GameState[] parts = partitionable.partition(regions);
+    processes = new LogicalProcess[regions];
+    for (int i = 0; i < regions; i++) {
+      // Events are forwarded as they're routed, so the regions don't report back
+      processes[i] = new LogicalProcess(parts[i], stateSaving, new LogicalProcess.Listener() {
+        @Override
+        public void committed(GameEventMessage event) {
+          GSS.this.committed(event);
+        }
+      }, timeWarpMetrics);
+    }
+  }
+
+  /**
+   * A state update some clients need: the tiles that changed since a version, or every tile if
+   * it's 0, within an area of interest, or everywhere if it's null.
+   */
+  private record Update(int base, Rectangle interest) {
+
+  }
+
+  /**
+   * What one client has of this GSS's state: the latest version it's acknowledged, and the
+   * versions sent to it since, which it's assumed to have unless one goes unacknowledged for
+   * STATE_RESEND_MS. Also the area it's interested in, and the first version it was sent
+   * with every tile of that area.
+   */
+  private static class ClientView {
+
+    private int acknowledged;
+    // {version, time sent}, oldest first
+    private final Deque<long[]> unacknowledged = new ArrayDeque<>();
+    private Rectangle interest;
+    private int interestFrom;
+    private int nextSequence;
+
+    /**
+     * Forget what the client had, so that it gets the whole state again.
+     */
+    void rejoined() {
+      acknowledged = 0;
+      unacknowledged.clear();
+      interest = null;
+    }
+
+    void acknowledged(int version) {
+      acknowledged = Math.max(acknowledged, version);
+    }
+
+    void sent(int version, long now, int base) {
+      unacknowledged.addLast(new long[]{version, now});
+      if (base == 0) {
+        interestFrom = Math.min(interestFrom, version);
+      }
+    }
+
+    /**
+     * @return version the next state sent to this client can build on, or 0 if it needs all of it
+     */
+    int base(long now) {
+      while (!unacknowledged.isEmpty() && unacknowledged.peekFirst()[0] <= acknowledged) {
+        unacknowledged.pollFirst();
+      }
+      if (!unacknowledged.isEmpty()
+          && now - unacknowledged.peekFirst()[1] > STATE_RESEND_MS) {
+        // Something was lost: start again from what it's acknowledged
+        unacknowledged.clear();
+      }
+      return unacknowledged.isEmpty() ? acknowledged : (int) unacknowledged.peekLast()[0];
+    }
   }
 }
@@ -1,15 +1,74 @@
 package gss;
 
 import network.Address;
+import network.Message;
 import network.Network;
 import network.Node;
 
-public class GSSClient extends Node {
+public abstract class GSSClient extends Node {
+
+  /**
+   * A node that plays through a GSS. It gets the whole state from its GSS as a StateTransfer when
+   * it joins, and keeps up to date from the messages the GSS sends after that.
+   */
 
   protected Address gss;
+  // The latest StateTransfer from the GSS, or null before the first chunk of one arrives
+  private StateTransfer.Incoming transfer;
 
   public GSSClient(Address address, Address gss, Network network) {
     super(address, network);
     this.gss = gss;
   }
+
+  /**
+   * @return the client's state, with its own events that the GSS hasn't acknowledged on top
+   */
+  public abstract GameState getState();
+
+  /**
+   * Ask the GSS for the whole state. It's safe to ask again while none has arrived, in case the
+   * request was lost.
+   */
+  protected synchronized void join() {
+    send(new JoinMessage(getAddress(), gss, getState().getSimTime(), getState().getGssTime(),
+        getVectorClock()), gss);
+  }
+
+  /**
+   * @return whether a StateTransfer from the GSS is under way
+   */
+  protected synchronized boolean isJoining() {
+    return transfer != null && !transfer.isComplete();
+  }
+
+  /**
+   * Called once a StateTransfer from the GSS is complete.
+   *
+   * @param version version of the state at the GSS, to build later deltas on
+   */
+  protected abstract void stateTransferred(GameState state, int version);
+
+  public synchronized void handleStateChunkMessage(Message m, Address sender) {
+    if (!this.gss.equals(sender)) {
+      return;
+    }
+    if (!(m instanceof StateChunkMessage chunk)) {
+      throw new RuntimeException("Attempted to use handler for wrong kind of message");
+    }
+    StateTransfer.Incoming received = StateTransfer.Incoming.receive(transfer, chunk);
+    if (received == null) {
+      return; // it's from a transfer a later one replaced
+    }
+    boolean wasComplete = received == transfer && transfer.isComplete();
+    transfer = received;
+
+    // Acknowledge every chunk, even a repeat, in case the last acknowledgement was lost
+    send(new StateChunkAckMessage(getAddress(), gss, getState().getSimTime(),
+        getState().getGssTime(), getVectorClock(), transfer.getId(), transfer.getReceived()), gss);
+    if (!wasComplete && transfer.isComplete()) {
+      stateTransferred(transfer.snapshot("State transfer from " + gss).state(),
+          chunk.getGssTime());
+    }
+  }
 }
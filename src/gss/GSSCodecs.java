@@ -0,0 +1,320 @@
+package gss;
+
+import static network.WireCodec.getVarInt;
+import static network.WireCodec.putVarInt;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import network.MessageCodec;
+import network.MessageHeader;
+import network.PayloadCodec;
+import network.WireCodec;
+
+public final class GSSCodecs {
+
+  /**
+   * Wire codecs for GSS messages. GameEventMessage and GameStateMessage are registered with
+   * WireCodec here; the events and states they carry are game-specific, so games register a
+   * PayloadCodec for each of their GameEvent and GameState classes with registerEventType and
+   * registerStateType, and for their GameStateDelta classes with registerDeltaType.
+   * <p>
+   * A GSS sends the same state or delta to each of its clients in turn, so the last one encoded
+   * is kept and copied into the next message that carries it rather than encoded again. That
+   * relies on states and deltas not changing once they've been sent, which a GSS makes sure of.
+   */
+
+  public static final int GAME_EVENT_MESSAGE_TYPE = 1;
+  public static final int GAME_STATE_MESSAGE_TYPE = 2;
+  public static final int ANTI_MESSAGE_TYPE = 3;
+  public static final int GAME_STATE_DELTA_MESSAGE_TYPE = 4;
+  public static final int INTEREST_MESSAGE_TYPE = 5;
+  public static final int JOIN_MESSAGE_TYPE = 6;
+  public static final int STATE_CHUNK_MESSAGE_TYPE = 7;
+  public static final int STATE_CHUNK_ACK_MESSAGE_TYPE = 8;
+  private static final int NO_PAYLOAD = 0;
+
+  private static final PayloadRegistry<GameEvent> events = new PayloadRegistry<>("event");
+  private static final PayloadRegistry<GameState> states = new PayloadRegistry<>("state");
+  private static final PayloadRegistry<GameStateDelta> deltas = new PayloadRegistry<>("delta");
+
+  private record Encoded(Object payload, byte[] bytes) {
+
+  }
+
+  private static volatile Encoded lastShared;
+
+  static {
+    WireCodec.register(GAME_EVENT_MESSAGE_TYPE, GameEventMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(GameEventMessage message, ByteBuffer out) {
+        out.put((byte) (message.wasForwarded() ? 1 : 0));
+        putOutputId(out, message.getOutputId());
+        encodeEvent(message.getEvent(), out);
+      }
+
+      @Override
+      public GameEventMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        boolean forwarded = in.get() != 0;
+        long outputId = getOutputId(in);
+        GameEvent event = decodeEvent(in);
+        GameEventMessage message = new GameEventMessage(event, header.source(),
+            header.destination(), header.simTime(), header.gssTime(), header.vectorClock());
+        message.setForwarded(forwarded);
+        message.setOutputId(outputId);
+        return message;
+      }
+    });
+
+    WireCodec.register(ANTI_MESSAGE_TYPE, AntiMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(AntiMessage message, ByteBuffer out) {
+        putOutputId(out, message.getOutputId());
+      }
+
+      @Override
+      public AntiMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        return new AntiMessage(header.source(), header.destination(), header.simTime(),
+            header.gssTime(), header.vectorClock(), getOutputId(in));
+      }
+    });
+
+    WireCodec.register(GAME_STATE_MESSAGE_TYPE, GameStateMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(GameStateMessage message, ByteBuffer out) {
+        encodeShared(message.getState(), states, out);
+      }
+
+      @Override
+      public GameStateMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        return new GameStateMessage(states.decode(in), header.source(), header.destination(),
+            header.simTime(), header.gssTime(), header.vectorClock());
+      }
+    });
+
+    WireCodec.register(GAME_STATE_DELTA_MESSAGE_TYPE, GameStateDeltaMessage.class,
+        new MessageCodec<>() {
+          @Override
+          public void encodeBody(GameStateDeltaMessage message, ByteBuffer out) {
+            putVarInt(out, message.getBaseGssTime());
+            encodeShared(message.getDelta(), deltas, out);
+          }
+
+          @Override
+          public GameStateDeltaMessage decodeBody(MessageHeader header, ByteBuffer in) {
+            int baseGssTime = getVarInt(in);
+            return new GameStateDeltaMessage(deltas.decode(in), baseGssTime, header.source(),
+                header.destination(), header.simTime(), header.gssTime(), header.vectorClock());
+          }
+        });
+
+    WireCodec.register(INTEREST_MESSAGE_TYPE, InterestMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(InterestMessage message, ByteBuffer out) {
+        Rectangle area = message.getArea();
+        out.put((byte) (area == null ? 0 : 1));
+        if (area != null) {
+          putVarInt(out, area.x);
+          putVarInt(out, area.y);
+          putVarInt(out, area.width);
+          putVarInt(out, area.height);
+        }
+      }
+
+      @Override
+      public InterestMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        Rectangle area = null;
+        if (in.get() != 0) {
+          area = new Rectangle(getVarInt(in), getVarInt(in), getVarInt(in), getVarInt(in));
+        }
+        return new InterestMessage(header.source(), header.destination(), header.simTime(),
+            header.gssTime(), header.vectorClock(), area);
+      }
+    });
+
+    WireCodec.register(JOIN_MESSAGE_TYPE, JoinMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(JoinMessage message, ByteBuffer out) {
+      }
+
+      @Override
+      public JoinMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        return new JoinMessage(header.source(), header.destination(), header.simTime(),
+            header.gssTime(), header.vectorClock());
+      }
+    });
+
+    WireCodec.register(STATE_CHUNK_MESSAGE_TYPE, StateChunkMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(StateChunkMessage message, ByteBuffer out) {
+        putVarInt(out, message.getTransfer());
+        putVarInt(out, message.getIndex());
+        putVarInt(out, message.getCount());
+        putVarInt(out, message.getBytes().length);
+        out.put(message.getBytes());
+      }
+
+      @Override
+      public StateChunkMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        int transfer = getVarInt(in);
+        int index = getVarInt(in);
+        int count = getVarInt(in);
+        byte[] bytes = new byte[getVarInt(in)];
+        in.get(bytes);
+        return new StateChunkMessage(header.source(), header.destination(), header.simTime(),
+            header.gssTime(), header.vectorClock(), transfer, index, count, bytes);
+      }
+    });
+
+    WireCodec.register(STATE_CHUNK_ACK_MESSAGE_TYPE, StateChunkAckMessage.class,
+        new MessageCodec<>() {
+          @Override
+          public void encodeBody(StateChunkAckMessage message, ByteBuffer out) {
+            putVarInt(out, message.getTransfer());
+            putVarInt(out, message.getReceived());
+          }
+
+          @Override
+          public StateChunkAckMessage decodeBody(MessageHeader header, ByteBuffer in) {
+            return new StateChunkAckMessage(header.source(), header.destination(),
+                header.simTime(), header.gssTime(), header.vectorClock(), getVarInt(in),
+                getVarInt(in));
+          }
+        });
+  }
+
+  private GSSCodecs() {
+  }
+
+  private static <T> void encodeShared(T payload, PayloadRegistry<T> registry, ByteBuffer out) {
+    Encoded last = lastShared;
+    if (last != null && last.payload() == payload) {
+      out.put(last.bytes());
+      return;
+    }
+    int start = out.position();
+    registry.encode(payload, out);
+    byte[] bytes = new byte[out.position() - start];
+    out.get(start, bytes);
+    lastShared = new Encoded(payload, bytes);
+  }
+
+  /**
+   * Write an event and its ordering key, or a missing one, as a GameEventMessage carries it.
+   */
+  static void encodeEvent(GameEvent event, ByteBuffer out) {
+    putVarInt(out, event == null ? 0 : event.getOrigin() + 1);
+    putVarInt(out, event == null ? 0 : event.getSequence());
+    events.encode(event, out);
+  }
+
+  static GameEvent decodeEvent(ByteBuffer in) {
+    int origin = getVarInt(in) - 1;
+    int sequence = getVarInt(in);
+    GameEvent event = events.decode(in);
+    if (event != null && origin >= 0) {
+      event.setKey(origin, sequence);
+    }
+    return event;
+  }
+
+  static void encodeState(GameState state, ByteBuffer out) {
+    states.encode(state, out);
+  }
+
+  static GameState decodeState(ByteBuffer in) {
+    return states.decode(in);
+  }
+
+  static void encodeDelta(GameStateDelta delta, ByteBuffer out) {
+    deltas.encode(delta, out);
+  }
+
+  static GameStateDelta decodeDelta(ByteBuffer in) {
+    return deltas.decode(in);
+  }
+
+  // Output ids are the forwarding server's index and a counter, written as two varints
+  private static void putOutputId(ByteBuffer out, long outputId) {
+    putVarInt(out, (int) (outputId >>> 32));
+    putVarInt(out, (int) outputId);
+  }
+
+  private static long getOutputId(ByteBuffer in) {
+    long server = getVarInt(in);
+    return server << 32 | (getVarInt(in) & 0xffffffffL);
+  }
+
+  /**
+   * @param type id written on the wire, 1-255
+   */
+  public static <E extends GameEvent> void registerEventType(int type, Class<E> eventClass,
+      PayloadCodec<E> codec) {
+    events.register(type, eventClass, codec);
+  }
+
+  /**
+   * @param type id written on the wire, 1-255
+   */
+  public static <S extends GameState> void registerStateType(int type, Class<S> stateClass,
+      PayloadCodec<S> codec) {
+    states.register(type, stateClass, codec);
+  }
+
+  /**
+   * @param type id written on the wire, 1-255
+   */
+  public static <D extends GameStateDelta> void registerDeltaType(int type, Class<D> deltaClass,
+      PayloadCodec<D> codec) {
+    deltas.register(type, deltaClass, codec);
+  }
+
+  private static class PayloadRegistry<T> {
+
+    private final String kind;
+    private final PayloadCodec<?>[] byType = new PayloadCodec<?>[256];
+    private final Map<Class<?>, Integer> types = new ConcurrentHashMap<>();
+
+    PayloadRegistry(String kind) {
+      this.kind = kind;
+    }
+
+    synchronized void register(int type, Class<? extends T> payloadClass,
+        PayloadCodec<? extends T> codec) {
+      if (type == NO_PAYLOAD) {
+        throw new IllegalArgumentException("Type 0 is reserved for a missing " + kind);
+      }
+      byType[type] = codec;
+      types.put(payloadClass, type);
+    }
+
+    @SuppressWarnings("unchecked")
+    void encode(T payload, ByteBuffer out) {
+      if (payload == null) {
+        out.put((byte) NO_PAYLOAD);
+        return;
+      }
+      Integer type = types.get(payload.getClass());
+      if (type == null) {
+        throw new RuntimeException(
+            "No codec registered for " + kind + " " + payload.getClass().getSimpleName());
+      }
+      out.put(type.byteValue());
+      ((PayloadCodec<T>) byType[type]).encode(payload, out);
+    }
+
+    @SuppressWarnings("unchecked")
+    T decode(ByteBuffer in) {
+      int type = in.get() & 0xff;
+      if (type == NO_PAYLOAD) {
+        return null;
+      }
+      PayloadCodec<?> codec = byType[type];
+      if (codec == null) {
+        throw new RuntimeException("Unknown " + kind + " type " + type + " on the wire");
+      }
+      return (T) codec.decode(in);
+    }
+  }
+}
@@ -3,6 +3,7 @@ package gss;
 import java.util.HashMap;
 import java.util.Map;
 import network.Address;
+import network.GvtMode;
 
 public class GSSConfiguration {
 
@@ -19,14 +20,22 @@ public class GSSConfiguration {
   private static int[] connections;
   private static Address[] serverAddresses;
   private static Address[] clientAddresses;
+  private static GvtMode gvtMode = GvtMode.VECTOR_CLOCK;
 
   private GSSConfiguration() {
   }
 
   public static void SetConfiguration(int nServers, int nClients, Address[] serverAddresses,
       Address[] clientAddresses, int[] connections) {
+    SetConfiguration(nServers, nClients, serverAddresses, clientAddresses, connections,
+        GvtMode.VECTOR_CLOCK);
+  }
+
+  public static void SetConfiguration(int nServers, int nClients, Address[] serverAddresses,
+      Address[] clientAddresses, int[] connections, GvtMode gvtMode) {
 
     nodeIndices = new HashMap<>();
+    GSSConfiguration.gvtMode = gvtMode;
 
     GSSConfiguration.nServers = nServers;
     GSSConfiguration.nClients = nClients;
@@ -62,4 +71,15 @@ public class GSSConfiguration {
   public static Address[] getServerAddresses() {
     return serverAddresses.clone();
   }
+
+  /**
+   * @return address of the node with the given index, servers first and then clients
+   */
+  public static Address getNodeAddress(int index) {
+    return index < nServers ? serverAddresses[index] : clientAddresses[index - nServers];
+  }
+
+  public static GvtMode getGvtMode() {
+    return gvtMode;
+  }
 }
@@ -2,11 +2,17 @@ package gss;
 
 public abstract class GameEvent implements Comparable<GameEvent> {
   /*
-   * Interface for game events for games compatible with gss.GSS. Must be serializable.
+   * Interface for game events for games compatible with gss.GSS. Must be serializable (register a
+   * codec with GSSCodecs to send it over a transport that encodes messages).
    * Does this have other requirements? I think the gss.GameEvent is kind of just a data store.
    */
 
   private final int simTime;
+  // Node index of the client the event came from, and how many events from it came before. The
+  // first GSS to get the event sets them, and they go with it to every other server, so that
+  // events at the same sim time are in the same order everywhere.
+  private int origin = -1;
+  private int sequence;
 
   protected GameEvent(int simTime) {
     this.simTime = simTime;
@@ -16,11 +22,37 @@ public abstract class GameEvent implements Comparable<GameEvent> {
     return simTime;
   }
 
+  /**
+   * @return node index of the client this event came from, or -1 if no GSS has had it yet
+   */
+  public int getOrigin() {
+    return origin;
+  }
+
+  public int getSequence() {
+    return sequence;
+  }
+
+  boolean hasKey() {
+    return origin >= 0;
+  }
+
+  void setKey(int origin, int sequence) {
+    this.origin = origin;
+    this.sequence = sequence;
+  }
+
+  /**
+   * Order by sim time, then origin, then sequence: the same order on every server.
+   */
   @Override
   public int compareTo(GameEvent o) {
-    if (this.getSimTime() == o.getSimTime()) {
-      return Integer.compare(this.hashCode(), o.hashCode());
+    if (simTime != o.simTime) {
+      return Integer.compare(simTime, o.simTime);
+    }
+    if (origin != o.origin) {
+      return Integer.compare(origin, o.origin);
     }
-    return Integer.compare(this.getSimTime(), o.getSimTime());
+    return Integer.compare(sequence, o.sequence);
   }
 }
@@ -7,6 +7,8 @@ public class GameEventMessage extends Message implements Comparable<GameEventMes
 
   private final GameEvent event;
   private boolean forwarded = false;
+  private int executedGssTime;
+  private long outputId;
 
   public GameEventMessage(GameEvent event, Address src, Address dst, int simTime, int gssTime,
       int[] vectorClock) {
@@ -26,11 +28,54 @@ public class GameEventMessage extends Message implements Comparable<GameEventMes
     return this.forwarded;
   }
 
+  /**
+   * @return id the forwarding GSS gave this event, so that an AntiMessage can refer to it, or 0
+   * if it hasn't been forwarded
+   */
+  public long getOutputId() {
+    return outputId;
+  }
+
+  void setOutputId(long outputId) {
+    this.outputId = outputId;
+  }
+
+  /**
+   * Gss time of the GSS that executed this event, when it executed it. Used to restore the
+   * state's gss time when the event is executed again while coasting forward.
+   */
+  int getExecutedGssTime() {
+    return executedGssTime;
+  }
+
+  void setExecutedGssTime(int executedGssTime) {
+    this.executedGssTime = executedGssTime;
+  }
+
+  /**
+   * Copy to give each region's LogicalProcess, which keeps its own executed gss time. It orders
+   * the same as this one.
+   */
+  GameEventMessage copyForRegion() {
+    GameEventMessage copy = new GameEventMessage(event, source, destination, simTime, gssTime,
+        vectorClock);
+    copy.forwarded = forwarded;
+    copy.outputId = outputId;
+    return copy;
+  }
+
+  /**
+   * Order by sim time, then by event, so that messages carrying events are in the same order on
+   * every server. Heartbeats, which carry none, go before events at the same sim time.
+   */
   @Override
   public int compareTo(GameEventMessage o) {
-    if (this.getSimTime() == o.getSimTime()) {
-      return Integer.compare(this.hashCode(), o.hashCode());
+    if (simTime != o.simTime) {
+      return Integer.compare(simTime, o.simTime);
+    }
+    if (event == null || o.event == null) {
+      return Boolean.compare(event != null, o.event != null);
     }
-    return Integer.compare(this.getSimTime(), o.getSimTime());
+    return event.compareTo(o.event);
   }
 }
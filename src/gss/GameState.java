@@ -1,7 +1,5 @@
 package gss;
 
-import java.util.Comparator;
-
 public abstract class GameState implements Comparable<GameState> {
   /*
    * Interface for game state for a game compatible with GSSs. Must be serializable and able to
@@ -38,12 +36,32 @@ public abstract class GameState implements Comparable<GameState> {
     this.simTime = Math.max(event.getSimTime(), this.simTime);
   }
 
+  /**
+   * Apply an event and return a record that undoes it. States that don't override this return
+   * null, and GSS saves a full copy of them after each event instead.
+   *
+   * @param event gss.GameEvent to be applied
+   * @return record that puts the state back as it was, or null if this state can't make one
+   */
+  public UndoRecord applyEventUndoable(GameEvent event) {
+    applyEvent(event);
+    return null;
+  }
+
+  void restoreTimes(int simTime, int gssTime) {
+    this.simTime = simTime;
+    this.gssTime = gssTime;
+  }
+
   public abstract GameState copy();
 
   public int compareTo(GameState o) {
-    return Comparator.comparing(GameState::getSimTime)
-        .thenComparing(GameState::getGssTime)
-        .thenComparing(GameState::hashCode)
-        .compare(this, o);
+    if (simTime != o.simTime) {
+      return Integer.compare(simTime, o.simTime);
+    }
+    if (gssTime != o.gssTime) {
+      return Integer.compare(gssTime, o.gssTime);
+    }
+    return Integer.compare(hashCode(), o.hashCode());
   }
 }
@@ -0,0 +1,36 @@
+package gss;
+
+public abstract class GameStateDelta {
+
+  /**
+   * Contents of some tiles of a Tiled state, with its sim and gss times. Applied to a copy of the
+   * same state from an earlier frame, it brings the copy up to date as long as it holds every tile
+   * that changed in between. Games register a PayloadCodec for theirs with
+   * GSSCodecs.registerDeltaType.
+   */
+
+  private final int simTime;
+  private final int gssTime;
+  private final int[] tiles;
+
+  protected GameStateDelta(int simTime, int gssTime, int[] tiles) {
+    this.simTime = simTime;
+    this.gssTime = gssTime;
+    this.tiles = tiles;
+  }
+
+  public int getSimTime() {
+    return simTime;
+  }
+
+  public int getGssTime() {
+    return gssTime;
+  }
+
+  /**
+   * @return indexes of the tiles this delta holds, in increasing order
+   */
+  public int[] getTiles() {
+    return tiles;
+  }
+}
@@ -0,0 +1,34 @@
+package gss;
+
+import network.Address;
+import network.Message;
+
+public class GameStateDeltaMessage extends Message {
+
+  /**
+   * The tiles of a GSS's state that changed since an earlier state it sent, for a client that
+   * has that one or anything later. The gss time is the version of the state this brings the
+   * client up to.
+   */
+
+  private final GameStateDelta delta;
+  private final int baseGssTime;
+
+  public GameStateDeltaMessage(GameStateDelta delta, int baseGssTime, Address src, Address dst,
+      int simTime, int gssTime, int[] vectorClock) {
+    super(src, dst, simTime, gssTime, vectorClock);
+    this.delta = delta;
+    this.baseGssTime = baseGssTime;
+  }
+
+  public GameStateDelta getDelta() {
+    return delta;
+  }
+
+  /**
+   * @return version of the earliest state this delta can be applied to
+   */
+  public int getBaseGssTime() {
+    return baseGssTime;
+  }
+}
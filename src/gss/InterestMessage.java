@@ -0,0 +1,25 @@
+package gss;
+
+import java.awt.Rectangle;
+import network.Address;
+import network.Message;
+
+public class InterestMessage extends Message {
+
+  /**
+   * Tells a client's GSS which part of a Tiled state it wants updates for, e.g. what its viewport
+   * shows. The GSS only sends it tiles that overlap the area. A null area asks for everything.
+   */
+
+  private final Rectangle area;
+
+  public InterestMessage(Address src, Address dst, int simTime, int gssTime, int[] vectorClock,
+      Rectangle area) {
+    super(src, dst, simTime, gssTime, vectorClock);
+    this.area = area;
+  }
+
+  public Rectangle getArea() {
+    return area;
+  }
+}
@@ -0,0 +1,16 @@
+package gss;
+
+import network.Address;
+import network.Message;
+
+public class JoinMessage extends Message {
+
+  /**
+   * Asks a GSS for its whole state, from a client that's joining late or has restarted. The GSS
+   * sends it as a StateTransfer, and adds the client if it didn't have it.
+   */
+
+  public JoinMessage(Address src, Address dst, int simTime, int gssTime, int[] vectorClock) {
+    super(src, dst, simTime, gssTime, vectorClock);
+  }
+}
@@ -0,0 +1,26 @@
+package gss;
+
+/**
+ * When an EventJournal forces what it's written out to disk. Whatever the policy, written events
+ * survive the process crashing, since they're in the page cache; this is about the host crashing.
+ */
+public enum JournalSync {
+
+  /**
+   * Leave it to the operating system to write pages back, and only force when a segment fills
+   * up, and on flush and close.
+   */
+  NONE,
+
+  /**
+   * Force at most every EventJournal.SYNC_PERIOD_MS while there's anything unforced, when a
+   * segment fills up, and on flush and close.
+   */
+  PERIODIC,
+
+  /**
+   * Force after every batch the writer takes, so that events that arrive together are forced
+   * together.
+   */
+  EVERY_BATCH
+}
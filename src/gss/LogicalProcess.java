@@ -0,0 +1,393 @@
+package gss;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import metrics.MetricsRegistry;
+import util.TimeIndexedLog;
+
+class LogicalProcess {
+
+  /**
+   * One state and the Time Warp history behind it: the events waiting to be executed, the ones
+   * executed so far, and what's been saved to roll them back. A GSS has one of these, or one per
+   * region when its state is Partitionable, and decides what happens to forwarded events through a
+   * Listener.
+   */
+
+  /**
+   * Told about each event as it's executed and rolled back. Called on whichever thread runs the
+   * LogicalProcess.
+   */
+  interface Listener {
+
+    default void executed(GameEventMessage event) {
+    }
+
+    /**
+     * @param cancel whether the event's output should be cancelled
+     */
+    default void rolledBack(GameEventMessage event, boolean cancel) {
+    }
+
+    /**
+     * Told as a committed event is fossil collected, in the order the events were executed.
+     */
+    default void committed(GameEventMessage event) {
+    }
+  }
+
+  private final PriorityQueue<GameEventMessage> inputQueue;
+  private final TimeIndexedLog<GameEventMessage> executedQueue;
+  private final TimeIndexedLog<Checkpoint> saveStates;
+  private final Deque<UndoRecord> undoLog;
+  private final CheckpointInterval checkpointInterval;
+  private final Listener listener;
+  private final TimeWarpMetrics metrics;
+  private StateSaving stateSaving;
+  private int eventsSinceCheckpoint;
+  private int gssTime;
+  // Last event fossil collected, which a committed snapshot taken by undoing holds up to
+  private GameEvent lastCommitted;
+  private GameState state;
+  private long rollbacks;
+  private long rolledBackEvents;
+  private int peakExecutedEvents;
+  private long executedSinceUpdate;
+  private long rolledBackSinceUpdate;
+
+  LogicalProcess(GameState state, StateSaving stateSaving, Listener listener) {
+    this(state, stateSaving, listener, new TimeWarpMetrics(new MetricsRegistry()));
+  }
+
+  LogicalProcess(GameState state, StateSaving stateSaving, Listener listener,
+      TimeWarpMetrics metrics) {
+    this.metrics = metrics;
+    this.inputQueue = new PriorityQueue<>();
+    this.executedQueue = new TimeIndexedLog<>((e) -> e.getEvent().getSimTime());
+    this.saveStates = new TimeIndexedLog<>((c) -> c.state.getSimTime());
+    this.undoLog = new ArrayDeque<>();
+    this.checkpointInterval = new CheckpointInterval();
+    this.listener = listener;
+    this.stateSaving = stateSaving;
+    this.state = state;
+    this.gssTime = state.getGssTime();
+    saveStates.add(new Checkpoint(state.copy(), gssTime, null));
+  }
+
+  void add(GameEventMessage input) {
+    inputQueue.add(input);
+  }
+
+  /**
+   * Execute the events in the inputQueue up to horizon, rolling back whenever one arrived later
+   * than an event after it that's already been executed.
+   *
+   * @return true if state has changed, otherwise false
+   */
+  boolean execute(long horizon) {
+    inputQueue.removeIf((gem) -> gem.getEvent() == null);
+
+    boolean updated = false;
+    GameEventMessage input = inputQueue.poll();
+    while (input != null) {
+      GameEvent event = input.getEvent();
+      if (input.getSimTime() > horizon) {
+        // Too far ahead of GVT. It and everything after it wait until GVT catches up.
+        inputQueue.add(input);
+        break;
+      }
+      updated = true;
+      if (!executedQueue.isEmpty() && input.compareTo(executedQueue.peekLast()) < 0) {
+        // a mis-ordering happened and we need to roll back to this time
+        rollbackTo(event.getSimTime(), true);
+        inputQueue.add(input);
+        input = inputQueue.poll();
+        continue;
+      }
+
+      gssTime += 1;
+      metrics.executed.increment();
+      if (input.getExecutedGssTime() != 0) {
+        metrics.reexecuted.increment();
+      }
+      UndoRecord undo = null;
+      if (stateSaving == StateSaving.INCREMENTAL) {
+        undo = state.applyEventUndoable(event);
+        if (undo == null) {
+          // This state can't record undos, so it has to be copied
+          stateSaving = StateSaving.COPY;
+        }
+      } else {
+        long start = System.nanoTime();
+        state.applyEvent(event);
+        checkpointInterval.executed(System.nanoTime() - start);
+      }
+      state.setGssTime(gssTime);
+      input.setExecutedGssTime(gssTime);
+      executedQueue.add(input);
+      executedSinceUpdate++;
+      peakExecutedEvents = Math.max(peakExecutedEvents, executedQueue.size());
+      saveState(undo);
+      listener.executed(input);
+
+      input = inputQueue.poll();
+    }
+    return updated;
+  }
+
+  /**
+   * Save what's needed to roll back over the event just executed: its undo record, or with
+   * StateSaving.COPY a full copy every checkpointInterval events.
+   */
+  private void saveState(UndoRecord undo) {
+    if (undo != null) {
+      undoLog.addLast(undo);
+      return;
+    }
+    if (++eventsSinceCheckpoint >= checkpointInterval.get()) {
+      long start = System.nanoTime();
+      saveStates.add(new Checkpoint(state.copy(), gssTime, executedQueue.peekLast().getEvent()));
+      checkpointInterval.checkpointed(System.nanoTime() - start);
+      eventsSinceCheckpoint = 0;
+    }
+  }
+
+  /**
+   * Roll back to a saved state when a misordering happens.
+   *
+   * @param targetTime     sim time to roll back to
+   * @param cancelAtTarget whether forwarded events at exactly targetTime are cancelled too. A
+   *                       rollback caused by an AntiMessage only cancels later ones, so that
+   *                       echoes between servers always move forward in sim time and die out.
+   */
+  void rollbackTo(int targetTime, boolean cancelAtTarget) {
+    /*
+     * 1. Roll back state to target time. Discard saved states from later times.
+     * 2. Move all events in the executed queue with time > target time to the input queue.
+     * 3. Cancel (send anti-messages for) any outputs with time > target time that are affected.
+     */
+
+    rollbacks++;
+    checkpointInterval.rolledBack();
+    metrics.rollbacks.increment();
+    if (!executedQueue.isEmpty()) {
+      metrics.rollbackSimTime.record(
+          executedQueue.peekLast().getEvent().getSimTime() - targetTime);
+    }
+
+    // 1. roll back state to target time
+    if (stateSaving == StateSaving.INCREMENTAL) {
+      // Events were executed in order, so the ones to undo are at the end of the log
+      while (!undoLog.isEmpty() && undoLog.peekLast().getEventSimTime() >= targetTime) {
+        undoLog.pollLast().undo(state);
+      }
+    } else {
+      rollbackToCheckpoint(targetTime);
+    }
+
+    // 2. move rolled-back events back to the input queue, and 3. cancel their outputs
+    int count = executedQueue.removeFrom(targetTime, (executed) -> {
+      inputQueue.add(executed);
+      listener.rolledBack(executed,
+          cancelAtTarget || executed.getEvent().getSimTime() > targetTime);
+    });
+    rolledBackEvents += count;
+    metrics.rollbackEvents.record(count);
+    rolledBackSinceUpdate += count;
+  }
+
+  /**
+   * Replace state with a copy of the latest checkpoint before targetTime, then coast forward:
+   * execute the events between that checkpoint and targetTime again. They've already been
+   * forwarded, so the listener isn't told, and the state ends up just as a copy taken after the
+   * last of them would have been.
+   */
+  private void rollbackToCheckpoint(int targetTime) {
+    saveStates.removeFrom(targetTime, (c) -> {
+    });
+    Checkpoint checkpoint = saveStates.peekLast();
+    assert checkpoint != null;
+    state = checkpoint.state.copy();
+
+    // Nothing earlier than the checkpoint's sim time can have been executed after it
+    int coasted = 0;
+    int end = executedQueue.indexOf(targetTime);
+    for (int i = executedQueue.indexOf(checkpoint.state.getSimTime()); i < end; i++) {
+      GameEventMessage executed = executedQueue.get(i);
+      if (executed.getExecutedGssTime() > checkpoint.executedThrough) {
+        state.applyEvent(executed.getEvent());
+        state.setGssTime(executed.getExecutedGssTime());
+        coasted++;
+      }
+    }
+    eventsSinceCheckpoint = coasted;
+  }
+
+  /**
+   * Throw out old snapshots and stored events with sim time less than GVT. These are committed
+   * and safe to discard.
+   */
+  void collectFossils(int globalSimTime) {
+    // Here, be sure to keep at least one saveState with sim time < GVT so that there's
+    // one to roll back to if needed.
+    Checkpoint last = saveStates.lastBefore(globalSimTime);
+    if (last != null) {
+      saveStates.removeBefore(last.state.getSimTime());
+    }
+
+    int horizon = getCommitHorizon(globalSimTime);
+    while (!undoLog.isEmpty() && undoLog.peekFirst().getEventSimTime() < globalSimTime) {
+      undoLog.pollFirst();
+    }
+    metrics.committed.add(executedQueue.removeBefore(horizon, (e) -> {
+      lastCommitted = e.getEvent();
+      listener.committed(e);
+    }));
+
+    checkpointInterval.update();
+  }
+
+  /**
+   * With StateSaving.COPY, the events after the oldest checkpoint are kept too, in case they need
+   * coasting over. The horizon never goes back as GVT advances.
+   *
+   * @return sim time below which collectFossils commits every executed event
+   */
+  int getCommitHorizon(int globalSimTime) {
+    if (stateSaving == StateSaving.COPY && !saveStates.isEmpty()) {
+      return Math.min(globalSimTime, saveStates.peekFirst().state.getSimTime());
+    }
+    return globalSimTime;
+  }
+
+  /**
+   * With StateSaving.INCREMENTAL, the state is copied and the events after GVT undone in the copy.
+   * Call it just after collectFossils with the same GVT, so that every event before it is
+   * committed.
+   *
+   * @return the latest saved state with only committed events in it, or null if there's nothing
+   *     committed since the initial state
+   */
+  SnapshotStore.Snapshot committedSnapshot(int globalSimTime) {
+    if (stateSaving == StateSaving.INCREMENTAL) {
+      if (lastCommitted == null) {
+        return null;
+      }
+      GameState committed = state.copy();
+      Iterator<UndoRecord> undo = undoLog.descendingIterator();
+      while (undo.hasNext()) {
+        undo.next().undo(committed);
+      }
+      return new SnapshotStore.Snapshot(committed, lastCommitted);
+    }
+    Checkpoint last = saveStates.lastBefore(globalSimTime);
+    if (last == null || last.through == null) {
+      return null;
+    }
+    return new SnapshotStore.Snapshot(last.state, last.through);
+  }
+
+  /**
+   * @return the executed event with this output id, or null if it hasn't been executed
+   */
+  GameEventMessage findExecuted(long outputId, int simTime) {
+    for (int i = executedQueue.indexOf(simTime); i < executedQueue.size(); i++) {
+      GameEventMessage e = executedQueue.get(i);
+      if (e.getEvent().getSimTime() > simTime) {
+        break;
+      }
+      if (e.getOutputId() == outputId) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Take the event with this output id out of the inputQueue.
+   *
+   * @return whether it was there
+   */
+  boolean annihilate(long outputId) {
+    return inputQueue.removeIf((i) -> i.getOutputId() == outputId);
+  }
+
+  boolean isPending(GameEventMessage event) {
+    return inputQueue.stream().anyMatch((i) -> i == event);
+  }
+
+  int getLowestPendingSimTime() {
+    GameEventMessage pending = inputQueue.peek();
+    return pending == null ? Integer.MAX_VALUE : pending.getSimTime();
+  }
+
+  GameState getState() {
+    return state;
+  }
+
+  int getInputQueueSize() {
+    return inputQueue.size();
+  }
+
+  int getExecutedQueueSize() {
+    return executedQueue.size();
+  }
+
+  int getSaveStateCount() {
+    return saveStates.size();
+  }
+
+  int getGssTime() {
+    return gssTime;
+  }
+
+  long getRollbackCount() {
+    return rollbacks;
+  }
+
+  long getRolledBackEventCount() {
+    return rolledBackEvents;
+  }
+
+  int getPeakExecutedEvents() {
+    return peakExecutedEvents;
+  }
+
+  long getUndoLogBytes() {
+    long bytes = 0;
+    for (UndoRecord undo : undoLog) {
+      bytes += undo.sizeBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * @return events executed since the last call to this, and how many of them were rolled back
+   */
+  long[] takeWorkSinceUpdate() {
+    long[] work = {executedSinceUpdate, rolledBackSinceUpdate};
+    executedSinceUpdate = 0;
+    rolledBackSinceUpdate = 0;
+    return work;
+  }
+
+  /**
+   * A full copy of the state, and the gss time when it was taken. Events still in the
+   * executedQueue with a later executed gss time are the ones executed after it. Also the last
+   * event executed before it, or null for the initial state.
+   */
+  private static class Checkpoint {
+
+    private final GameState state;
+    private final int executedThrough;
+    private final GameEvent through;
+
+    Checkpoint(GameState state, int executedThrough, GameEvent through) {
+      this.state = state;
+      this.executedThrough = executedThrough;
+      this.through = through;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package gss;
+
+public interface OptimismPolicy {
+
+  /**
+   * How far ahead of GVT a GSS may execute events. Events later than globalSimTime plus the
+   * window wait in the inputQueue, where they hold GVT back, until GVT catches up. Throttling a
+   * server that runs far ahead of the others cuts the rollbacks it would otherwise suffer and the
+   * saved states and executed events it keeps for them.
+   */
+
+  /**
+   * @return current window in sim time units
+   */
+  int getWindow();
+
+  /**
+   * Called once per fossil collection with what the GSS did since the last call.
+   *
+   * @param executed   events executed, including ones executed again after a rollback
+   * @param rolledBack events undone by rollbacks
+   */
+  default void update(long executed, long rolledBack) {
+  }
+
+  /**
+   * @return no window at all: every event is executed as soon as it arrives
+   */
+  static OptimismPolicy unbounded() {
+    return () -> Integer.MAX_VALUE;
+  }
+
+  static OptimismPolicy fixed(int window) {
+    if (window < 0) {
+      throw new IllegalArgumentException("Window must not be negative: " + window);
+    }
+    return () -> window;
+  }
+
+  /**
+   * A moving time window that breathes with the rollback rate: it halves when more than a tenth
+   * of the events executed were rolled back, and grows by a quarter when under a fiftieth were.
+   *
+   * @return window that starts at maxWindow and stays within [minWindow, maxWindow]
+   */
+  static OptimismPolicy adaptive(int minWindow, int maxWindow) {
+    if (minWindow < 1 || maxWindow < minWindow) {
+      throw new IllegalArgumentException(
+          "Need 1 <= minWindow <= maxWindow, got " + minWindow + " and " + maxWindow);
+    }
+    return new OptimismPolicy() {
+      private int window = maxWindow;
+
+      @Override
+      public int getWindow() {
+        return window;
+      }
+
+      @Override
+      public void update(long executed, long rolledBack) {
+        if (executed == 0) {
+          return;
+        }
+        double wasted = (double) rolledBack / executed;
+        if (wasted > 0.1) {
+          window = Math.max(minWindow, window / 2);
+        } else if (wasted < 0.02) {
+          window = Math.min(maxWindow, window + Math.max(1, window / 4));
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,26 @@
+package gss;
+
+/**
+ * A GameState that can be split into regions which events change independently of each other, so
+ * that a GSS can run Time Warp on each region in parallel. See GSS.setRegions.
+ */
+public interface Partitionable {
+
+  /**
+   * Split the state into parts, one per region, that each start with the same sim time. Together
+   * they must hold all of it.
+   */
+  GameState[] partition(int regions);
+
+  /**
+   * @return regions of partition(regions) that an event changes. It's applied to the part of each,
+   * which must only change what falls inside that region.
+   */
+  int[] regionsOf(GameEvent event, int regions);
+
+  /**
+   * @param parts states of the regions from partition, with events applied since
+   * @return whole state with the given parts, at the latest of their sim times
+   */
+  GameState join(GameState[] parts);
+}
@@ -0,0 +1,323 @@
+package gss;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class SnapshotStore implements AutoCloseable {
+
+  /**
+   * Committed states of a GSS on disk, so that it can restart from the latest one and the events
+   * its EventJournal has after it, rather than from the start. Snapshots are written compressed
+   * by a thread of the store's own. For a Tiled state most of them only hold the tiles that
+   * changed since the one before, and every FULL_SNAPSHOT_PERIOD-th holds the whole state, so
+   * loading one reads at most a full state and the deltas after it, and older files are deleted.
+   * <p>
+   * Each snapshot is a file of [magic][version][full][last event][length][deflated state or
+   * delta], where the last event is the last one executed into the state, written as GSSCodecs
+   * writes it in a GameEventMessage, and the length is of the state or delta before it was
+   * deflated. A file is written under a temporary name and renamed once it's on disk, so a crash
+   * never leaves half of one.
+   */
+
+  public static final int FULL_SNAPSHOT_PERIOD = 8;
+  private static final int MAGIC = 0x47535353; // "GSSS"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+  private static final String SUFFIX = ".snapshot";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  /**
+   * A committed state and the last event executed into it, or null if it's the initial state.
+   */
+  public record Snapshot(GameState state, GameEvent through) {
+
+  }
+
+  private final Path directory;
+  private final ExecutorService writer;
+  private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+  private volatile Exception failure;
+  // Only touched by the writer, or by load before anything's saved
+  private long nextNumber;
+  private GameState lastSaved;
+  private int sinceFull;
+  private long bytesWritten;
+
+  public SnapshotStore(Path directory) {
+    this.directory = directory;
+    try {
+      Files.createDirectories(directory);
+      List<Path> existing = snapshots();
+      nextNumber = existing.isEmpty() ? 0 : numberOf(existing.get(existing.size() - 1)) + 1;
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't open snapshots in " + directory, e);
+    }
+    writer = Executors.newSingleThreadExecutor((r) -> {
+      Thread thread = new Thread(r, "snapshots-" + directory.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Write a snapshot in the background. If the last one is still waiting to be written, this
+   * one replaces it. The snapshot's state must not change afterwards.
+   *
+   * @throws RuntimeException if writing an earlier snapshot failed
+   */
+  public void save(Snapshot snapshot) {
+    if (failure != null) {
+      throw new RuntimeException("Writing a snapshot to " + directory + " failed", failure);
+    }
+    if (pending.getAndSet(snapshot) == null) {
+      writer.execute(this::writePending);
+    }
+  }
+
+  /**
+   * Wait for any snapshot being written, and stop the writer.
+   */
+  @Override
+  public void close() {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw new RuntimeException("Writing a snapshot to " + directory + " failed", failure);
+    }
+  }
+
+  /**
+   * Read the latest snapshot: the latest full one with every delta after it applied. Call it
+   * before saving anything, so that the next snapshot can be a delta from it.
+   *
+   * @return the snapshot, or null if there isn't one
+   */
+  public Snapshot load() {
+    try {
+      List<Path> files = snapshots();
+      int full = files.size() - 1;
+      while (full >= 0 && !isFull(files.get(full))) {
+        full--;
+      }
+      if (full < 0) {
+        return null;
+      }
+
+      GameState state = null;
+      GameEvent through = null;
+      for (Path file : files.subList(full, files.size())) {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        readHeader(file, in);
+        boolean isFull = in.get() != 0;
+        through = GSSCodecs.decodeEvent(in);
+        ByteBuffer body = inflate(in, file.toString());
+        state = isFull ? GSSCodecs.decodeState(body)
+            : ((Tiled) state).withDelta(GSSCodecs.decodeDelta(body));
+      }
+      lastSaved = state;
+      sinceFull = files.size() - 1 - full;
+      return new Snapshot(state.copy(), through);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't read snapshots in " + directory, e);
+    }
+  }
+
+  /**
+   * @return total bytes of the snapshot files written so far
+   */
+  public synchronized long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  private void writePending() {
+    Snapshot snapshot = pending.getAndSet(null);
+    try {
+      write(snapshot);
+    } catch (IOException | RuntimeException e) {
+      failure = e;
+    }
+  }
+
+  private void write(Snapshot snapshot) throws IOException {
+    GameState state = snapshot.state();
+    boolean full = lastSaved == null || sinceFull + 1 >= FULL_SNAPSHOT_PERIOD
+        || !(state instanceof Tiled);
+    ByteBuffer body;
+    if (full) {
+      body = toBytes(snapshot, HEADER_BYTES);
+    } else {
+      Tiled tiled = (Tiled) state;
+      GameStateDelta delta = tiled.deltaOf(IntStream.range(0, tiled.getTileCount())
+          .filter((tile) -> tiled.tileChanged(tile, lastSaved)).toArray());
+      body = encodeBody(false, snapshot.through(), (out) -> GSSCodecs.encodeDelta(delta, out),
+          HEADER_BYTES);
+    }
+    body.putInt(0, MAGIC);
+    body.putInt(4, VERSION);
+
+    long number = nextNumber++;
+    Path file = directory.resolve(String.format("%020d%s", number, SUFFIX));
+    Path temporary = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (body.hasRemaining()) {
+        channel.write(body);
+      }
+      channel.force(false);
+    }
+    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    synchronized (this) {
+      bytesWritten += Files.size(file);
+    }
+
+    lastSaved = state;
+    sinceFull = full ? 0 : sinceFull + 1;
+    if (full) {
+      for (Path older : snapshots()) {
+        if (numberOf(older) < number) {
+          Files.delete(older);
+        }
+      }
+    }
+  }
+
+  /**
+   * Encode a full snapshot as it's written in a file after the magic and version, which a
+   * StateTransfer also sends.
+   *
+   * @param reserved bytes to leave free at the start
+   * @return buffer holding the snapshot after the reserved bytes, flipped for reading from 0
+   */
+  static ByteBuffer toBytes(Snapshot snapshot, int reserved) {
+    return encodeBody(true, snapshot.through(),
+        (out) -> GSSCodecs.encodeState(snapshot.state(), out), reserved);
+  }
+
+  /**
+   * Decode a full snapshot encoded by toBytes, from the buffer's position.
+   *
+   * @param source where it came from, for errors
+   */
+  static Snapshot fromBytes(ByteBuffer in, String source) {
+    if (in.get() == 0) {
+      throw new RuntimeException(source + " isn't a full snapshot");
+    }
+    GameEvent through = GSSCodecs.decodeEvent(in);
+    return new Snapshot(GSSCodecs.decodeState(inflate(in, source)), through);
+  }
+
+  /**
+   * Encode [full][last event][length][deflated state or delta], growing the buffer the state or
+   * delta is encoded in until it fits.
+   */
+  private static ByteBuffer encodeBody(boolean full, GameEvent through,
+      Consumer<ByteBuffer> payload, int reserved) {
+    ByteBuffer raw;
+    int capacity = 64 * 1024;
+    while (true) {
+      raw = ByteBuffer.allocate(capacity);
+      try {
+        payload.accept(raw);
+        break;
+      } catch (BufferOverflowException e) {
+        capacity *= 2;
+      }
+    }
+    int rawLength = raw.position();
+
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    deflater.setInput(raw.array(), 0, rawLength);
+    deflater.finish();
+    ByteBuffer out = ByteBuffer.allocate(reserved + 64 + rawLength + rawLength / 1000);
+    out.position(reserved);
+    out.put((byte) (full ? 1 : 0));
+    GSSCodecs.encodeEvent(through, out);
+    out.putInt(rawLength);
+    while (!deflater.finished()) {
+      if (!out.hasRemaining()) {
+        out = ByteBuffer.allocate(out.capacity() * 2).put(out.flip());
+      }
+      out.position(out.position()
+          + deflater.deflate(out.array(), out.position(), out.remaining()));
+    }
+    deflater.end();
+    return out.flip();
+  }
+
+  private static ByteBuffer inflate(ByteBuffer in, String source) {
+    byte[] raw = new byte[in.getInt()];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+      int length = 0;
+      while (length < raw.length && !inflater.finished()) {
+        int inflated = inflater.inflate(raw, length, raw.length - length);
+        if (inflated == 0 && inflater.needsInput()) {
+          break;
+        }
+        length += inflated;
+      }
+      if (length != raw.length) {
+        throw new RuntimeException(source + " is truncated");
+      }
+    } catch (DataFormatException e) {
+      throw new RuntimeException(source + " is corrupt", e);
+    } finally {
+      inflater.end();
+    }
+    return ByteBuffer.wrap(raw);
+  }
+
+  private static void readHeader(Path file, ByteBuffer in) {
+    if (in.remaining() < HEADER_BYTES + 1 || in.getInt() != MAGIC) {
+      throw new RuntimeException(file + " isn't a snapshot");
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new RuntimeException("Unsupported snapshot version " + version + " in " + file);
+    }
+  }
+
+  private static boolean isFull(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 1);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // read the whole header
+      }
+      readHeader(file, header.flip());
+      return header.get() != 0;
+    }
+  }
+
+  private List<Path> snapshots() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter((p) -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+    }
+  }
+
+  private static long numberOf(Path snapshot) {
+    String name = snapshot.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+  }
+}
@@ -0,0 +1,30 @@
+package gss;
+
+import network.Address;
+import network.Message;
+
+public class StateChunkAckMessage extends Message {
+
+  /**
+   * Tells the sender of a StateTransfer how many of its chunks have arrived, counting from the
+   * first up to the first one that's missing.
+   */
+
+  private final int transfer;
+  private final int received;
+
+  public StateChunkAckMessage(Address src, Address dst, int simTime, int gssTime,
+      int[] vectorClock, int transfer, int received) {
+    super(src, dst, simTime, gssTime, vectorClock);
+    this.transfer = transfer;
+    this.received = received;
+  }
+
+  public int getTransfer() {
+    return transfer;
+  }
+
+  public int getReceived() {
+    return received;
+  }
+}
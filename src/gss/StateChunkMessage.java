@@ -0,0 +1,46 @@
+package gss;
+
+import network.Address;
+import network.Message;
+
+public class StateChunkMessage extends Message {
+
+  /**
+   * One chunk of a StateTransfer. Every chunk carries the number of chunks in the transfer, so
+   * the receiver can start on whichever arrives first. The gss time is the version of the state
+   * being sent.
+   */
+
+  private final int transfer;
+  private final int index;
+  private final int count;
+  private final byte[] bytes;
+
+  public StateChunkMessage(Address src, Address dst, int simTime, int gssTime, int[] vectorClock,
+      int transfer, int index, int count, byte[] bytes) {
+    super(src, dst, simTime, gssTime, vectorClock);
+    this.transfer = transfer;
+    this.index = index;
+    this.count = count;
+    this.bytes = bytes;
+  }
+
+  /**
+   * @return id of the transfer, which is larger for each new one from the same sender
+   */
+  public int getTransfer() {
+    return transfer;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public byte[] getBytes() {
+    return bytes;
+  }
+}
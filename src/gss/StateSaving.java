@@ -0,0 +1,20 @@
+package gss;
+
+/**
+ * How a GSS saves state so that it can roll back.
+ */
+public enum StateSaving {
+
+  /**
+   * Save a full copy of the state every few events, and on rollback coast forward from the latest
+   * copy by executing the events after it again. How many events go between copies is tuned as
+   * the GSS runs, from the cost of a copy, the cost of an event and how often it rolls back.
+   */
+  COPY,
+
+  /**
+   * Keep an UndoRecord per executed event and undo them to roll back, without full copies. Falls
+   * back to COPY for states whose applyEventUndoable returns null.
+   */
+  INCREMENTAL
+}
@@ -0,0 +1,170 @@
+package gss;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+final class StateTransfer {
+
+  /**
+   * Sends a whole state to a client that's joining, as a compressed snapshot in chunks, so that
+   * a large state never goes out as one message that holds up the sender and every other client
+   * behind it. The sender keeps at most WINDOW chunks unacknowledged and sends more as acks come
+   * back. The receiver acks how many it has in order after each chunk, and if nothing's acked for
+   * GSS.STATE_RESEND_MS, the sender goes back to the first chunk that isn't and sends from there
+   * again.
+   */
+
+  static final int CHUNK_BYTES = 4 * 1024;
+  static final int WINDOW = 8;
+
+  private StateTransfer() {
+  }
+
+  /**
+   * The sending side of a transfer: the encoded snapshot and how far through it the receiver is.
+   */
+  static class Outgoing {
+
+    private final int id;
+    private final ByteBuffer data;
+    private final int chunkBytes;
+    private final int count;
+    private final int simTime;
+    private final int version;
+    private int acked;
+    private int next;
+    private long lastProgress;
+
+    /**
+     * @param data    snapshot encoded by SnapshotStore.toBytes
+     * @param version version of the state, sent as each chunk's gss time
+     */
+    Outgoing(int id, ByteBuffer data, int chunkBytes, int simTime, int version, long now) {
+      this.id = id;
+      this.data = data.asReadOnlyBuffer();
+      this.chunkBytes = chunkBytes;
+      this.count = Math.max(1, (data.remaining() + chunkBytes - 1) / chunkBytes);
+      this.simTime = simTime;
+      this.version = version;
+      this.lastProgress = now;
+    }
+
+    /**
+     * @return index of the next chunk to send, or -1 if the window is full or every chunk is
+     *     sent
+     */
+    int nextChunk(long now) {
+      if (next > acked && now - lastProgress > GSS.STATE_RESEND_MS) {
+        // Nothing acked for a while, so something was lost
+        next = acked;
+        lastProgress = now;
+      }
+      if (next >= count || next >= acked + WINDOW) {
+        return -1;
+      }
+      return next++;
+    }
+
+    byte[] chunk(int index) {
+      int from = index * chunkBytes;
+      byte[] bytes = new byte[Math.min(chunkBytes, data.limit() - from)];
+      data.get(from, bytes);
+      return bytes;
+    }
+
+    /**
+     * @param received chunks the receiver has, in order
+     * @return whether it has them all
+     */
+    boolean acked(int received, long now) {
+      if (received > acked) {
+        acked = Math.min(received, count);
+        next = Math.max(next, acked);
+        lastProgress = now;
+      }
+      return acked == count;
+    }
+
+    int getId() {
+      return id;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    int getSimTime() {
+      return simTime;
+    }
+
+    int getVersion() {
+      return version;
+    }
+  }
+
+  /**
+   * The receiving side of a transfer: the chunks that have arrived so far.
+   */
+  static class Incoming {
+
+    private final int id;
+    private final byte[][] chunks;
+    private int received;
+
+    private Incoming(int id, int count) {
+      this.id = id;
+      this.chunks = new byte[count][];
+    }
+
+    /**
+     * Take in a chunk, starting a new transfer if it's from a later one than current.
+     *
+     * @param current transfer under way, or null
+     * @return the transfer the chunk belongs to, or null if it's from an earlier one
+     */
+    static Incoming receive(Incoming current, StateChunkMessage chunk) {
+      Incoming transfer = current;
+      if (transfer == null || chunk.getTransfer() > transfer.id) {
+        transfer = new Incoming(chunk.getTransfer(), chunk.getCount());
+      } else if (chunk.getTransfer() < transfer.id) {
+        return null;
+      }
+      if (chunk.getIndex() < transfer.chunks.length && transfer.chunks[chunk.getIndex()] == null
+          && !transfer.isComplete()) {
+        transfer.chunks[chunk.getIndex()] = chunk.getBytes();
+        while (transfer.received < transfer.chunks.length
+            && transfer.chunks[transfer.received] != null) {
+          transfer.received++;
+        }
+      }
+      return transfer;
+    }
+
+    int getId() {
+      return id;
+    }
+
+    /**
+     * @return chunks that have arrived, counting from the first up to the first that's missing
+     */
+    int getReceived() {
+      return received;
+    }
+
+    boolean isComplete() {
+      return received == chunks.length;
+    }
+
+    /**
+     * @return the snapshot the chunks make up. Only call it once the transfer is complete.
+     */
+    SnapshotStore.Snapshot snapshot(String source) {
+      int length = Arrays.stream(chunks).mapToInt((c) -> c.length).sum();
+      ByteBuffer data = ByteBuffer.allocate(length);
+      for (byte[] chunk : chunks) {
+        data.put(chunk);
+      }
+      return SnapshotStore.fromBytes(data.flip(), source);
+    }
+  }
+}
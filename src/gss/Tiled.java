@@ -0,0 +1,35 @@
+package gss;
+
+import java.awt.Rectangle;
+
+/**
+ * A GameState split into a fixed grid of tiles, so that a GSS can send its clients only the tiles
+ * that changed since the last state they acknowledged.
+ */
+public interface Tiled {
+
+  int getTileCount();
+
+  /**
+   * @return tiles that overlap area, in increasing order
+   */
+  int[] tilesIn(Rectangle area);
+
+  /**
+   * @param earlier a copy of this state from an earlier frame
+   * @return whether the tile is any different in this state
+   */
+  boolean tileChanged(int tile, GameState earlier);
+
+  /**
+   * @param tiles indexes of tiles, in increasing order
+   * @return delta holding the current contents of the tiles
+   */
+  GameStateDelta deltaOf(int[] tiles);
+
+  /**
+   * @return new state that's a copy of this one with the delta's tiles and times. This state is
+   * left as it is.
+   */
+  GameState withDelta(GameStateDelta delta);
+}
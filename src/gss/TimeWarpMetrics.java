@@ -0,0 +1,54 @@
+package gss;
+
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+
+final class TimeWarpMetrics {
+
+  /**
+   * What a GSS and its LogicalProcesses record about Time Warp, registered in the GSS's
+   * MetricsRegistry. LogicalProcesses of different regions share one of these, which is safe
+   * because every metric takes concurrent updates.
+   */
+
+  final Counter executed;
+  final Counter reexecuted;
+  final Counter committed;
+  final Counter rollbacks;
+  final Histogram rollbackEvents;
+  final Histogram rollbackSimTime;
+  final Gauge inputQueue;
+  final Gauge executedQueue;
+  final Gauge saveStates;
+  final Gauge gvtLag;
+  final Histogram frameNanos;
+  final Histogram fossilCollectionNanos;
+
+  TimeWarpMetrics(MetricsRegistry registry) {
+    executed = registry.counter("gss_events_executed_total",
+        "Events executed, including ones executed again after a rollback");
+    reexecuted = registry.counter("gss_events_reexecuted_total",
+        "Events executed again after a rollback undid them");
+    committed = registry.counter("gss_events_committed_total",
+        "Executed events fossil collected once GVT passed them");
+    registry.gauge("gss_efficiency", "Events committed per event executed", () -> {
+      long executedCount = executed.get();
+      return executedCount == 0 ? 1 : (double) committed.get() / executedCount;
+    });
+    rollbacks = registry.counter("gss_rollbacks_total", "Rollbacks");
+    rollbackEvents = registry.histogram("gss_rollback_distance_events",
+        "Executed events undone by a rollback");
+    rollbackSimTime = registry.histogram("gss_rollback_distance_sim_time",
+        "Sim time between the latest executed event and the rollback's target");
+    inputQueue = registry.gauge("gss_input_queue_size", "Events waiting to be executed");
+    executedQueue = registry.gauge("gss_executed_queue_size",
+        "Executed events kept in case of a rollback");
+    saveStates = registry.gauge("gss_save_states", "State copies kept in case of a rollback");
+    gvtLag = registry.gauge("gss_gvt_lag_sim_time", "Sim time of the state ahead of GVT");
+    frameNanos = registry.histogram("gss_frame_seconds", "Time to run one frame", 1e-9);
+    fossilCollectionNanos = registry.histogram("gss_fossil_collection_seconds",
+        "Time fossil collection holds up the GSS", 1e-9);
+  }
+}
@@ -0,0 +1,46 @@
+package gss;
+
+public abstract class UndoRecord {
+
+  /**
+   * What a GameState needs to put itself back the way it was before one event. States that
+   * support incremental state saving return one from applyEventUndoable, holding only what the
+   * event overwrote, so GSS can roll back by undoing records newest first instead of keeping a
+   * full copy of the state per event.
+   */
+
+  private final int simTime;
+  private final int gssTime;
+  private final int eventSimTime;
+
+  /**
+   * @param simTime sim time of the state before the event
+   * @param gssTime gss time of the state before the event
+   * @param event   event being applied
+   */
+  protected UndoRecord(int simTime, int gssTime, GameEvent event) {
+    this.simTime = simTime;
+    this.gssTime = gssTime;
+    this.eventSimTime = event.getSimTime();
+  }
+
+  public int getEventSimTime() {
+    return eventSimTime;
+  }
+
+  /**
+   * Put back whatever the event changed in the state's own data. Sim time and gss time are
+   * restored by undo.
+   */
+  protected abstract void revert(GameState state);
+
+  /**
+   * @return approximate number of bytes this record keeps alive
+   */
+  public abstract int sizeBytes();
+
+  final void undo(GameState state) {
+    revert(state);
+    state.restoreTimes(simTime, gssTime);
+  }
+}
@@ -0,0 +1,28 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter {
+
+  /**
+   * Count that only goes up. Adding is lock-free and, once the adder has grown cells for the
+   * threads that contend on it, allocation-free.
+   */
+
+  private final LongAdder count = new LongAdder();
+
+  Counter() {
+  }
+
+  public void increment() {
+    count.increment();
+  }
+
+  public void add(long amount) {
+    count.add(amount);
+  }
+
+  public long get() {
+    return count.sum();
+  }
+}
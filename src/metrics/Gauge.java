@@ -0,0 +1,22 @@
+package metrics;
+
+public final class Gauge {
+
+  /**
+   * Latest value of something that goes up and down, such as a queue's size. Set by whoever owns
+   * the thing, typically once per frame, so that scraping never has to reach into its data.
+   */
+
+  private volatile long value;
+
+  Gauge() {
+  }
+
+  public void set(long value) {
+    this.value = value;
+  }
+
+  public long get() {
+    return value;
+  }
+}
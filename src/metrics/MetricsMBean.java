@@ -0,0 +1,72 @@
+package metrics;
+
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+final class MetricsMBean implements DynamicMBean {
+
+  /**
+   * Read-only view of a MetricsRegistry over JMX, with one Double attribute per value in its
+   * snapshot.
+   */
+
+  private final MetricsRegistry registry;
+
+  MetricsMBean(MetricsRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Double value = registry.snapshot().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException("No metric " + attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) {
+    throw new UnsupportedOperationException("Metrics are read-only");
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, Double> snapshot = registry.snapshot();
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      Double value = snapshot.get(attribute);
+      if (value != null) {
+        list.add(new Attribute(attribute, value));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException("Metrics have no operations");
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    Map<String, Double> snapshot = registry.snapshot();
+    MBeanAttributeInfo[] attributes = snapshot.keySet().stream()
+        .map(name -> new MBeanAttributeInfo(name, Double.class.getName(), name, true, false,
+            false))
+        .toArray(MBeanAttributeInfo[]::new);
+    return new MBeanInfo(MetricsMBean.class.getName(), "Metrics", attributes, null,
+        new MBeanOperationInfo[0], null);
+  }
+}
@@ -0,0 +1,196 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class MetricsRegistry {
+
+  /**
+   * Named counters, gauges and histograms for one node, with labels that tell its metrics apart
+   * from other nodes' when several share an endpoint. Metrics are registered once, up front, and
+   * recorded into without going through the registry, so recording never takes its lock; only
+   * registering and reading do.
+   * <p>
+   * Read it over JMX with registerMBean, or scrape it with a PrometheusEndpoint.
+   */
+
+  static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+  private final String labels;
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+  private record Entry(String name, String help, String type, Object metric, double scale) {
+
+  }
+
+  public MetricsRegistry() {
+    this.labels = "";
+  }
+
+  /**
+   * @param labels name and value pairs, e.g. "node", "3"
+   */
+  public MetricsRegistry(String... labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must come in name and value pairs");
+    }
+    StringBuilder rendered = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        rendered.append(',');
+      }
+      rendered.append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+    }
+    this.labels = rendered.toString();
+  }
+
+  public synchronized Counter counter(String name, String help) {
+    Counter counter = new Counter();
+    add(new Entry(name, help, "counter", counter, 1));
+    return counter;
+  }
+
+  public synchronized Gauge gauge(String name, String help) {
+    Gauge gauge = new Gauge();
+    add(new Entry(name, help, "gauge", gauge, 1));
+    return gauge;
+  }
+
+  /**
+   * Gauge worked out from other metrics whenever it's read, such as a ratio of two counters.
+   */
+  public synchronized void gauge(String name, String help, DoubleSupplier value) {
+    add(new Entry(name, help, "gauge", value, 1));
+  }
+
+  public synchronized Histogram histogram(String name, String help) {
+    return histogram(name, help, 1);
+  }
+
+  /**
+   * @param scale what to multiply recorded values by when they're read, e.g. 1e-9 to record
+   *              nanoseconds and report seconds
+   */
+  public synchronized Histogram histogram(String name, String help, double scale) {
+    Histogram histogram = new Histogram();
+    add(new Entry(name, help, "summary", histogram, scale));
+    return histogram;
+  }
+
+  private void add(Entry entry) {
+    if (entries.putIfAbsent(entry.name(), entry) != null) {
+      throw new IllegalArgumentException("Metric " + entry.name() + " is already registered");
+    }
+  }
+
+  synchronized List<String> names() {
+    return new ArrayList<>(entries.keySet());
+  }
+
+  synchronized String help(String name) {
+    return entries.get(name).help();
+  }
+
+  synchronized String type(String name) {
+    return entries.get(name).type();
+  }
+
+  /**
+   * Append the samples of one metric in the Prometheus text format, without its HELP and TYPE
+   * lines, which a PrometheusEndpoint writes once for all the registries that have it.
+   */
+  synchronized void writeSamples(String name, StringBuilder out) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      return;
+    }
+    if (entry.metric() instanceof Histogram histogram) {
+      for (double quantile : QUANTILES) {
+        sample(out, name, "quantile=\"" + quantile + "\"",
+            histogram.percentile(quantile) * entry.scale());
+      }
+      sample(out, name + "_sum", "", histogram.sum() * entry.scale());
+      sample(out, name + "_count", "", histogram.count());
+    } else {
+      sample(out, name, "", valueOf(entry));
+    }
+  }
+
+  private void sample(StringBuilder out, String name, String extraLabel, double value) {
+    out.append(name);
+    if (!labels.isEmpty() || !extraLabel.isEmpty()) {
+      out.append('{').append(labels);
+      if (!labels.isEmpty() && !extraLabel.isEmpty()) {
+        out.append(',');
+      }
+      out.append(extraLabel).append('}');
+    }
+    out.append(' ').append(format(value)).append('\n');
+  }
+
+  private static String format(double value) {
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  /**
+   * @return every metric's current value, with a histogram flattened into name_count, name_sum,
+   *     name_max and a name_pNN per quantile
+   */
+  public synchronized Map<String, Double> snapshot() {
+    Map<String, Double> values = new LinkedHashMap<>();
+    for (Entry entry : entries.values()) {
+      if (entry.metric() instanceof Histogram histogram) {
+        values.put(entry.name() + "_count", (double) histogram.count());
+        values.put(entry.name() + "_sum", histogram.sum() * entry.scale());
+        values.put(entry.name() + "_max", histogram.max() * entry.scale());
+        for (double quantile : QUANTILES) {
+          values.put(entry.name() + "_p" + Math.round(quantile * 100),
+              histogram.percentile(quantile) * entry.scale());
+        }
+      } else {
+        values.put(entry.name(), valueOf(entry));
+      }
+    }
+    return values;
+  }
+
+  private static double valueOf(Entry entry) {
+    if (entry.metric() instanceof Counter counter) {
+      return counter.get();
+    } else if (entry.metric() instanceof Gauge gauge) {
+      return gauge.get();
+    }
+    return ((DoubleSupplier) entry.metric()).getAsDouble();
+  }
+
+  /**
+   * Register this registry with the platform MBean server as domain:type=Metrics plus its labels,
+   * replacing whatever was registered under that name before.
+   *
+   * @return name it was registered under
+   */
+  public ObjectName registerMBean(String domain) {
+    try {
+      String properties = labels.isEmpty() ? "" : "," + labels.replace("\"", "");
+      ObjectName name = new ObjectName(domain + ":type=Metrics" + properties);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(new MetricsMBean(this), name);
+      return name;
+    } catch (JMException e) {
+      throw new RuntimeException("Couldn't register metrics with JMX", e);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class PrometheusEndpoint {
+
+  /**
+   * Serves the metrics of one or more registries at /metrics in the Prometheus text format, on
+   * the loopback interface. Each metric's HELP and TYPE are written once, followed by a sample
+   * from every registry that has it, told apart by their labels.
+   */
+
+  private final List<MetricsRegistry> registries = new CopyOnWriteArrayList<>();
+  private final HttpServer server;
+
+  /**
+   * @param port port to listen on, or 0 for any free one
+   */
+  public PrometheusEndpoint(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/metrics", this::handle);
+  }
+
+  public void add(MetricsRegistry registry) {
+    registries.add(registry);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * @return current metrics in the Prometheus text format
+   */
+  public String scrape() {
+    Set<String> names = new LinkedHashSet<>();
+    for (MetricsRegistry registry : registries) {
+      names.addAll(registry.names());
+    }
+    StringBuilder out = new StringBuilder();
+    for (String name : names) {
+      List<MetricsRegistry> having = new ArrayList<>();
+      for (MetricsRegistry registry : registries) {
+        if (registry.names().contains(name)) {
+          having.add(registry);
+        }
+      }
+      out.append("# HELP ").append(name).append(' ').append(having.get(0).help(name))
+          .append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(having.get(0).type(name))
+          .append('\n');
+      for (MetricsRegistry registry : having) {
+        registry.writeSamples(name, out);
+      }
+    }
+    return out.toString();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
@@ -12,11 +12,25 @@ public class Address implements Comparable<Address> {
     this.address = address;
   }
 
+  public int getValue() {
+    return address;
+  }
+
   @Override
   public int compareTo(Address o) {
     return this.address - o.address;
   }
 
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Address o && o.address == address;
+  }
+
+  @Override
+  public int hashCode() {
+    return Integer.hashCode(address);
+  }
+
   @Override
   public String toString() {
     return Integer.toString(address);
@@ -0,0 +1,75 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public final class BufferPool {
+
+  /**
+   * Pool of direct ByteBuffers in power-of-two size classes, so encoding and socket I/O don't
+   * allocate a new buffer per message.
+   */
+
+  public static final int MIN_CAPACITY = 4 * 1024;
+  private static final int SIZE_CLASSES = 13; // 4 KB to 16 MB
+  private static final int MAX_POOLED_PER_CLASS = 64;
+
+  private static final Queue<ByteBuffer>[] pools = newPools();
+  private static final AtomicIntegerArray pooled = new AtomicIntegerArray(SIZE_CLASSES);
+
+  private BufferPool() {
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Queue<ByteBuffer>[] newPools() {
+    Queue<ByteBuffer>[] queues = new Queue[SIZE_CLASSES];
+    for (int i = 0; i < SIZE_CLASSES; i++) {
+      queues[i] = new ConcurrentLinkedQueue<>();
+    }
+    return queues;
+  }
+
+  /**
+   * @param minCapacity number of bytes the buffer must be able to hold
+   * @return a cleared buffer with at least minCapacity bytes
+   */
+  public static ByteBuffer acquire(int minCapacity) {
+    int sizeClass = sizeClass(minCapacity);
+    if (sizeClass >= SIZE_CLASSES) {
+      return ByteBuffer.allocateDirect(minCapacity); // too large to pool
+    }
+
+    ByteBuffer buffer = pools[sizeClass].poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(MIN_CAPACITY << sizeClass);
+    }
+    pooled.decrementAndGet(sizeClass);
+    return buffer.clear();
+  }
+
+  /**
+   * Return a buffer to the pool. The caller must not use it afterwards.
+   */
+  public static void release(ByteBuffer buffer) {
+    int sizeClass = sizeClass(buffer.capacity());
+    if (!buffer.isDirect() || sizeClass >= SIZE_CLASSES
+        || buffer.capacity() != MIN_CAPACITY << sizeClass) {
+      return; // not one of ours
+    }
+    if (pooled.incrementAndGet(sizeClass) > MAX_POOLED_PER_CLASS) {
+      pooled.decrementAndGet(sizeClass);
+      return;
+    }
+    pools[sizeClass].add(buffer);
+  }
+
+  private static int sizeClass(int capacity) {
+    int sizeClass = 0;
+    while ((MIN_CAPACITY << sizeClass) < capacity && sizeClass < SIZE_CLASSES) {
+      sizeClass++;
+    }
+    return sizeClass;
+  }
+}
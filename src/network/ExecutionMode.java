@@ -0,0 +1,19 @@
+package network;
+
+/**
+ * How a Network runs the code of the nodes on it.
+ */
+public enum ExecutionMode {
+
+  /**
+   * Handlers run on the network's handler executor and timer callbacks run on whatever thread
+   * fires them. Nodes rely on their synchronized methods to keep these apart.
+   */
+  MONITORS,
+
+  /**
+   * Each node has a mailbox. Handlers and submitted callbacks are queued there and run one at a
+   * time in the order they arrived, so a node's monitors are never contended.
+   */
+  MAILBOXES
+}
@@ -0,0 +1,228 @@
+package network;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class FrameScheduler implements Scheduler {
+
+  /**
+   * Scheduler with one thread of its own, for a node that runs frames: a GSS's simulation, fossil
+   * collection and heartbeats. Deadlines are kept in System.nanoTime, and a fixed-rate task's next
+   * deadline is its last one plus the period, so frames don't drift with how long they take.
+   * <p>
+   * A frame that starts a whole period or more late is an overrun. The frames it missed are
+   * skipped rather than run back to back to catch up, and counted, so a server that can't keep
+   * up shows it instead of falling further behind.
+   */
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+  private final Thread thread;
+  private long nextSequence;
+  private long overruns;
+  private long missedFrames;
+  private boolean shutdown;
+
+  /**
+   * Run on a daemon platform thread.
+   */
+  public FrameScheduler(String name) {
+    this(r -> {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @param threadFactory makes the one thread tasks run on. On newer JDKs,
+   *                      Thread.ofVirtual().factory() is a good fit.
+   */
+  public FrameScheduler(ThreadFactory threadFactory) {
+    thread = threadFactory.newThread(this::runTasks);
+    thread.start();
+  }
+
+  private class Task implements Comparable<Task>, Cancellable {
+
+    private final Runnable task;
+    private final long periodNanos;
+    private long deadline;
+    private long sequence;
+    private boolean cancelled;
+
+    Task(Runnable task, long deadline, long periodNanos) {
+      this.task = task;
+      this.deadline = deadline;
+      this.periodNanos = periodNanos;
+      this.sequence = nextSequence++;
+    }
+
+    @Override
+    public int compareTo(Task o) {
+      // nanoTime can wrap, so compare the difference
+      long difference = deadline - o.deadline;
+      return difference != 0 ? Long.signum(difference) : Long.compare(sequence, o.sequence);
+    }
+
+    @Override
+    public void cancel() {
+      lock.lock();
+      try {
+        cancelled = true;
+        tasks.remove(this);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    schedule(task, 0);
+  }
+
+  @Override
+  public Cancellable schedule(Runnable task, long delayMillis) {
+    return add(task, delayMillis, 0);
+  }
+
+  @Override
+  public Cancellable scheduleAtFixedRate(Runnable task, long initialDelayMillis,
+      long periodMillis) {
+    if (periodMillis <= 0) {
+      throw new IllegalArgumentException("Period must be positive, was " + periodMillis);
+    }
+    return add(task, initialDelayMillis, TimeUnit.MILLISECONDS.toNanos(periodMillis));
+  }
+
+  private Task add(Runnable runnable, long delayMillis, long periodNanos) {
+    lock.lock();
+    try {
+      Task task = new Task(runnable,
+          System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)),
+          periodNanos);
+      if (!shutdown) {
+        tasks.add(task);
+        changed.signal();
+      }
+      return task;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void runTasks() {
+    while (true) {
+      Task task;
+      lock.lock();
+      try {
+        task = nextDue();
+        if (task == null) {
+          return; // shut down
+        }
+        if (task.periodNanos > 0) {
+          reschedule(task);
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        task.task.run();
+      } catch (RuntimeException e) {
+        // Report it and keep the other tasks running
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+
+  /**
+   * Wait for the earliest task to come due and take it off the queue.
+   *
+   * @return the task, or null once shut down
+   */
+  private Task nextDue() {
+    while (!shutdown) {
+      Task next = tasks.peek();
+      if (next == null) {
+        changed.awaitUninterruptibly();
+        continue;
+      }
+      long wait = next.deadline - System.nanoTime();
+      if (wait <= 0) {
+        return tasks.poll();
+      }
+      try {
+        changed.awaitNanos(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Put a periodic task back for its next deadline, skipping any frames it's already too late
+   * for.
+   */
+  private void reschedule(Task task) {
+    long late = System.nanoTime() - task.deadline;
+    long missed = late / task.periodNanos;
+    if (missed > 0) {
+      overruns++;
+      missedFrames += missed;
+    }
+    task.deadline += (missed + 1) * task.periodNanos;
+    task.sequence = nextSequence++;
+    if (!task.cancelled) {
+      tasks.add(task);
+    }
+  }
+
+  /**
+   * @return how many times a periodic task started a whole period or more late
+   */
+  public long getOverrunCount() {
+    lock.lock();
+    try {
+      return overruns;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return how many frames of periodic tasks were skipped because of overruns
+   */
+  public long getMissedFrameCount() {
+    lock.lock();
+    try {
+      return missedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    lock.lock();
+    try {
+      shutdown = true;
+      tasks.clear();
+      changed.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
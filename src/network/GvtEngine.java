@@ -0,0 +1,19 @@
+package network;
+
+interface GvtEngine {
+
+  /**
+   * A node's half of a GVT algorithm. Node calls sent for every message it sends and received for
+   * every message delivered to it, after acks have been processed, and the engine keeps the
+   * node's globalSimTime up to date.
+   */
+
+  /**
+   * @return vector clock to put on a message the node is about to create
+   */
+  int[] getVectorClock();
+
+  void sent(Message message);
+
+  void received(Message message);
+}
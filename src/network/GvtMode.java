@@ -0,0 +1,20 @@
+package network;
+
+/**
+ * How nodes compute global virtual time (GVT). Chosen for a cluster with GSSConfiguration.
+ */
+public enum GvtMode {
+
+  /**
+   * Every message carries the sender's vector clock, and each node takes GVT as the minimum of
+   * its merged clock. GVT is always fresh, but headers and merges grow with the cluster.
+   */
+  VECTOR_CLOCK,
+
+  /**
+   * Mattern's algorithm. A token circles the nodes every GVT_PERIOD_MS, counting messages from
+   * the previous epoch that are still in transit and collecting each node's lowest sim time.
+   * Messages carry only their epoch, so headers stay the same size however large the cluster.
+   */
+  MATTERN
+}
@@ -0,0 +1,52 @@
+package network;
+
+public class GvtTokenMessage extends Message {
+
+  /**
+   * Token for Mattern's GVT algorithm. It goes from node to node around the ring of every node in
+   * the cluster, adding up how many messages from the epoch before its own are still in transit
+   * and taking the minimum of the sim times the nodes might still send. It isn't sequenced or
+   * counted itself, and its source and destination are both the node that started the round.
+   */
+
+  private final int epoch;
+  private final int lastGvt;
+  private int inTransit;
+  private int minimum;
+
+  public GvtTokenMessage(Address initiator, int epoch, int lastGvt, int inTransit,
+      int minimum) {
+    super(initiator, initiator, 0, 0, new int[0]);
+    this.epoch = epoch;
+    this.lastGvt = lastGvt;
+    this.inTransit = inTransit;
+    this.minimum = minimum;
+  }
+
+  /**
+   * @return epoch this token is cutting; nodes it visits move into this epoch
+   */
+  public int getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * @return GVT from the last completed round, which each node adopts as the token passes
+   */
+  public int getLastGvt() {
+    return lastGvt;
+  }
+
+  public int getInTransit() {
+    return inTransit;
+  }
+
+  public int getMinimum() {
+    return minimum;
+  }
+
+  void add(int inTransit, int minimum) {
+    this.inTransit += inTransit;
+    this.minimum = Math.min(this.minimum, minimum);
+  }
+}
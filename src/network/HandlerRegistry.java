@@ -0,0 +1,68 @@
+package network;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class HandlerRegistry {
+
+  /**
+   * Dispatch table from (node class, message class) to message handler. Handlers are still found
+   * by the "handle" + message class name convention from dslabs, but the lookup happens once per
+   * pair of classes and produces a MethodHandle instead of a reflective Method.
+   */
+
+  private static final MethodType HANDLER_TYPE = MethodType.methodType(void.class, Message.class,
+      Address.class);
+  private static final MethodType ERASED_TYPE = MethodType.methodType(void.class, Node.class,
+      Message.class, Address.class);
+  // Cached for a pair of classes with no handler, so that it isn't searched for again
+  private static final MessageHandler MISSING = (node, message, sender) -> {
+    throw new IllegalStateException("No handler for " + message.getClass().getSimpleName());
+  };
+
+  private static final ClassValue<Map<Class<?>, MessageHandler>> handlers = new ClassValue<>() {
+    @Override
+    protected Map<Class<?>, MessageHandler> computeValue(Class<?> nodeClass) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  private HandlerRegistry() {
+  }
+
+  /**
+   * Get the handler that a node of the given class uses for messages of the given class.
+   *
+   * @return the handler, or null if the node class has no matching handle method
+   */
+  static MessageHandler lookup(Class<? extends Node> nodeClass,
+      Class<? extends Message> messageClass) {
+    MessageHandler handler = handlers.get(nodeClass)
+        .computeIfAbsent(messageClass, m -> resolve(nodeClass, m));
+    return handler == MISSING ? null : handler;
+  }
+
+  private static MessageHandler resolve(Class<?> nodeClass, Class<?> messageClass) {
+    String handlerName = "handle" + messageClass.getSimpleName();
+    MethodHandle handle;
+    try {
+      handle = MethodHandles.publicLookup().findVirtual(nodeClass, handlerName, HANDLER_TYPE)
+          .asType(ERASED_TYPE);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return MISSING;
+    }
+
+    return (node, message, sender) -> {
+      try {
+        handle.invokeExact(node, message, sender);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new RuntimeException("Exception in handler " + handlerName, t);
+      }
+    };
+  }
+}
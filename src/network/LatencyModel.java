@@ -0,0 +1,33 @@
+package network;
+
+import java.util.Random;
+
+@FunctionalInterface
+public interface LatencyModel {
+
+  /**
+   * Distribution of one-way latencies on a simulated link. Samples are drawn from the
+   * SimulatedNetwork's seeded Random, so the same seed gives the same latencies.
+   */
+
+  long sampleMillis(Random random);
+
+  static LatencyModel fixed(long millis) {
+    return random -> millis;
+  }
+
+  /**
+   * @return latencies spread evenly over [minMillis, maxMillis]
+   */
+  static LatencyModel uniform(long minMillis, long maxMillis) {
+    return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+  }
+
+  /**
+   * @return minMillis plus an exponentially distributed delay with the given mean, which gives
+   * the long tail of a congested link
+   */
+  static LatencyModel exponential(long minMillis, double meanExtraMillis) {
+    return random -> minMillis + Math.round(-meanExtraMillis * Math.log(1 - random.nextDouble()));
+  }
+}
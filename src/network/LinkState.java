@@ -0,0 +1,85 @@
+package network;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+final class LinkState {
+
+  /**
+   * A node's bookkeeping for its link to one peer. Outgoing messages get consecutive sequence
+   * numbers and stay in unacknowledged until the peer acks them; incoming sequence numbers are
+   * folded into a cumulative ack plus a set of selective acks for anything received past a gap.
+   */
+
+  // Cap on selective acks per message. Anything past it is acked later, which only delays GVT.
+  static final int MAX_SELECTIVE_ACKS = 32;
+
+  private int nextSequence = 1;
+  private final NavigableMap<Integer, Message> unacknowledged = new TreeMap<>();
+
+  private int cumulativeReceived = 0;
+  private final TreeSet<Integer> receivedAbove = new TreeSet<>();
+
+  int send(Message message) {
+    int sequence = nextSequence++;
+    unacknowledged.put(sequence, message);
+    return sequence;
+  }
+
+  /**
+   * @return whether the sequence number is new, i.e. not unsequenced or a duplicate
+   */
+  boolean received(int sequence) {
+    if (sequence <= cumulativeReceived) {
+      return false; // unsequenced or a duplicate
+    }
+    if (sequence != cumulativeReceived + 1) {
+      return receivedAbove.add(sequence);
+    }
+    cumulativeReceived = sequence;
+    while (!receivedAbove.isEmpty() && receivedAbove.first() == cumulativeReceived + 1) {
+      cumulativeReceived = receivedAbove.pollFirst();
+    }
+    return true;
+  }
+
+  int cumulativeAck() {
+    return cumulativeReceived;
+  }
+
+  int[] selectiveAcks() {
+    int[] acks = new int[Math.min(receivedAbove.size(), MAX_SELECTIVE_ACKS)];
+    Iterator<Integer> above = receivedAbove.iterator();
+    for (int i = 0; i < acks.length; i++) {
+      acks[i] = above.next();
+    }
+    return acks;
+  }
+
+  /**
+   * Drop the messages a peer's acks cover.
+   *
+   * @param removed called with each message that was still unacknowledged
+   */
+  void acknowledge(int cumulativeAck, int[] selectiveAcks, Consumer<Message> removed) {
+    NavigableMap<Integer, Message> covered = unacknowledged.headMap(cumulativeAck, true);
+    if (!covered.isEmpty()) {
+      covered.values().forEach(removed);
+      covered.clear();
+    }
+    for (int sequence : selectiveAcks) {
+      Message message = unacknowledged.remove(sequence);
+      if (message != null) {
+        removed.accept(message);
+      }
+    }
+  }
+
+  Collection<Message> unacknowledged() {
+    return unacknowledged.values();
+  }
+}
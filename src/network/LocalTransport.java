@@ -0,0 +1,30 @@
+package network;
+
+public class LocalTransport implements Transport {
+
+  /**
+   * In-process transport. Every node lives in the same JVM, so a message is delivered by handing
+   * the same object straight to the destination node.
+   */
+
+  private Network network;
+
+  @Override
+  public void start(Network network) {
+    this.network = network;
+  }
+
+  @Override
+  public boolean canReach(Address dst) {
+    return network.hasNode(dst);
+  }
+
+  @Override
+  public void transmit(Message message, Address src, Address dst) {
+    network.deliver(message, src, dst);
+  }
+
+  @Override
+  public void shutdown() {
+  }
+}
@@ -0,0 +1,63 @@
+package network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class Mailbox implements Executor {
+
+  /**
+   * Single-consumer task queue for one node. Any thread can add tasks; at most one drain task at a
+   * time is running on the dispatcher, so the node's tasks run one after another in arrival order
+   * without taking a lock.
+   * <p>
+   * A drain runs up to THROUGHPUT tasks and then resubmits itself, so one busy node can't hold a
+   * dispatcher thread while other nodes' mailboxes wait.
+   */
+
+  private static final int THROUGHPUT = 64;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  private final Executor dispatcher;
+
+  Mailbox(Executor dispatcher) {
+    this.dispatcher = dispatcher;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.offer(task);
+    trySchedule();
+  }
+
+  private void trySchedule() {
+    if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+      dispatcher.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    try {
+      for (int i = 0; i < THROUGHPUT; i++) {
+        Runnable task = tasks.poll();
+        if (task == null) {
+          break;
+        }
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          // Report it and keep going; one bad message shouldn't stall the node for good
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+      }
+    } finally {
+      scheduled.set(false);
+    }
+
+    // A task may have arrived after the last poll but before scheduled was cleared
+    trySchedule();
+  }
+}
@@ -0,0 +1,126 @@
+package network;
+
+import gss.GSSConfiguration;
+import java.util.HashMap;
+import java.util.Map;
+
+final class MatternGvt implements GvtEngine {
+
+  /**
+   * Mattern's GVT algorithm, with epochs in place of colours so rounds can repeat.
+   * <p>
+   * Every message is stamped with its sender's epoch, and each node counts messages sent minus
+   * messages received per epoch. Node 0 starts a round by moving to a new epoch and sending a
+   * token around the ring of all nodes. Each node the token visits moves to the token's epoch,
+   * adds its count for the previous epoch, and lowers the token's minimum to the lowest sim time
+   * it might still send or has sent since moving. If the count is zero when the token is back at
+   * node 0, no message from the previous epoch is still in transit, so the minimum is GVT;
+   * otherwise the token goes around again. The next round's token hands the result to every node.
+   */
+
+  public static final long GVT_PERIOD_MS = 250;
+
+  private static final int INITIATOR = 0;
+
+  private final Node node;
+  private final Network network;
+  private final Map<Integer, Integer> inTransitByEpoch;
+  private int epoch;
+  private int lowestSentThisEpoch;
+  private int gvt;
+
+  MatternGvt(Node node, Network network) {
+    this.node = node;
+    this.network = network;
+    inTransitByEpoch = new HashMap<>();
+    epoch = 0;
+    lowestSentThisEpoch = Integer.MAX_VALUE;
+    gvt = -1;
+
+    if (node.nodeIndex == INITIATOR) {
+      scheduleRound();
+    }
+  }
+
+  @Override
+  public int[] getVectorClock() {
+    return new int[0];
+  }
+
+  @Override
+  public void sent(Message message) {
+    message.setGvtEpoch(epoch);
+    inTransitByEpoch.merge(epoch, 1, Integer::sum);
+    lowestSentThisEpoch = Math.min(lowestSentThisEpoch, message.getSimTime());
+  }
+
+  @Override
+  public void received(Message message) {
+    if (message instanceof GvtTokenMessage) {
+      return;
+    }
+    inTransitByEpoch.merge(message.getGvtEpoch(), -1, Integer::sum);
+  }
+
+  /**
+   * Called with the node's monitor held when the token arrives.
+   */
+  void visit(GvtTokenMessage token) {
+    advanceTo(token.getEpoch());
+    adoptGvt(token.getLastGvt());
+    token.add(inTransitByEpoch.getOrDefault(epoch - 1, 0), localMinimum());
+
+    if (node.nodeIndex != INITIATOR) {
+      forward(token);
+      return;
+    }
+
+    if (token.getInTransit() == 0) {
+      adoptGvt(token.getMinimum());
+      scheduleRound();
+    } else {
+      // Some messages from the last epoch haven't arrived yet; count again
+      forward(new GvtTokenMessage(node.getAddress(), epoch, gvt, 0, Integer.MAX_VALUE));
+    }
+  }
+
+  private void scheduleRound() {
+    network.getScheduler().schedule(() -> node.submit(this::startRound), GVT_PERIOD_MS);
+  }
+
+  private void startRound() {
+    synchronized (node) {
+      advanceTo(epoch + 1);
+      forward(new GvtTokenMessage(node.getAddress(), epoch, gvt, 0, Integer.MAX_VALUE));
+    }
+  }
+
+  private void advanceTo(int tokenEpoch) {
+    if (tokenEpoch <= epoch) {
+      return;
+    }
+    epoch = tokenEpoch;
+    lowestSentThisEpoch = Integer.MAX_VALUE;
+
+    // Everything from before the last epoch arrived before the last round finished
+    inTransitByEpoch.keySet().removeIf(e -> e < epoch - 1);
+  }
+
+  private int localMinimum() {
+    return Math.min(Math.min(node.getLowestPromisedSimTime(), node.getLowestPendingSimTime()),
+        lowestSentThisEpoch);
+  }
+
+  private void adoptGvt(int newGvt) {
+    gvt = Math.max(gvt, newGvt);
+    node.globalSimTime = gvt;
+  }
+
+  private void forward(GvtTokenMessage token) {
+    network.send(token, node.getAddress(), nextNode());
+  }
+
+  private Address nextNode() {
+    return GSSConfiguration.getNodeAddress((node.nodeIndex + 1) % GSSConfiguration.getNumNodes());
+  }
+}
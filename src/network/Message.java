@@ -1,8 +1,6 @@
 package network;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 
 public class Message {
 
@@ -10,12 +8,26 @@ public class Message {
    * Generic class for a message to be sent on the network.
    */
 
+  private static final int[] NO_ACKS = new int[0];
+
   protected Address source;
   protected Address destination;
   protected int simTime;
   protected int gssTime;
   protected int[] vectorClock;
-  protected Collection<Message> newlyAcknowledgedMessages;
+
+  // Set by Node.send. Sequence numbers count up from 1 on each link; the acks tell the
+  // destination which of its messages the source has received so far.
+  protected int sequence;
+  protected int cumulativeAck;
+  protected int[] selectiveAcks;
+
+  // Sender's epoch, set by Node.send when the cluster uses GvtMode.MATTERN
+  protected int gvtEpoch;
+
+  // Set by Network.send when the destination is on the same network, so that delivery and
+  // retries don't look the handlers up again. Never sent over the wire.
+  private MessageHandler[] handlers;
 
   public Message(Address source, Address destination, int simTime, int gssTime, int[] vectorClock) {
     this.source = source;
@@ -24,11 +36,25 @@ public class Message {
     this.gssTime = gssTime;
     this.vectorClock = vectorClock;
 
-    newlyAcknowledgedMessages = new ArrayList<>();
+    selectiveAcks = NO_ACKS;
+  }
+
+  void setSequencing(int sequence, int cumulativeAck, int[] selectiveAcks) {
+    this.sequence = sequence;
+    this.cumulativeAck = cumulativeAck;
+    this.selectiveAcks = selectiveAcks;
   }
 
-  public void addAcknowledgedMessages(Collection<Message> messages) {
-    newlyAcknowledgedMessages.addAll(messages);
+  void setGvtEpoch(int gvtEpoch) {
+    this.gvtEpoch = gvtEpoch;
+  }
+
+  void setHandlers(MessageHandler[] handlers) {
+    this.handlers = handlers;
+  }
+
+  MessageHandler[] getHandlers() {
+    return handlers;
   }
 
   public Address getSource() {
@@ -51,8 +77,30 @@ public class Message {
     return vectorClock;
   }
 
-  public Collection<Message> getNewlyAcknowledgedMessages() {
-    return newlyAcknowledgedMessages;
+  /**
+   * @return this message's sequence number on its link, or 0 if it wasn't sent by a Node
+   */
+  public int getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return highest sequence number such that the sender has received every message up to it
+   * from this message's destination
+   */
+  public int getCumulativeAck() {
+    return cumulativeAck;
+  }
+
+  /**
+   * @return sequence numbers above the cumulative ack that the sender has also received
+   */
+  public int[] getSelectiveAcks() {
+    return selectiveAcks;
+  }
+
+  public int getGvtEpoch() {
+    return gvtEpoch;
   }
 
   @Override
@@ -0,0 +1,58 @@
+package network;
+
+import java.util.Collections;
+import java.util.List;
+
+public class MessageBatch extends Message {
+
+  /**
+   * Envelope for several messages to the same destination. The batch is transmitted, retried and
+   * acknowledged as one message; the receiving Network hands the contents to the destination's
+   * handlers in order.
+   * <p>
+   * Its sim time is the lowest of its contents, so an unacknowledged batch holds GVT back as far
+   * as its earliest message would have.
+   */
+
+  private final List<Message> messages;
+  private final int highestSimTime;
+
+  public MessageBatch(Address source, Address destination, List<Message> messages,
+      int[] vectorClock) {
+    super(source, destination, lowestSimTime(messages), highestGssTime(messages), vectorClock);
+    this.messages = Collections.unmodifiableList(messages);
+
+    int highest = Integer.MIN_VALUE;
+    for (Message message : messages) {
+      highest = Math.max(highest, message.getSimTime());
+    }
+    this.highestSimTime = highest;
+  }
+
+  public List<Message> getMessages() {
+    return messages;
+  }
+
+  public int getHighestSimTime() {
+    return highestSimTime;
+  }
+
+  private static int lowestSimTime(List<Message> messages) {
+    if (messages.isEmpty()) {
+      throw new IllegalArgumentException("A batch needs at least one message");
+    }
+    int lowest = Integer.MAX_VALUE;
+    for (Message message : messages) {
+      lowest = Math.min(lowest, message.getSimTime());
+    }
+    return lowest;
+  }
+
+  private static int highestGssTime(List<Message> messages) {
+    int highest = Integer.MIN_VALUE;
+    for (Message message : messages) {
+      highest = Math.max(highest, message.getGssTime());
+    }
+    return highest;
+  }
+}
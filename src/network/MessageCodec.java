@@ -0,0 +1,16 @@
+package network;
+
+import java.nio.ByteBuffer;
+
+public interface MessageCodec<M extends Message> {
+
+  /**
+   * Encodes the body of one Message subclass. WireCodec takes care of the header that every
+   * message has (addresses, times, vector clock and acks) and hands it back on decode so the
+   * codec can call the message's constructor.
+   */
+
+  void encodeBody(M message, ByteBuffer out);
+
+  M decodeBody(MessageHeader header, ByteBuffer in);
+}
@@ -0,0 +1,12 @@
+package network;
+
+@FunctionalInterface
+public interface MessageHandler {
+
+  /**
+   * A resolved message handler, e.g. GSS::handleGameEventMessage, that can be called on a node
+   * without any reflection.
+   */
+
+  void handle(Node node, Message message, Address sender);
+}
@@ -0,0 +1,9 @@
+package network;
+
+/**
+ * Fields common to every Message, as read off the wire.
+ */
+public record MessageHeader(Address source, Address destination, int simTime, int gssTime,
+                            int[] vectorClock) {
+
+}
@@ -1,76 +1,257 @@
 package network;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import javax.swing.Timer;
 
 public class Network {
 
   public static final float RELIABLE_TX = 1.0f;
   public static final float UNRELIABLE_TX = 0.8f;
   public static final long RETRY_MILLIS = 50;
+  public static final int SCHEDULER_THREADS = 2;
 
   private final Map<Address, Node> nodes;
-  private final Random random;
+  protected final Random random;
+  private final Scheduler scheduler;
+  private final Transport transport;
+  private Executor handlerExecutor;
+  private volatile ExecutionMode executionMode;
+  private final Map<Address, Mailbox> mailboxes;
   protected float txSuccessRate;
 
   public Network(float txSuccessRate) {
+    this(txSuccessRate, new LocalTransport());
+  }
+
+  public Network(float txSuccessRate, Transport transport) {
+    // Every transmission attempt (first try and retries) is a task on this bounded, shared
+    // scheduler, so the number of threads doesn't grow with the number of messages in flight.
+    this(txSuccessRate, transport, new RealTimeScheduler(SCHEDULER_THREADS, "network"),
+        new Random());
+  }
+
+  protected Network(float txSuccessRate, Transport transport, Scheduler scheduler,
+      Random random) {
     this.txSuccessRate = txSuccessRate;
-    nodes = new HashMap<>();
-    random = new Random();
+    this.transport = transport;
+    this.scheduler = scheduler;
+    this.random = random;
+    nodes = new ConcurrentHashMap<>();
+    handlerExecutor = scheduler;
+    executionMode = ExecutionMode.MONITORS;
+    mailboxes = new ConcurrentHashMap<>();
+    transport.start(this);
   }
 
   public void addNode(Node node) {
     nodes.put(node.getAddress(), node);
   }
 
-  public synchronized void send(Message message, Address src, Address dst) {
-    if (!nodes.containsKey(dst)) {
+  public boolean hasNode(Address address) {
+    return nodes.containsKey(address);
+  }
+
+  /**
+   * Set the executor that message handlers run on. By default handlers run on the network's
+   * scheduler threads. On newer JDKs, Executors.newVirtualThreadPerTaskExecutor() is a good fit.
+   *
+   * @param handlerExecutor executor to run handlers on
+   */
+  public void setHandlerExecutor(Executor handlerExecutor) {
+    this.handlerExecutor = handlerExecutor;
+  }
+
+  /**
+   * Choose how node code runs; see ExecutionMode. Set it before any messages are sent. In
+   * MAILBOXES mode the mailboxes are drained on the handler executor.
+   *
+   * @param executionMode MONITORS (the default) or MAILBOXES
+   */
+  public void setExecutionMode(ExecutionMode executionMode) {
+    this.executionMode = executionMode;
+  }
+
+  public ExecutionMode getExecutionMode() {
+    return executionMode;
+  }
+
+  /**
+   * Run a task in a node's context: queued on its mailbox in MAILBOXES mode, or right away on the
+   * calling thread in MONITORS mode.
+   */
+  void runOn(Node node, Runnable task) {
+    if (executionMode == ExecutionMode.MAILBOXES) {
+      mailbox(node).execute(task);
+    } else {
+      task.run();
+    }
+  }
+
+  private Executor executorFor(Node node) {
+    return executionMode == ExecutionMode.MAILBOXES ? mailbox(node) : handlerExecutor;
+  }
+
+  private Mailbox mailbox(Node node) {
+    return mailboxes.computeIfAbsent(node.getAddress(), a -> new Mailbox(handlerExecutor));
+  }
+
+  /**
+   * Send a message on its way. If the destination is a node on this network, its handlers are
+   * resolved here and carried with the message, so a missing one is reported to the sender, and
+   * neither delivery nor retries of lost attempts look them up again.
+   *
+   * @throws RuntimeException if dst can't be reached, or is on this network and has no handler
+   *                          for the message
+   */
+  public void send(Message message, Address src, Address dst) {
+    if (!transport.canReach(dst)) {
       throw new RuntimeException("Nonexistent destination address for message");
     }
+    Node dstNode = nodes.get(dst);
+    if (dstNode != null) {
+      message.setHandlers(lookupHandlers(dstNode, message));
+    }
+
+    scheduler.schedule(() -> tryTransmit(message, src, dst), transmitDelayMillis(src, dst));
+  }
 
-    Timer retryTimer = new Timer();
-
-    // Model network unreliability using tx success rate and retry interval
-    TimerTask tryTransmit = new TimerTask() {
-      @Override
-      public void run() {
-        if (random.nextFloat(0f, 1f) <= txSuccessRate) {
-          // Using the reflection logic from dslabs as inspiration
-          Node dstNode = nodes.get(dst);
-          Method handler = getMessageHandler(message, dstNode);
-          if (handler == null) {
-            throw new RuntimeException(
-                "Attempted to send message to node without appropriate handler");
-          }
-          try {
-            dstNode.updateVectorClock(message);
-            handler.invoke(dstNode, message, src);
-          } catch (InvocationTargetException | IllegalAccessException e) {
-            e.printStackTrace();
-            throw new RuntimeException(
-                "InvocationTargetException or IllegalAccessException in send");
-          }
-
-          retryTimer.cancel();
+  /**
+   * Model network unreliability using tx success rate and retry interval. A failed attempt
+   * reschedules itself on the shared scheduler instead of holding a timer thread.
+   */
+  private void tryTransmit(Message message, Address src, Address dst) {
+    if (isLost(src, dst)) {
+      scheduler.schedule(() -> tryTransmit(message, src, dst), retryDelayMillis(src, dst));
+      return;
+    }
+
+    transport.transmit(message, src, dst);
+  }
+
+  /**
+   * @return delay before the first attempt to transmit a message from src to dst
+   */
+  protected long transmitDelayMillis(Address src, Address dst) {
+    return RETRY_MILLIS;
+  }
+
+  /**
+   * @return delay before another attempt after an attempt was lost
+   */
+  protected long retryDelayMillis(Address src, Address dst) {
+    return RETRY_MILLIS;
+  }
+
+  /**
+   * @return true if this attempt to transmit from src to dst is lost
+   */
+  protected boolean isLost(Address src, Address dst) {
+    return random.nextFloat(0f, 1f) > txSuccessRate;
+  }
+
+  public Scheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Scheduler for a node that runs frames, such as a GSS, with a thread of its own so that its
+   * frames don't wait on the event dispatch thread or on other nodes. The node shuts it down when
+   * it stops; SimulatedNetwork hands out a view of its virtual clock instead.
+   *
+   * @param name name for the scheduler's thread
+   */
+  public Scheduler newFrameScheduler(String name) {
+    return new FrameScheduler(name);
+  }
+
+  /**
+   * Start a repeating timer for a node. On the wall clock this is a Swing Timer, so callbacks
+   * come from the event dispatch thread; SimulatedNetwork runs timers on its virtual clock.
+   *
+   * @return handle that stops the timer
+   */
+  public Scheduler.Cancellable startTimer(long initialDelayMillis, long periodMillis,
+      Runnable task) {
+    Timer timer = new Timer((int) periodMillis, e -> task.run());
+    timer.setInitialDelay((int) initialDelayMillis);
+    timer.start();
+    return timer::stop;
+  }
+
+  /**
+   * Called by the transport when a message arrives for a node on this network. Messages sent from
+   * this network carry the handlers send resolved; one that came from another process has them
+   * looked up here, once per arrival.
+   */
+  public void deliver(Message message, Address src, Address dst) {
+    Node dstNode = nodes.get(dst);
+    if (dstNode == null) {
+      throw new RuntimeException("Message delivered to a node that isn't on this network");
+    }
+    MessageHandler[] handlers = message.getHandlers();
+    dispatch(dstNode, message, src, handlers != null ? handlers : lookupHandlers(dstNode, message));
+  }
+
+  /**
+   * Run a message's handlers on its node. The contents of a MessageBatch are handled in the
+   * order they were queued, and the batch is acknowledged once.
+   *
+   * @param handlers one for each message in a batch, or the message's own
+   */
+  private void dispatch(Node dstNode, Message message, Address src, MessageHandler[] handlers) {
+    if (message instanceof MessageBatch batch) {
+      List<Message> contents = batch.getMessages();
+      executorFor(dstNode).execute(() -> {
+        for (int i = 0; i < handlers.length; i++) {
+          handlers[i].handle(dstNode, contents.get(i), src);
         }
-      }
-    };
+        dstNode.updateVectorClock(batch, src);
+      });
+      return;
+    }
+
+    // Handle first so the message is already queued at the node by the time it can be acked
+    executorFor(dstNode).execute(() -> {
+      handlers[0].handle(dstNode, message, src);
+      dstNode.updateVectorClock(message, src);
+    });
+  }
+
+  private static MessageHandler[] lookupHandlers(Node node, Message message) {
+    if (!(message instanceof MessageBatch batch)) {
+      return new MessageHandler[]{lookupHandler(node, message)};
+    }
+    List<Message> contents = batch.getMessages();
+    MessageHandler[] handlers = new MessageHandler[contents.size()];
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i] = lookupHandler(node, contents.get(i));
+    }
+    return handlers;
+  }
 
-    retryTimer.scheduleAtFixedRate(tryTransmit, RETRY_MILLIS, RETRY_MILLIS);
+  private static MessageHandler lookupHandler(Node node, Message message) {
+    MessageHandler handler = HandlerRegistry.lookup(node.getClass(), message.getClass());
+    if (handler == null) {
+      throw new RuntimeException(
+          "Attempted to send message to node without appropriate handler");
+    }
+    return handler;
   }
 
-  private Method getMessageHandler(Message message, Node node) {
-    String handlerName = "handle" + message.getClass().getSimpleName();
-    Class<? extends Node> dstNodeClass = node.getClass();
-    try {
-      return dstNodeClass.getMethod(handlerName, Message.class, Address.class);
-    } catch (NoSuchMethodException e) {
-      return null;
+  /**
+   * Stop the network's scheduler and transport. Messages that haven't been delivered yet are
+   * dropped.
+   */
+  public void shutdown() {
+    transport.shutdown();
+    scheduler.shutdown();
+    if (handlerExecutor instanceof ExecutorService executorService) {
+      executorService.shutdownNow();
     }
   }
 }
@@ -0,0 +1,439 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class NioTransport implements Transport {
+
+  /**
+   * Non-blocking TCP transport. Each process runs one NioTransport bound to one local endpoint
+   * and a single selector thread that accepts, connects, reads and writes for every node in the
+   * process. The peer directory maps node addresses to the endpoint of the process hosting them;
+   * addresses that aren't in the directory are assumed to live in this process, and messages to
+   * them still go out and back in over the loopback socket.
+   * <p>
+   * Frames are [int length][int src][int dst][message encoded with WireCodec]. Frames are encoded
+   * into and decoded straight out of pooled direct buffers. Each outbound connection starts with
+   * [int 8][long session], a random id for this transport, so a peer can tell a restarted process
+   * from a reconnect.
+   * <p>
+   * Nothing above the transport retransmits, so a broken connection mustn't lose frames. Frames
+   * of sequenced messages (those sent by Node.send) are kept after they're written, until a
+   * message back from their destination acks them; when a connection breaks, they're sent again,
+   * ahead of anything not yet written, once it's reconnected. The receiver drops any it already
+   * had, by sequence number per session and link. Unsequenced messages, i.e. GVT tokens, are only
+   * kept until they're written, so one can still be lost with its connection.
+   * <p>
+   * A frame that can't be decoded or delivered, e.g. from a process with a different
+   * WireCodec.VERSION, drops the connection it came in on and nothing else.
+   */
+
+  private static final int SELECT_TIMEOUT_MS = 100;
+  private static final long RECONNECT_MILLIS = 250;
+  private static final int HEADER_BYTES = 2 * Integer.BYTES;
+  private static final int READ_BUFFER_BYTES = 64 * 1024;
+  private static final int HELLO_BYTES = Long.BYTES;
+
+  private final InetSocketAddress bindAddress;
+  private final Map<Address, InetSocketAddress> peers;
+  private final Map<InetSocketAddress, Connection> outbound;
+  private final Queue<Connection> pendingChanges;
+  private final long session;
+  // What's arrived on each link, by sending session. Only used on the selector thread.
+  private final Map<Long, Map<Link, LinkState>> arrived;
+  private Network network;
+  private Selector selector;
+  private ServerSocketChannel server;
+  private InetSocketAddress localAddress;
+  private Thread selectorThread;
+  private volatile boolean running;
+
+  /**
+   * @param bindAddress endpoint to listen on; port 0 picks a free port
+   * @param peers       endpoints of the processes hosting other nodes
+   */
+  public NioTransport(InetSocketAddress bindAddress, Map<Address, InetSocketAddress> peers) {
+    this.bindAddress = bindAddress;
+    this.peers = Map.copyOf(peers);
+    outbound = new ConcurrentHashMap<>();
+    pendingChanges = new ConcurrentLinkedQueue<>();
+    session = ThreadLocalRandom.current().nextLong();
+    arrived = new HashMap<>();
+  }
+
+  @Override
+  public void start(Network network) {
+    this.network = network;
+    try {
+      selector = Selector.open();
+      server = ServerSocketChannel.open();
+      server.bind(bindAddress);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+      localAddress = (InetSocketAddress) server.getLocalAddress();
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't bind transport to " + bindAddress, e);
+    }
+
+    running = true;
+    selectorThread = new Thread(this::selectLoop, "nio-transport-" + localAddress.getPort());
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  public InetSocketAddress getLocalAddress() {
+    return localAddress;
+  }
+
+  @Override
+  public boolean canReach(Address dst) {
+    return peers.containsKey(dst) || network.hasNode(dst);
+  }
+
+  @Override
+  public void transmit(Message message, Address src, Address dst) {
+    Connection connection = outbound.computeIfAbsent(endpointOf(dst), Connection::new);
+    connection.writes.add(encode(message, src, dst));
+    pendingChanges.add(connection);
+    selector.wakeup();
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    try {
+      selector.close();
+      server.close();
+    } catch (IOException ignored) {
+      // already closing
+    }
+    for (Connection connection : outbound.values()) {
+      connection.close();
+    }
+  }
+
+  private void selectLoop() {
+    try {
+      while (running) {
+        applyPendingChanges();
+        selector.select(SELECT_TIMEOUT_MS);
+        for (SelectionKey key : selector.selectedKeys()) {
+          handleKey(key);
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (running) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Interest ops can only be changed safely from the selector thread, so other threads queue the
+   * connection and the selector thread picks it up here.
+   */
+  private void applyPendingChanges() {
+    long now = System.currentTimeMillis();
+    for (Connection connection : outbound.values()) {
+      if (connection.channel == null && now >= connection.reconnectAt
+          && connection.hasFramesToWrite()) {
+        connection.connect();
+      }
+    }
+
+    Connection connection = pendingChanges.poll();
+    while (connection != null) {
+      if (connection.channel == null && now >= connection.reconnectAt) {
+        connection.connect();
+      } else if (connection.key != null && connection.key.isValid()
+          && connection.channel.isConnected()) {
+        connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+      }
+      connection = pendingChanges.poll();
+    }
+  }
+
+  private void handleKey(SelectionKey key) {
+    if (!key.isValid()) {
+      return;
+    }
+    try {
+      if (key.isAcceptable()) {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+          channel.configureBlocking(false);
+          Connection connection = new Connection(null);
+          connection.channel = channel;
+          connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+        return;
+      }
+
+      Connection connection = (Connection) key.attachment();
+      if (key.isConnectable() && connection.channel.finishConnect()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+      if (key.isReadable()) {
+        connection.read();
+      }
+      if (key.isValid() && key.isWritable()) {
+        connection.write();
+      }
+    } catch (IOException e) {
+      if (key.attachment() instanceof Connection connection) {
+        connection.fail();
+      }
+    } catch (RuntimeException e) {
+      // A bad frame, or one for a node that isn't here. Drop its connection, not the transport.
+      System.err.printf("Dropping connection after a frame it couldn't handle: %s\n", e);
+      if (key.attachment() instanceof Connection connection) {
+        connection.fail();
+      }
+    }
+  }
+
+  private InetSocketAddress endpointOf(Address address) {
+    return peers.getOrDefault(address, localAddress);
+  }
+
+  private static Frame encode(Message message, Address src, Address dst) {
+    ByteBuffer buffer = WireCodec.encodePooled(message, Integer.BYTES + HEADER_BYTES);
+    buffer.putInt(0, buffer.position() - Integer.BYTES);
+    buffer.putInt(Integer.BYTES, src.getValue());
+    buffer.putInt(2 * Integer.BYTES, dst.getValue());
+    buffer.flip();
+    return new Frame(buffer, new Link(src.getValue(), dst.getValue()), message.getSequence());
+  }
+
+  private void decode(ByteBuffer frame, long peerSession) {
+    Address src = new Address(frame.getInt());
+    Address dst = new Address(frame.getInt());
+    Message message = WireCodec.decode(frame);
+    if (message.getSequence() != 0 && !arrived.computeIfAbsent(peerSession, s -> new HashMap<>())
+        .computeIfAbsent(new Link(src.getValue(), dst.getValue()), l -> new LinkState())
+        .received(message.getSequence())) {
+      return; // sent again after a reconnect, but it had got here the first time
+    }
+
+    // The message's acks are for the link the other way, whose frames went out on one connection
+    Connection back = outbound.get(endpointOf(src));
+    if (back != null) {
+      back.acknowledge(new Link(dst.getValue(), src.getValue()), message.getCumulativeAck(),
+          message.getSelectiveAcks());
+    }
+    network.deliver(message, src, dst);
+  }
+
+  /**
+   * A node-to-node link, by address values.
+   */
+  private record Link(int src, int dst) {
+
+  }
+
+  /**
+   * An encoded frame and what's needed to match it up with acks.
+   *
+   * @param sequence the message's sequence number on its link, or 0 if it wasn't sent by a Node
+   */
+  private record Frame(ByteBuffer buffer, Link link, int sequence) {
+
+  }
+
+  private class Connection {
+
+    // null for an inbound connection
+    private final InetSocketAddress endpoint;
+    private final Queue<Frame> writes;
+    // Outbound only, and only used on the selector thread: frames to write again before writes,
+    // and frames written but not yet acked, per link in sequence order
+    private final ArrayDeque<Frame> resend;
+    private final Map<Link, NavigableMap<Integer, Frame>> unacknowledged;
+    private ByteBuffer hello;
+    // Inbound only: the sender's session, once its hello has arrived
+    private long peerSession;
+    private boolean identified;
+    private ByteBuffer readBuffer;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private long reconnectAt;
+
+    Connection(InetSocketAddress endpoint) {
+      this.endpoint = endpoint;
+      writes = new ConcurrentLinkedQueue<>();
+      resend = new ArrayDeque<>();
+      unacknowledged = new HashMap<>();
+      readBuffer = BufferPool.acquire(READ_BUFFER_BYTES);
+    }
+
+    boolean hasFramesToWrite() {
+      return !resend.isEmpty() || !writes.isEmpty();
+    }
+
+    void connect() {
+      hello = ByteBuffer.allocate(Integer.BYTES + HELLO_BYTES).putInt(HELLO_BYTES).putLong(session)
+          .flip();
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(endpoint);
+        key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+      } catch (IOException e) {
+        fail();
+      }
+    }
+
+    /**
+     * Drop the channel. An inbound connection is done with for good; its peer reconnects if it
+     * has more to send. An outbound one keeps its frames and reconnects later, since the peer
+     * process may simply not have started yet, and sends every frame that isn't acked again
+     * first, since any of them may have been lost with the socket.
+     */
+    void fail() {
+      close();
+      if (endpoint == null) {
+        BufferPool.release(readBuffer);
+        return;
+      }
+
+      ArrayDeque<Frame> again = new ArrayDeque<>();
+      for (NavigableMap<Integer, Frame> sent : unacknowledged.values()) {
+        again.addAll(sent.values());
+      }
+      unacknowledged.clear();
+      again.addAll(resend);
+      resend.clear();
+      resend.addAll(again);
+      for (Frame frame : resend) {
+        frame.buffer().rewind();
+      }
+      Frame head = writes.peek();
+      if (head != null) {
+        head.buffer().rewind(); // resend any partially written frame in full
+      }
+      readBuffer.clear();
+      channel = null;
+      key = null;
+      reconnectAt = System.currentTimeMillis() + RECONNECT_MILLIS;
+    }
+
+    void close() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+          // nothing left to do with it
+        }
+      }
+    }
+
+    void write() throws IOException {
+      if (hello.hasRemaining()) {
+        channel.write(hello);
+        if (hello.hasRemaining()) {
+          return;
+        }
+      }
+      Frame head = resend.isEmpty() ? writes.peek() : resend.peek();
+      while (head != null) {
+        channel.write(head.buffer());
+        if (head.buffer().hasRemaining()) {
+          return; // socket buffer is full, wait for the next OP_WRITE
+        }
+        written(resend.isEmpty() ? writes.poll() : resend.poll());
+        head = resend.isEmpty() ? writes.peek() : resend.peek();
+      }
+      key.interestOps(SelectionKey.OP_READ);
+      if (!writes.isEmpty()) {
+        // a frame was queued between the last peek and clearing OP_WRITE
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+
+    private void written(Frame frame) {
+      if (frame.sequence() == 0) {
+        BufferPool.release(frame.buffer()); // nothing will ack it
+        return;
+      }
+      unacknowledged.computeIfAbsent(frame.link(), l -> new TreeMap<>())
+          .put(frame.sequence(), frame);
+    }
+
+    /**
+     * Release the frames a message back from the link's destination acks.
+     */
+    void acknowledge(Link link, int cumulativeAck, int[] selectiveAcks) {
+      NavigableMap<Integer, Frame> sent = unacknowledged.get(link);
+      if (sent == null) {
+        return;
+      }
+      NavigableMap<Integer, Frame> covered = sent.headMap(cumulativeAck, true);
+      for (Frame frame : covered.values()) {
+        BufferPool.release(frame.buffer());
+      }
+      covered.clear();
+      for (int sequence : selectiveAcks) {
+        Frame frame = sent.remove(sequence);
+        if (frame != null) {
+          BufferPool.release(frame.buffer());
+        }
+      }
+    }
+
+    void read() throws IOException {
+      int n = channel.read(readBuffer);
+      if (n < 0) {
+        fail();
+        return;
+      }
+
+      readBuffer.flip();
+      while (readBuffer.remaining() >= Integer.BYTES) {
+        int length = readBuffer.getInt(readBuffer.position());
+        if (length < 0) {
+          throw new RuntimeException("Negative frame length " + length);
+        }
+        if (readBuffer.remaining() < Integer.BYTES + length) {
+          break;
+        }
+        readBuffer.getInt();
+        ByteBuffer frame = readBuffer.slice(readBuffer.position(), length);
+        readBuffer.position(readBuffer.position() + length);
+        if (identified) {
+          decode(frame, peerSession);
+        } else if (length == HELLO_BYTES) {
+          peerSession = frame.getLong();
+          identified = true;
+        } else {
+          throw new RuntimeException("Connection didn't start with a session id");
+        }
+      }
+      readBuffer.compact();
+
+      // grow the buffer if a single frame doesn't fit in it
+      if (!readBuffer.hasRemaining()) {
+        ByteBuffer larger = BufferPool.acquire(readBuffer.capacity() * 2);
+        readBuffer.flip();
+        larger.put(readBuffer);
+        BufferPool.release(readBuffer);
+        readBuffer = larger;
+      }
+    }
+  }
+}
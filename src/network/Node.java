@@ -2,11 +2,13 @@ package network;
 
 import gss.GSSConfiguration;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.MetricsRegistry;
 
 public class Node {
 
@@ -19,82 +21,238 @@ public class Node {
   protected int nodeIndex;
   private int lowestSimTimeUnacknowledged = -1;
   private int highestSimTimeSent;
-  protected final Set<Message> unacknowledgedMessages;
-  private final Map<Address, Collection<Message>> newlyAcknowledgedMessages;
+  private final SimTimeCounts unacknowledgedSimTimes;
+  private final GvtEngine gvt;
+
+  // Sequence numbers and acks for each peer this node has exchanged messages with
+  private final Map<Address, LinkState> links;
+
+  // Messages waiting for the next flushOutbox, per destination
+  private final Map<Address, List<Message>> outbox;
+
+  protected final MetricsRegistry metrics;
+  private final Counter messagesSent;
+  private final Counter messagesReceived;
+  private final Gauge gvtGauge;
 
   public Node(Address address, Network network) {
     this.address = address;
     this.network = network;
     network.addNode(this);
 
-    vectorClock = new int[GSSConfiguration.getNumNodes()];
     nodeIndex = GSSConfiguration.getNodeIndex(address);
-    unacknowledgedMessages = new HashSet<>();
-    newlyAcknowledgedMessages = new HashMap<>();
+    links = new HashMap<>();
+    unacknowledgedSimTimes = new SimTimeCounts();
+    outbox = new LinkedHashMap<>();
+    metrics = new MetricsRegistry("node", Integer.toString(address.getValue()));
+    messagesSent = metrics.counter("node_messages_sent_total",
+        "Messages sent, counting a batch once");
+    messagesReceived = metrics.counter("node_messages_received_total",
+        "Messages received, counting a batch once");
+    gvtGauge = metrics.gauge("node_gvt", "Global virtual time as this node last worked it out");
+    if (GSSConfiguration.getGvtMode() == GvtMode.MATTERN) {
+      vectorClock = new int[0];
+      gvt = new MatternGvt(this, network);
+    } else {
+      vectorClock = new int[GSSConfiguration.getNumNodes()];
+      gvt = new VectorClockGvt(this);
+    }
   }
 
   protected synchronized void send(Message message, Address dst) {
-    if (message.getSimTime() > highestSimTimeSent) {
-      highestSimTimeSent = message.getSimTime();
-    }
-    if (message.getSimTime() < lowestSimTimeUnacknowledged || lowestSimTimeUnacknowledged == -1) {
-      lowestSimTimeUnacknowledged = message.getSimTime();
+    int highestSimTime = message instanceof MessageBatch batch ? batch.getHighestSimTime()
+        : message.getSimTime();
+    if (highestSimTime > highestSimTimeSent) {
+      highestSimTimeSent = highestSimTime;
     }
+    unacknowledgedSimTimes.add(message.getSimTime());
+    lowestSimTimeUnacknowledged = unacknowledgedSimTimes.lowest();
 
-    unacknowledgedMessages.add(message);
-    if (newlyAcknowledgedMessages.get(dst) != null) {
-      message.addAcknowledgedMessages(newlyAcknowledgedMessages.get(dst));
-      newlyAcknowledgedMessages.get(dst).clear();
-    }
+    // Every message carries this node's acks for the link, so acks cost a few ints however many
+    // messages they cover
+    LinkState link = link(dst);
+    message.setSequencing(link.send(message), link.cumulativeAck(), link.selectiveAcks());
+    messagesSent.increment();
+    gvt.sent(message);
 
     this.network.send(message, this.address, dst);
   }
 
   /**
-   * Called by Network whenever a message is delivered. Update vectorClock with new info in the
-   * message's metadata and vectorClock.
+   * Run a task in this node's context. Timer callbacks and UI events should come through here so
+   * that, with ExecutionMode.MAILBOXES, they're queued with the node's message handlers instead
+   * of competing with them for the node's monitor. With ExecutionMode.MONITORS the task runs
+   * right away on the calling thread.
+   */
+  protected void submit(Runnable task) {
+    network.runOn(this, task);
+  }
+
+  /**
+   * Run task every periodMillis in this node's context, on the network's clock.
    *
-   * @param message received message
+   * @return handle that stops the timer
    */
-  public synchronized void updateVectorClock(Message message) {
-    newlyAcknowledgedMessages.putIfAbsent(message.getSource(), new ArrayList<>());
-    newlyAcknowledgedMessages.get(message.getSource()).add(message);
+  protected Scheduler.Cancellable startTimer(long initialDelayMillis, long periodMillis,
+      Runnable task) {
+    return network.startTimer(initialDelayMillis, periodMillis, () -> submit(task));
+  }
 
-    // Update our vector clock from the message's vector clock and metadata
-    for (Message acked : message.getNewlyAcknowledgedMessages()) {
-      if (unacknowledgedMessages.remove(acked)
-          && acked.getSimTime() == lowestSimTimeUnacknowledged) {
-        setLowestSimTimeFromUnacknowledged();
+  /**
+   * @return current time on the network's clock, which is virtual on a SimulatedNetwork
+   */
+  protected long currentTimeMillis() {
+    return network.getScheduler().currentTimeMillis();
+  }
+
+  /**
+   * Make a scheduler with a thread of its own for this node's frames; see
+   * Network.newFrameScheduler. Its tasks should go through submit, like timer callbacks.
+   */
+  protected Scheduler newFrameScheduler(String name) {
+    return network.newFrameScheduler(name);
+  }
+
+  /**
+   * Queue a message for dst. It goes out with everything else queued for dst on the next call to
+   * flushOutbox, as one MessageBatch with a single retry and acknowledgement.
+   */
+  protected synchronized void sendBatched(Message message, Address dst) {
+    outbox.computeIfAbsent(dst, d -> new ArrayList<>()).add(message);
+  }
+
+  /**
+   * Send everything queued by sendBatched, one message per destination.
+   */
+  protected synchronized void flushOutbox() {
+    for (Map.Entry<Address, List<Message>> entry : outbox.entrySet()) {
+      List<Message> queued = entry.getValue();
+      if (queued.isEmpty()) {
+        continue;
+      }
+      if (queued.size() == 1) {
+        send(queued.get(0), entry.getKey());
+      } else {
+        send(new MessageBatch(address, entry.getKey(), new ArrayList<>(queued), getVectorClock()),
+            entry.getKey());
       }
+      queued.clear();
+    }
+  }
+
+  /**
+   * Called by Network whenever a message is delivered. Process the acks the message carries and
+   * pass it to the GVT engine, which updates globalSimTime.
+   *
+   * @param message received message
+   * @param sender  node the message came from
+   */
+  public synchronized void updateVectorClock(Message message, Address sender) {
+    LinkState link = link(sender);
+    link.received(message.getSequence());
+
+    // Drop whatever the sender has acked
+    link.acknowledge(message.getCumulativeAck(), message.getSelectiveAcks(),
+        acked -> unacknowledgedSimTimes.remove(acked.getSimTime()));
+    if (lowestSimTimeUnacknowledged != -1) {
+      lowestSimTimeUnacknowledged = unacknowledgedSimTimes.lowest();
     }
-    message.getNewlyAcknowledgedMessages().clear();
 
-    // Do a pairwise max of vector clock entries
-    vectorClock[nodeIndex] = Math.min(lowestSimTimeUnacknowledged, highestSimTimeSent);
+    gvt.received(message);
+    messagesReceived.increment();
+    gvtGauge.set(globalSimTime);
+  }
+
+  /**
+   * Start from a GVT of simTime rather than 0, for a node that's recovered everything committed
+   * before it. Every node had passed it, so the vector clock starts there too.
+   */
+  protected synchronized void resumeFrom(int simTime) {
+    globalSimTime = Math.max(globalSimTime, simTime);
     for (int i = 0; i < vectorClock.length; i++) {
-      vectorClock[i] = Math.max(vectorClock[i], message.getVectorClock()[i]);
+      vectorClock[i] = Math.max(vectorClock[i], simTime);
     }
+    highestSimTimeSent = Math.max(highestSimTimeSent, simTime);
+    gvtGauge.set(globalSimTime);
+  }
 
-    // Set this node's globalSimTime as the min value in the vector clock
-    globalSimTime = vectorClock[0];
-    for (int v : vectorClock) {
-      globalSimTime = Math.min(globalSimTime, v);
+  /**
+   * Pass the GVT token on. Only used with GvtMode.MATTERN.
+   */
+  public synchronized void handleGvtTokenMessage(Message m, Address sender) {
+    if (!(m instanceof GvtTokenMessage token) || !(gvt instanceof MatternGvt mattern)) {
+      throw new RuntimeException("Attempted to handle wrong type of message");
     }
+    mattern.visit(token);
+  }
+
+  /**
+   * Lowest sim time this node has promised not to send below: the earliest message it's still
+   * waiting to hear is acknowledged, or if everything is acknowledged, the latest it has sent.
+   */
+  int getLowestPromisedSimTime() {
+    return Math.min(lowestSimTimeUnacknowledged, highestSimTimeSent);
   }
 
-  private synchronized void setLowestSimTimeFromUnacknowledged() {
-    int minimum = Integer.MAX_VALUE;
-    for (Message message : unacknowledgedMessages) {
-      minimum = Math.min(minimum, message.getSimTime());
+  /**
+   * Lowest sim time this node might still pass on from other nodes, e.g. events from a GSS's
+   * clients that it forwards to other servers.
+   *
+   * @return lowest upstream sim time, or Integer.MAX_VALUE if this node doesn't forward anything
+   */
+  protected int getLowestUpstreamSimTime() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Sim time of the earliest message this node has received but not processed yet. Once a
+   * message is acknowledged its sender stops holding GVT back for it, so the receiver has to.
+   *
+   * @return lowest pending sim time, or Integer.MAX_VALUE if nothing is pending
+   */
+  protected int getLowestPendingSimTime() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return messages this node has sent that haven't been acknowledged yet, in the order they
+   * were sent on each link
+   */
+  protected synchronized List<Message> getUnacknowledgedMessages() {
+    List<Message> unacknowledged = new ArrayList<>();
+    for (LinkState link : links.values()) {
+      unacknowledged.addAll(link.unacknowledged());
     }
-    lowestSimTimeUnacknowledged = minimum;
+    return unacknowledged;
+  }
+
+  private LinkState link(Address peer) {
+    return links.computeIfAbsent(peer, p -> new LinkState());
   }
 
   public Address getAddress() {
     return this.address;
   }
 
+  /**
+   * @return this node's metrics, to register with JMX or a PrometheusEndpoint
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return this node's current estimate of GVT
+   */
+  public synchronized int getGlobalSimTime() {
+    return globalSimTime;
+  }
+
+  /**
+   * @return vector clock to put on a new message; empty unless the cluster uses
+   * GvtMode.VECTOR_CLOCK
+   */
   public int[] getVectorClock() {
-    return vectorClock.clone();
+    return gvt.getVectorClock();
   }
 }
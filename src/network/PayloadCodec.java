@@ -0,0 +1,16 @@
+package network;
+
+import java.nio.ByteBuffer;
+
+public interface PayloadCodec<T> {
+
+  /**
+   * Encodes values of one type straight into a ByteBuffer and back. Implementations should write
+   * with the buffer's put methods (and WireCodec's varint helpers) rather than building a byte
+   * array first.
+   */
+
+  void encode(T value, ByteBuffer out);
+
+  T decode(ByteBuffer in);
+}
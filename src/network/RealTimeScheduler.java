@@ -0,0 +1,59 @@
+package network;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RealTimeScheduler implements Scheduler {
+
+  /**
+   * Scheduler on the wall clock, backed by a small pool of daemon threads.
+   */
+
+  private final ScheduledExecutorService executor;
+
+  public RealTimeScheduler(int threads, String threadPrefix) {
+    executor = Executors.newScheduledThreadPool(threads, daemonThreads(threadPrefix));
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  @Override
+  public Cancellable schedule(Runnable task, long delayMillis) {
+    ScheduledFuture<?> future = executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    return () -> future.cancel(false);
+  }
+
+  @Override
+  public Cancellable scheduleAtFixedRate(Runnable task, long initialDelayMillis,
+      long periodMillis) {
+    ScheduledFuture<?> future = executor.scheduleAtFixedRate(task, initialDelayMillis,
+        periodMillis, TimeUnit.MILLISECONDS);
+    return () -> future.cancel(false);
+  }
+
+  @Override
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, prefix + "-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,31 @@
+package network;
+
+import java.util.concurrent.Executor;
+
+public interface Scheduler extends Executor {
+
+  /**
+   * Source of time and delayed tasks for a Network and the nodes on it. Network's default is
+   * RealTimeScheduler, which runs on the wall clock; SimulatedNetwork uses a VirtualScheduler so
+   * that a run is repeatable and doesn't have to wait for real time to pass.
+   */
+
+  long currentTimeMillis();
+
+  Cancellable schedule(Runnable task, long delayMillis);
+
+  Cancellable scheduleAtFixedRate(Runnable task, long initialDelayMillis, long periodMillis);
+
+  /**
+   * Stop running tasks. Tasks that haven't run yet are dropped.
+   */
+  void shutdown();
+
+  /**
+   * Handle to a scheduled task or timer.
+   */
+  interface Cancellable {
+
+    void cancel();
+  }
+}
@@ -0,0 +1,35 @@
+package network;
+
+import java.util.TreeMap;
+
+final class SimTimeCounts {
+
+  /**
+   * Multiset of sim times: how many unacknowledged messages a node has at each sim time. Adding,
+   * removing and finding the lowest are O(log d) for d distinct sim times, so acking the lowest
+   * message doesn't mean rescanning everything still in flight.
+   */
+
+  private final TreeMap<Integer, int[]> counts = new TreeMap<>();
+
+  void add(int simTime) {
+    counts.computeIfAbsent(simTime, t -> new int[1])[0]++;
+  }
+
+  void remove(int simTime) {
+    int[] count = counts.get(simTime);
+    if (count == null) {
+      throw new IllegalArgumentException("No message at sim time " + simTime + " to remove");
+    }
+    if (--count[0] == 0) {
+      counts.remove(simTime);
+    }
+  }
+
+  /**
+   * @return lowest sim time in the set, or Integer.MAX_VALUE if it's empty
+   */
+  int lowest() {
+    return counts.isEmpty() ? Integer.MAX_VALUE : counts.firstKey();
+  }
+}
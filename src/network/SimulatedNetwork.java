@@ -0,0 +1,146 @@
+package network;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+public class SimulatedNetwork extends Network {
+
+  /**
+   * Network on a virtual clock. Every transmission, handler and node timer is a task on one
+   * VirtualScheduler, and every random choice (loss and latency) comes from a Random with a fixed
+   * seed, so the same seed and the same inputs give the same run, rollback for rollback. Nothing
+   * happens until the caller advances the clock with runFor or runUntil, and time skips ahead
+   * between tasks, so an hour of play runs as fast as the nodes can process it.
+   * <p>
+   * Each link has its own latency distribution and tx success rate; links that haven't been set
+   * use the defaults given to the constructor. A lost attempt is retried RETRY_MILLIS later and
+   * then takes a fresh latency sample.
+   */
+
+  private record Link(LatencyModel latency, float txSuccessRate) {
+
+  }
+
+  private final VirtualScheduler clock;
+  private final Link defaultLink;
+  private final Map<Long, Link> links;
+
+  public SimulatedNetwork(long seed, LatencyModel latency, float txSuccessRate) {
+    this(new VirtualScheduler(), seed, latency, txSuccessRate);
+  }
+
+  private SimulatedNetwork(VirtualScheduler clock, long seed, LatencyModel latency,
+      float txSuccessRate) {
+    super(txSuccessRate, new LocalTransport(), clock, new Random(seed));
+    this.clock = clock;
+    defaultLink = new Link(latency, txSuccessRate);
+    links = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Set the latency and loss for messages from src to dst. Links are one-way, so set both
+   * directions for a symmetric link.
+   */
+  public void setLink(Address src, Address dst, LatencyModel latency, float txSuccessRate) {
+    links.put(linkKey(src, dst), new Link(latency, txSuccessRate));
+  }
+
+  public long currentTimeMillis() {
+    return clock.currentTimeMillis();
+  }
+
+  /**
+   * Advance the virtual clock by millis, running everything that comes due.
+   */
+  public void runFor(long millis) {
+    clock.runFor(millis);
+  }
+
+  /**
+   * Advance the virtual clock until the condition holds, for at most maxMillis of virtual time.
+   *
+   * @return true if the condition was met
+   */
+  public boolean runUntil(BooleanSupplier condition, long maxMillis) {
+    return clock.runUntil(condition, maxMillis);
+  }
+
+  @Override
+  protected long transmitDelayMillis(Address src, Address dst) {
+    return link(src, dst).latency().sampleMillis(random);
+  }
+
+  @Override
+  protected long retryDelayMillis(Address src, Address dst) {
+    return RETRY_MILLIS + link(src, dst).latency().sampleMillis(random);
+  }
+
+  @Override
+  protected boolean isLost(Address src, Address dst) {
+    return random.nextFloat() >= link(src, dst).txSuccessRate();
+  }
+
+  /**
+   * Frames run on the virtual clock like everything else, so a node's frame scheduler shares it.
+   * Shutting one down only stops the tasks scheduled through it.
+   */
+  @Override
+  public Scheduler newFrameScheduler(String name) {
+    return new Scheduler() {
+      private final Set<Scheduler.Cancellable> timers = ConcurrentHashMap.newKeySet();
+      private volatile boolean shutdown;
+
+      @Override
+      public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+      }
+
+      @Override
+      public void execute(Runnable task) {
+        schedule(task, 0);
+      }
+
+      @Override
+      public Scheduler.Cancellable schedule(Runnable task, long delayMillis) {
+        return clock.schedule(() -> {
+          if (!shutdown) {
+            task.run();
+          }
+        }, delayMillis);
+      }
+
+      @Override
+      public Scheduler.Cancellable scheduleAtFixedRate(Runnable task, long initialDelayMillis,
+          long periodMillis) {
+        Scheduler.Cancellable timer = clock.scheduleAtFixedRate(task, initialDelayMillis,
+            periodMillis);
+        timers.add(timer);
+        return timer;
+      }
+
+      @Override
+      public void shutdown() {
+        shutdown = true;
+        timers.forEach(Scheduler.Cancellable::cancel);
+        timers.clear();
+      }
+    };
+  }
+
+  @Override
+  public Scheduler.Cancellable startTimer(long initialDelayMillis, long periodMillis,
+      Runnable task) {
+    return clock.scheduleAtFixedRate(task, initialDelayMillis, periodMillis);
+  }
+
+  private Link link(Address src, Address dst) {
+    return links.getOrDefault(linkKey(src, dst), defaultLink);
+  }
+
+  private static long linkKey(Address src, Address dst) {
+    return ((long) src.getValue() << 32) | (dst.getValue() & 0xffffffffL);
+  }
+}
@@ -0,0 +1,30 @@
+package network;
+
+public interface Transport {
+
+  /**
+   * Carries messages between nodes on behalf of a Network. The Network models loss and retries
+   * and dispatches to handlers; a Transport only moves a message to wherever its destination
+   * node lives and hands it back to that node's Network through Network.deliver.
+   */
+
+  /**
+   * Called once by the Network that owns this transport, before any messages are sent.
+   *
+   * @param network network to deliver incoming messages to
+   */
+  void start(Network network);
+
+  /**
+   * @param dst destination address
+   * @return true if this transport knows where dst lives
+   */
+  boolean canReach(Address dst);
+
+  /**
+   * Carry a message to its destination. Called once per successful transmission attempt.
+   */
+  void transmit(Message message, Address src, Address dst);
+
+  void shutdown();
+}
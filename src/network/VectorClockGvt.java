@@ -0,0 +1,47 @@
+package network;
+
+final class VectorClockGvt implements GvtEngine {
+
+  /**
+   * GVT from vector clocks carried on every message: each entry is a node's promise that it won't
+   * send anything earlier, and GVT is the lowest entry.
+   */
+
+  private final Node node;
+
+  VectorClockGvt(Node node) {
+    this.node = node;
+  }
+
+  @Override
+  public int[] getVectorClock() {
+    return node.vectorClock.clone();
+  }
+
+  @Override
+  public void sent(Message message) {
+  }
+
+  @Override
+  public void received(Message message) {
+    int[] vectorClock = node.vectorClock;
+
+    // Do a pairwise max of vector clock entries
+    for (int i = 0; i < vectorClock.length; i++) {
+      vectorClock[i] = Math.max(vectorClock[i], message.getVectorClock()[i]);
+    }
+
+    // Our own entry is a promise that we won't send anything earlier than it, so we set it
+    // ourselves rather than taking anyone else's view of it
+    vectorClock[node.nodeIndex] = Math.min(node.getLowestPromisedSimTime(),
+        node.getLowestUpstreamSimTime());
+
+    // Set this node's globalSimTime as the min value in the vector clock, and don't let it pass
+    // anything we've received but not processed yet
+    int globalSimTime = node.getLowestPendingSimTime();
+    for (int v : vectorClock) {
+      globalSimTime = Math.min(globalSimTime, v);
+    }
+    node.globalSimTime = globalSimTime;
+  }
+}
@@ -0,0 +1,167 @@
+package network;
+
+import java.util.PriorityQueue;
+import java.util.function.BooleanSupplier;
+
+public class VirtualScheduler implements Scheduler {
+
+  /**
+   * Discrete-event scheduler on a virtual clock. Nothing runs on its own: the owner calls runFor
+   * or runUntil, and tasks run on the calling thread in order of their due time, with ties broken
+   * by the order they were scheduled. Time jumps straight from one task to the next, so idle
+   * stretches cost nothing and a run is the same every time.
+   */
+
+  private final PriorityQueue<Event> events;
+  private long now;
+  private long nextSequence;
+  private boolean shutdown;
+
+  public VirtualScheduler() {
+    events = new PriorityQueue<>();
+    now = 0;
+    nextSequence = 0;
+    shutdown = false;
+  }
+
+  private static class Event implements Comparable<Event> {
+
+    private final long time;
+    private final long sequence;
+    private final Runnable task;
+    private boolean cancelled;
+
+    Event(long time, long sequence, Runnable task) {
+      this.time = time;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(Event o) {
+      if (time == o.time) {
+        return Long.compare(sequence, o.sequence);
+      }
+      return Long.compare(time, o.time);
+    }
+  }
+
+  @Override
+  public synchronized long currentTimeMillis() {
+    return now;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    schedule(task, 0);
+  }
+
+  @Override
+  public synchronized Cancellable schedule(Runnable task, long delayMillis) {
+    Event event = new Event(now + Math.max(0, delayMillis), nextSequence++, task);
+    if (!shutdown) {
+      events.add(event);
+    }
+    return () -> cancel(event);
+  }
+
+  @Override
+  public Cancellable scheduleAtFixedRate(Runnable task, long initialDelayMillis,
+      long periodMillis) {
+    PeriodicTask periodic = new PeriodicTask(task, periodMillis);
+    periodic.next = schedule(periodic, initialDelayMillis);
+    return periodic;
+  }
+
+  private class PeriodicTask implements Runnable, Cancellable {
+
+    private final Runnable task;
+    private final long periodMillis;
+    private Cancellable next;
+
+    PeriodicTask(Runnable task, long periodMillis) {
+      this.task = task;
+      this.periodMillis = periodMillis;
+    }
+
+    @Override
+    public void run() {
+      // Schedule the next run first so that the period doesn't drift with the task
+      next = schedule(this, periodMillis);
+      task.run();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (VirtualScheduler.this) {
+        next.cancel();
+      }
+    }
+  }
+
+  private synchronized void cancel(Event event) {
+    event.cancelled = true;
+  }
+
+  /**
+   * Run every task due in the next millis of virtual time, then leave the clock at the end of
+   * that window.
+   */
+  public void runFor(long millis) {
+    long end;
+    synchronized (this) {
+      end = now + millis;
+    }
+    runTasks(() -> false, end);
+    synchronized (this) {
+      now = Math.max(now, end);
+    }
+  }
+
+  /**
+   * Run tasks in order until the condition holds or virtual time would pass the deadline.
+   *
+   * @param condition  checked before each task
+   * @param maxMillis  how much virtual time to allow
+   * @return true if the condition was met
+   */
+  public boolean runUntil(BooleanSupplier condition, long maxMillis) {
+    long end;
+    synchronized (this) {
+      end = now + maxMillis;
+    }
+    return runTasks(condition, end);
+  }
+
+  private boolean runTasks(BooleanSupplier condition, long end) {
+    while (!condition.getAsBoolean()) {
+      Event event;
+      synchronized (this) {
+        event = events.peek();
+        if (event == null || event.time > end) {
+          return false;
+        }
+        events.poll();
+        now = event.time;
+        if (event.cancelled) {
+          continue;
+        }
+      }
+      event.task.run();
+    }
+    return true;
+  }
+
+  /**
+   * @return number of tasks waiting to run, including cancelled ones not yet reached
+   */
+  public synchronized int pendingTasks() {
+    return events.size();
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    shutdown = true;
+    events.clear();
+  }
+}
@@ -0,0 +1,252 @@
+package network;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class WireCodec {
+
+  /**
+   * Versioned binary format for messages. Every encoded message is
+   * <p>
+   * [version][type][source][destination][simTime][gssTime][vector clock][sequence][acks][epoch]
+   * [body]
+   * <p>
+   * where the integers are zigzag varints, the vector clock is a length followed by its entries,
+   * and acks are the cumulative ack followed by a count and the selective acks, each written as
+   * its distance from the one before. The epoch is only used by GvtMode.MATTERN. The body is
+   * written by the MessageCodec registered for the message's class.
+   */
+
+  public static final byte VERSION = 5;
+  public static final int PLAIN_MESSAGE_TYPE = 0;
+  public static final int GVT_TOKEN_TYPE = 254;
+  public static final int MESSAGE_BATCH_TYPE = 255;
+
+  private static final Registration<?>[] byType = new Registration<?>[256];
+  private static final Map<Class<?>, Registration<?>> byClass = new ConcurrentHashMap<>();
+
+  private record Registration<M extends Message>(int type, Class<M> messageClass,
+                                                 MessageCodec<M> codec) {
+
+  }
+
+  static {
+    register(PLAIN_MESSAGE_TYPE, Message.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(Message message, ByteBuffer out) {
+      }
+
+      @Override
+      public Message decodeBody(MessageHeader header, ByteBuffer in) {
+        return newMessage(header);
+      }
+    });
+
+    register(GVT_TOKEN_TYPE, GvtTokenMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(GvtTokenMessage token, ByteBuffer out) {
+        putVarInt(out, token.getEpoch());
+        putVarInt(out, token.getLastGvt());
+        putVarInt(out, token.getInTransit());
+        putVarInt(out, token.getMinimum());
+      }
+
+      @Override
+      public GvtTokenMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        int epoch = getVarInt(in);
+        int lastGvt = getVarInt(in);
+        int inTransit = getVarInt(in);
+        int minimum = getVarInt(in);
+        return new GvtTokenMessage(header.source(), epoch, lastGvt, inTransit, minimum);
+      }
+    });
+
+    // A batch's body is a count followed by each of its messages, fully encoded
+    register(MESSAGE_BATCH_TYPE, MessageBatch.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(MessageBatch batch, ByteBuffer out) {
+        putVarInt(out, batch.getMessages().size());
+        for (Message message : batch.getMessages()) {
+          encode(message, out);
+        }
+      }
+
+      @Override
+      public MessageBatch decodeBody(MessageHeader header, ByteBuffer in) {
+        int count = getVarInt(in);
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          messages.add(decode(in));
+        }
+        return new MessageBatch(header.source(), header.destination(), messages,
+            header.vectorClock());
+      }
+    });
+  }
+
+  private WireCodec() {
+  }
+
+  /**
+   * Register the codec for a message class. Every process in a cluster must register the same
+   * type ids for the same classes.
+   *
+   * @param type         id written on the wire, 1-253
+   * @param messageClass exact class of the messages this codec handles
+   * @param codec        codec for the message body
+   */
+  public static synchronized <M extends Message> void register(int type, Class<M> messageClass,
+      MessageCodec<M> codec) {
+    Registration<?> existing = byType[type];
+    if (existing != null && existing.messageClass() != messageClass) {
+      throw new IllegalArgumentException(
+          "Message type " + type + " is already registered to " + existing.messageClass());
+    }
+    Registration<M> registration = new Registration<>(type, messageClass, codec);
+    byType[type] = registration;
+    byClass.put(messageClass, registration);
+  }
+
+  /**
+   * Encode a message at the buffer's position.
+   *
+   * @throws BufferOverflowException if the buffer is too small
+   */
+  public static void encode(Message message, ByteBuffer out) {
+    Registration<?> registration = byClass.get(message.getClass());
+    if (registration == null) {
+      throw new RuntimeException(
+          "No codec registered for " + message.getClass().getSimpleName());
+    }
+
+    out.put(VERSION);
+    out.put((byte) registration.type());
+    encodeHeader(message, out);
+    putVarInt(out, message.getSequence());
+    putVarInt(out, message.getCumulativeAck());
+    int[] selectiveAcks = message.getSelectiveAcks();
+    putVarInt(out, selectiveAcks.length);
+    int previous = message.getCumulativeAck();
+    for (int ack : selectiveAcks) {
+      putVarInt(out, ack - previous);
+      previous = ack;
+    }
+    putVarInt(out, message.getGvtEpoch());
+    encodeBody(registration, message, out);
+  }
+
+  /**
+   * Encode a message into a pooled buffer, growing to a larger buffer if it doesn't fit.
+   *
+   * @param reserved bytes to leave free at the start of the buffer, e.g. for a frame header
+   * @return a buffer from BufferPool positioned after the encoded message; release it when done
+   */
+  public static ByteBuffer encodePooled(Message message, int reserved) {
+    int capacity = BufferPool.MIN_CAPACITY;
+    while (true) {
+      ByteBuffer buffer = BufferPool.acquire(capacity);
+      try {
+        buffer.position(reserved);
+        encode(message, buffer);
+        return buffer;
+      } catch (BufferOverflowException e) {
+        BufferPool.release(buffer);
+        capacity = buffer.capacity() * 2;
+      }
+    }
+  }
+
+  /**
+   * Decode a message starting at the buffer's position, leaving the position after it.
+   */
+  public static Message decode(ByteBuffer in) {
+    byte version = in.get();
+    if (version != VERSION) {
+      throw new RuntimeException("Unsupported wire format version " + version);
+    }
+    Registration<?> registration = byType[in.get() & 0xff];
+    if (registration == null) {
+      throw new RuntimeException("Unknown message type on the wire");
+    }
+
+    MessageHeader header = decodeHeader(in);
+    int sequence = getVarInt(in);
+    int cumulativeAck = getVarInt(in);
+    int[] selectiveAcks = new int[getVarInt(in)];
+    int previous = cumulativeAck;
+    for (int i = 0; i < selectiveAcks.length; i++) {
+      previous += getVarInt(in);
+      selectiveAcks[i] = previous;
+    }
+    int gvtEpoch = getVarInt(in);
+
+    Message message = registration.codec().decodeBody(header, in);
+    message.setSequencing(sequence, cumulativeAck, selectiveAcks);
+    message.setGvtEpoch(gvtEpoch);
+    return message;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <M extends Message> void encodeBody(Registration<M> registration,
+      Message message, ByteBuffer out) {
+    registration.codec().encodeBody((M) message, out);
+  }
+
+  private static void encodeHeader(Message message, ByteBuffer out) {
+    putVarInt(out, message.getSource().getValue());
+    putVarInt(out, message.getDestination().getValue());
+    putVarInt(out, message.getSimTime());
+    putVarInt(out, message.getGssTime());
+    int[] vectorClock = message.getVectorClock();
+    putVarInt(out, vectorClock.length);
+    for (int v : vectorClock) {
+      putVarInt(out, v);
+    }
+  }
+
+  private static MessageHeader decodeHeader(ByteBuffer in) {
+    Address source = new Address(getVarInt(in));
+    Address destination = new Address(getVarInt(in));
+    int simTime = getVarInt(in);
+    int gssTime = getVarInt(in);
+    int[] vectorClock = new int[getVarInt(in)];
+    for (int i = 0; i < vectorClock.length; i++) {
+      vectorClock[i] = getVarInt(in);
+    }
+    return new MessageHeader(source, destination, simTime, gssTime, vectorClock);
+  }
+
+  private static Message newMessage(MessageHeader header) {
+    return new Message(header.source(), header.destination(), header.simTime(),
+        header.gssTime(), header.vectorClock());
+  }
+
+  /*
+   * Varint helpers for codecs. Values are zigzag encoded so small negative numbers stay small.
+   */
+
+  public static void putVarInt(ByteBuffer out, int value) {
+    int v = (value << 1) ^ (value >> 31);
+    while ((v & ~0x7f) != 0) {
+      out.put((byte) ((v & 0x7f) | 0x80));
+      v >>>= 7;
+    }
+    out.put((byte) v);
+  }
+
+  public static int getVarInt(ByteBuffer in) {
+    int v = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      v |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (v >>> 1) ^ -(v & 1);
+  }
+}
@@ -0,0 +1,201 @@
+package util;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+public class TimeIndexedLog<T> implements Iterable<T> {
+
+  /**
+   * History kept in the order it happened, for entries that arrive in non-decreasing sim time:
+   * a GSS's executed events and saved states. Backed by a ring buffer, so finding a time is a
+   * binary search, rolling back k entries from the tail is O(k), and fossil collection from the
+   * head is O(entries pruned), with no reordering or copying along the way.
+   */
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final ToIntFunction<? super T> timeOf;
+  private Object[] entries;
+  private int head;
+  private int size;
+  private int modifications;
+
+  /**
+   * @param timeOf sim time of an entry, which must not change while it's in the log
+   */
+  public TimeIndexedLog(ToIntFunction<? super T> timeOf) {
+    this.timeOf = timeOf;
+    this.entries = new Object[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Append an entry at the tail.
+   *
+   * @throws IllegalArgumentException if it's earlier than the entry at the tail
+   */
+  public void add(T entry) {
+    if (size > 0 && timeOf.applyAsInt(entry) < timeOf.applyAsInt(peekLast())) {
+      throw new IllegalArgumentException("Entry at sim time " + timeOf.applyAsInt(entry)
+          + " is earlier than the last one, at " + timeOf.applyAsInt(peekLast()));
+    }
+    if (size == entries.length) {
+      grow();
+    }
+    entries[slot(size)] = entry;
+    size++;
+    modifications++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param index position from the oldest entry, 0 to size() - 1
+   */
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " with size " + size);
+    }
+    return (T) entries[slot(index)];
+  }
+
+  /**
+   * @return oldest entry, or null if the log is empty
+   */
+  public T peekFirst() {
+    return size == 0 ? null : get(0);
+  }
+
+  /**
+   * @return newest entry, or null if the log is empty
+   */
+  public T peekLast() {
+    return size == 0 ? null : get(size - 1);
+  }
+
+  /**
+   * @return index of the first entry at or after time, or size() if there isn't one
+   */
+  public int indexOf(int time) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (timeOf.applyAsInt(get(middle)) < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return newest entry before time, or null if there isn't one
+   */
+  public T lastBefore(int time) {
+    int index = indexOf(time);
+    return index == 0 ? null : get(index - 1);
+  }
+
+  /**
+   * Remove every entry at or after time, newest first.
+   *
+   * @param removed called with each entry as it's removed
+   * @return number of entries removed
+   */
+  public int removeFrom(int time, Consumer<? super T> removed) {
+    int count = 0;
+    while (size > 0 && timeOf.applyAsInt(peekLast()) >= time) {
+      int slot = slot(size - 1);
+      @SuppressWarnings("unchecked")
+      T entry = (T) entries[slot];
+      entries[slot] = null;
+      size--;
+      modifications++;
+      count++;
+      removed.accept(entry);
+    }
+    return count;
+  }
+
+  /**
+   * Remove the oldest entries while they're before time.
+   *
+   * @return number of entries removed
+   */
+  public int removeBefore(int time) {
+    return removeBefore(time, (entry) -> {
+    });
+  }
+
+  /**
+   * Remove the oldest entries while they're before time, oldest first.
+   *
+   * @param removed called with each entry as it's removed
+   * @return number of entries removed
+   */
+  public int removeBefore(int time, Consumer<? super T> removed) {
+    int count = 0;
+    while (size > 0 && timeOf.applyAsInt(peekFirst()) < time) {
+      removed.accept(peekFirst());
+      entries[head] = null;
+      head = (head + 1) % entries.length;
+      size--;
+      count++;
+    }
+    if (count > 0) {
+      modifications++;
+    }
+    return count;
+  }
+
+  /**
+   * Iterate from the oldest entry to the newest.
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<>() {
+      private final int expectedModifications = modifications;
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public T next() {
+        if (modifications != expectedModifications) {
+          throw new ConcurrentModificationException();
+        }
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        return get(next++);
+      }
+    };
+  }
+
+  private int slot(int index) {
+    return (head + index) % entries.length;
+  }
+
+  private void grow() {
+    Object[] grown = new Object[entries.length * 2];
+    for (int i = 0; i < size; i++) {
+      grown[i] = entries[slot(i)];
+    }
+    entries = grown;
+    head = 0;
+  }
+}
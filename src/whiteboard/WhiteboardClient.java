@@ -1,8 +1,11 @@
 package whiteboard;
 
 import gss.GSSClient;
+import gss.GameState;
 import gss.GameEventMessage;
+import gss.GameStateDeltaMessage;
 import gss.GameStateMessage;
+import gss.InterestMessage;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Component;
@@ -12,6 +15,7 @@ import java.awt.GridBagLayout;
 import java.awt.Image;
 import java.awt.Label;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -20,10 +24,10 @@ import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import javax.imageio.ImageIO;
-import javax.swing.Timer;
 import network.Address;
 import network.Message;
 import network.Network;
+import network.Scheduler;
 
 public class WhiteboardClient extends GSSClient implements MouseListener, MouseMotionListener {
 
@@ -34,17 +38,38 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
    */
 
   private static final int HEARTBEAT_PERIOD_MS = 250;
+  public static final int BOARD_WIDTH = 360;
+  public static final int BOARD_HEIGHT = 280;
 
   private Frame frame;
   private WhiteboardState state;
+  // Latest state from the GSS, before this client's own unacknowledged events. Its version, which
+  // goes out to the GSS on every message, is state's gss time.
+  private WhiteboardState serverState;
   private Component whiteboard;
   private Point lastDrawPoint;
-  private Timer heartbeatTimer;
+  private Scheduler.Cancellable heartbeatTimer;
   private Image turtleSprite;
   private Point turtleLocation;
+  // Part of the board this client gets updates for, or null for all of it
+  private Rectangle interest;
 
   public WhiteboardClient(Address address, Address gss, Network network) {
+    this(address, gss, network, false);
+  }
+
+  /**
+   * @param headless if true, don't open a window. The client keeps its state on an off-screen
+   *                 board, which lets clients run in processes without a display.
+   */
+  public WhiteboardClient(Address address, Address gss, Network network, boolean headless) {
     super(address, gss, network);
+    serverState = WhiteboardState.blank(BOARD_WIDTH, BOARD_HEIGHT);
+
+    if (headless) {
+      state = WhiteboardState.blank(BOARD_WIDTH, BOARD_HEIGHT);
+      return;
+    }
 
     buildUI();
 
@@ -56,17 +81,35 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
   }
 
   public void startRunning() {
-    heartbeatTimer = new Timer(HEARTBEAT_PERIOD_MS, e -> sendHeartbeat());
-    heartbeatTimer.start();
+    submit(this::join);
+    heartbeatTimer = startTimer(HEARTBEAT_PERIOD_MS, HEARTBEAT_PERIOD_MS, this::sendHeartbeat);
   }
 
-  private void sendHeartbeat() {
+  private synchronized void sendHeartbeat() {
+    if (state.getGssTime() == 0 && !isJoining()) {
+      join(); // the GSS hasn't started sending a state, so the last request may have been lost
+    }
     this.send(new GameEventMessage(null, getAddress(), gss,
         state.getSimTime(), state.getGssTime(), getVectorClock()), gss);
   }
 
+  /**
+   * Only get updates for part of the board, e.g. what's on screen. The rest of it goes stale.
+   *
+   * @param area part of the board to keep up to date, or null for all of it
+   */
+  public void setInterest(Rectangle area) {
+    submit(() -> {
+      synchronized (this) {
+        interest = area == null ? null : new Rectangle(area);
+        send(new InterestMessage(getAddress(), gss, state.getSimTime(), state.getGssTime(),
+            getVectorClock(), interest), gss);
+      }
+    });
+  }
+
   public void stopRunning() {
-    heartbeatTimer.stop();
+    heartbeatTimer.cancel();
   }
 
   private void buildUI() {
@@ -77,7 +120,7 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
     c.fill = GridBagConstraints.BOTH;
     c.gridwidth = GridBagConstraints.REMAINDER;
     Canvas canvas1 = new Canvas();
-    canvas1.setSize(360, 280);
+    canvas1.setSize(BOARD_WIDTH, BOARD_HEIGHT);
     canvas1.setBackground(Color.white);
     gridbag.setConstraints(canvas1, c);
     frame.add(canvas1);
@@ -86,7 +129,7 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
     label1.setAlignment(Label.CENTER);
     gridbag.setConstraints(label1, c);
     frame.add(label1);
-    frame.setSize(360, 350);
+    frame.setSize(BOARD_WIDTH, BOARD_HEIGHT + 70);
     frame.setVisible(true);
     whiteboard = canvas1;
     whiteboard.addMouseListener(this);
@@ -105,6 +148,9 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
 
 
   private void redraw() {
+    if (whiteboard == null) {
+      return; // headless
+    }
     whiteboard.getGraphics().drawImage(state.getBoard(), 0, 0, whiteboard);
     if (turtleLocation != null && turtleSprite != null) {
       whiteboard.getGraphics().drawImage(turtleSprite, turtleLocation.x, turtleLocation.y, null);
@@ -148,9 +194,48 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
       return; // it never makes sense to accept state with a lower gss time to our own
     }
 
-    this.state = (WhiteboardState) state.copy();
+    serverState = state;
+    rebuildState(gsm.getGssTime());
+  }
+
+  public synchronized void handleGameStateDeltaMessage(Message m, Address sender) {
+    if (!this.gss.equals(sender)) {
+      return;
+    }
+    if (!(m instanceof GameStateDeltaMessage delta)) {
+      throw new RuntimeException("Attempted to use handler for wrong kind of message");
+    }
+    if (delta.getBaseGssTime() > this.state.getGssTime()
+        || delta.getGssTime() <= this.state.getGssTime()) {
+      return; // it's missing tiles that changed since the state we have, or it's old
+    }
+
+    serverState = (WhiteboardState) serverState.withDelta(delta.getDelta());
+    rebuildState(delta.getGssTime());
+  }
+
+  @Override
+  protected synchronized void stateTransferred(GameState transferred, int version) {
+    if (!(transferred instanceof WhiteboardState state)) {
+      throw new RuntimeException(
+          "Mismatched state; WhiteboardClient can only handle WhiteboardState");
+    }
+    if (version <= this.state.getGssTime()) {
+      return;
+    }
+
+    serverState = state;
+    rebuildState(version);
+  }
+
+  /**
+   * Show the latest state from the GSS with this client's unacknowledged events on top of it.
+   */
+  private void rebuildState(int version) {
+    this.state = (WhiteboardState) serverState.copy();
+    this.state.setGssTime(version);
 
-    for (Message unacked : unacknowledgedMessages) {
+    for (Message unacked : getUnacknowledgedMessages()) {
       if (unacked instanceof GameEventMessage gem) {
         if (gem.getEvent() instanceof WhiteboardEvent event) {
           this.state.applyEvent(event);
@@ -169,12 +254,12 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
 
   @Override
   public void mouseDragged(MouseEvent e) {
-    drawDeltaFromMouseEvent(e);
+    submit(() -> drawDeltaFromMouseEvent(e));
   }
 
   @Override
   public void mouseReleased(MouseEvent e) {
-    drawDeltaFromMouseEvent(e);
+    submit(() -> drawDeltaFromMouseEvent(e));
   }
 
   public void mouseClicked(MouseEvent e) {
@@ -193,6 +278,9 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
    * Set the position on the screen. Used for demo.
    */
   public void moveWindow(int windowIndex, int r, int c) {
+    if (frame == null) {
+      return; // headless
+    }
     int rOffset = frame.getSize().height + 50;
     int cOffset = frame.getSize().width + 50;
     int wr = windowIndex / c;
@@ -215,7 +303,11 @@ public class WhiteboardClient extends GSSClient implements MouseListener, MouseM
   /*
    * Methods exposed for testing
    */
-  public synchronized void acceptGameEvent(WhiteboardEvent event) {
+  public void acceptGameEvent(WhiteboardEvent event) {
+    submit(() -> applyLocalEvent(event));
+  }
+
+  private synchronized void applyLocalEvent(WhiteboardEvent event) {
     GameEventMessage message = new GameEventMessage(event, this.getAddress(), gss,
         event.getSimTime(),
         state.getGssTime(), getVectorClock());
@@ -0,0 +1,181 @@
+package whiteboard;
+
+import static network.WireCodec.getVarInt;
+import static network.WireCodec.putVarInt;
+
+import gss.GSSCodecs;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import network.PayloadCodec;
+
+public final class WhiteboardCodecs {
+
+  /**
+   * Wire codecs for the whiteboard's events and states. Call register() once per process before
+   * whiteboard messages go over a transport that encodes them.
+   * <p>
+   * Boards are written row by row as run-length encoded pixels, [run length][rgb], which keeps a
+   * mostly-white board down to a few bytes per row. Deltas list their tiles and then run-length
+   * encode the tiles' pixels the same way, all as one run.
+   */
+
+  public static final int WHITEBOARD_EVENT_TYPE = 1;
+  public static final int WHITEBOARD_STATE_TYPE = 1;
+  public static final int WHITEBOARD_DELTA_TYPE = 1;
+
+  private static boolean registered = false;
+
+  private WhiteboardCodecs() {
+  }
+
+  public static synchronized void register() {
+    if (registered) {
+      return;
+    }
+    GSSCodecs.registerEventType(WHITEBOARD_EVENT_TYPE, WhiteboardEvent.class, new EventCodec());
+    GSSCodecs.registerStateType(WHITEBOARD_STATE_TYPE, WhiteboardState.class, new StateCodec());
+    GSSCodecs.registerDeltaType(WHITEBOARD_DELTA_TYPE, WhiteboardDelta.class, new DeltaCodec());
+    registered = true;
+  }
+
+  private static class EventCodec implements PayloadCodec<WhiteboardEvent> {
+
+    @Override
+    public void encode(WhiteboardEvent event, ByteBuffer out) {
+      putVarInt(out, event.getSimTime());
+      putPoint(out, event.getStart());
+      putPoint(out, event.getEnd());
+    }
+
+    @Override
+    public WhiteboardEvent decode(ByteBuffer in) {
+      int simTime = getVarInt(in);
+      Point start = getPoint(in);
+      Point end = getPoint(in);
+      return new WhiteboardEvent(start, end, simTime);
+    }
+
+    private static void putPoint(ByteBuffer out, Point point) {
+      if (point == null) {
+        out.put((byte) 0);
+        return;
+      }
+      out.put((byte) 1);
+      putVarInt(out, point.x);
+      putVarInt(out, point.y);
+    }
+
+    private static Point getPoint(ByteBuffer in) {
+      if (in.get() == 0) {
+        return null;
+      }
+      int x = getVarInt(in);
+      int y = getVarInt(in);
+      return new Point(x, y);
+    }
+  }
+
+  private static class StateCodec implements PayloadCodec<WhiteboardState> {
+
+    @Override
+    public void encode(WhiteboardState state, ByteBuffer out) {
+      synchronized (state) {
+        BufferedImage board = state.getBoard();
+        int width = board.getWidth();
+        int height = board.getHeight();
+        putVarInt(out, state.getSimTime());
+        putVarInt(out, state.getGssTime());
+        putVarInt(out, width);
+        putVarInt(out, height);
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+          board.getRGB(0, y, width, 1, row, 0, width);
+          putRuns(out, row);
+        }
+      }
+    }
+
+    @Override
+    public WhiteboardState decode(ByteBuffer in) {
+      int simTime = getVarInt(in);
+      int gssTime = getVarInt(in);
+      int width = getVarInt(in);
+      int height = getVarInt(in);
+
+      BufferedImage board = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      int[] row = new int[width];
+      for (int y = 0; y < height; y++) {
+        getRuns(in, row);
+        board.setRGB(0, y, width, 1, row, 0, width);
+      }
+
+      WhiteboardState state = new WhiteboardState(board, simTime);
+      state.setGssTime(gssTime);
+      return state;
+    }
+  }
+
+  private static class DeltaCodec implements PayloadCodec<WhiteboardDelta> {
+
+    @Override
+    public void encode(WhiteboardDelta delta, ByteBuffer out) {
+      putVarInt(out, delta.getSimTime());
+      putVarInt(out, delta.getGssTime());
+      putVarInt(out, delta.getWidth());
+      putVarInt(out, delta.getHeight());
+      // Tiles are in increasing order, so each is written as the gap from the one before
+      putVarInt(out, delta.getTiles().length);
+      int previous = 0;
+      for (int tile : delta.getTiles()) {
+        putVarInt(out, tile - previous);
+        previous = tile;
+      }
+      putVarInt(out, delta.getPixels().length);
+      putRuns(out, delta.getPixels());
+    }
+
+    @Override
+    public WhiteboardDelta decode(ByteBuffer in) {
+      int simTime = getVarInt(in);
+      int gssTime = getVarInt(in);
+      int width = getVarInt(in);
+      int height = getVarInt(in);
+      int[] tiles = new int[getVarInt(in)];
+      int previous = 0;
+      for (int i = 0; i < tiles.length; i++) {
+        tiles[i] = previous + getVarInt(in);
+        previous = tiles[i];
+      }
+      int[] pixels = new int[getVarInt(in)];
+      getRuns(in, pixels);
+      return new WhiteboardDelta(simTime, gssTime, tiles, width, height, pixels);
+    }
+  }
+
+  private static void putRuns(ByteBuffer out, int[] pixels) {
+    int x = 0;
+    while (x < pixels.length) {
+      int rgb = pixels[x];
+      int run = 1;
+      while (x + run < pixels.length && pixels[x + run] == rgb) {
+        run++;
+      }
+      putVarInt(out, run);
+      out.putInt(rgb);
+      x += run;
+    }
+  }
+
+  private static void getRuns(ByteBuffer in, int[] pixels) {
+    int x = 0;
+    while (x < pixels.length) {
+      int run = getVarInt(in);
+      int rgb = in.getInt();
+      for (int i = 0; i < run; i++) {
+        pixels[x++] = rgb;
+      }
+    }
+  }
+}
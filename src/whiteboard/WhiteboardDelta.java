@@ -0,0 +1,40 @@
+package whiteboard;
+
+import gss.GameStateDelta;
+
+public class WhiteboardDelta extends GameStateDelta {
+
+  /**
+   * Pixels of some tiles of a board, tile after tile, each tile row by row.
+   */
+
+  private final int width;
+  private final int height;
+  private final int[] pixels;
+
+  public WhiteboardDelta(int simTime, int gssTime, int[] tiles, int width, int height,
+      int[] pixels) {
+    super(simTime, gssTime, tiles);
+    this.width = width;
+    this.height = height;
+    this.pixels = pixels;
+  }
+
+  /**
+   * @return width of the whole board
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return height of the whole board
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  public int[] getPixels() {
+    return pixels;
+  }
+}
@@ -2,24 +2,54 @@ package whiteboard;
 
 import gss.GameEvent;
 import gss.GameState;
+import gss.GameStateDelta;
+import gss.Partitionable;
+import gss.Tiled;
+import gss.UndoRecord;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
-public class WhiteboardState extends GameState {
+public class WhiteboardState extends GameState implements Partitionable, Tiled {
+
+  // Side of the square tiles that state deltas are made of; tiles on the right and bottom edges
+  // may be smaller
+  public static final int TILE_SIZE = 32;
 
   private final BufferedImage board;
+  // Where the top left of board is on the whole whiteboard, for a region from partition
+  private final Point origin;
 
   public WhiteboardState(Image board, int simTime) {
     this((BufferedImage) board, simTime);
   }
 
   public WhiteboardState(BufferedImage board, int simTime) {
+    this(board, simTime, new Point(0, 0));
+  }
+
+  private WhiteboardState(BufferedImage board, int simTime, Point origin) {
     super(simTime, 0);
     this.board = board;
+    this.origin = origin;
+  }
+
+  /**
+   * Create a state with an all-white board, for nodes that don't have a canvas to draw on.
+   */
+  public static WhiteboardState blank(int width, int height) {
+    BufferedImage board = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics graphics = board.getGraphics();
+    graphics.setColor(Color.white);
+    graphics.fillRect(0, 0, width, height);
+    graphics.dispose();
+    return new WhiteboardState(board, 0);
   }
 
   /**
@@ -28,7 +58,7 @@ public class WhiteboardState extends GameState {
    * @param bi image to copy
    * @return deep copy of input image
    */
-  private synchronized static BufferedImage deepCopy(BufferedImage bi) {
+  private static BufferedImage deepCopy(BufferedImage bi) {
     ColorModel cm = bi.getColorModel();
     boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
     WritableRaster raster = bi.copyData(null);
@@ -80,17 +110,321 @@ public class WhiteboardState extends GameState {
     if (delta.getStart() != null || delta.getEnd() != null) {
       Graphics graphics = board.getGraphics();
       graphics.setColor(Color.black);
-      graphics.drawLine(delta.getStart().x, delta.getStart().y, delta.getEnd().x, delta.getEnd().y);
+      graphics.drawLine(delta.getStart().x - origin.x, delta.getStart().y - origin.y,
+          delta.getEnd().x - origin.x, delta.getEnd().y - origin.y);
+    }
+  }
+
+  /**
+   * Draw the event's line and keep the pixels it changed. The pixels around the line are read
+   * before and after drawing, and only the ones that differ are kept, so a record costs about as
+   * much as the line is long rather than a copy of the whole board.
+   */
+  @Override
+  public synchronized UndoRecord applyEventUndoable(GameEvent event) {
+    if (!(event instanceof WhiteboardEvent delta)) {
+      throw new IllegalArgumentException(
+          "WhiteboardState only accepts events of type WhiteboardEvent");
+    }
+    int simTime = getSimTime();
+    int gssTime = getGssTime();
+    if (delta.getStart() == null && delta.getEnd() == null) {
+      applyEvent(event);
+      return new PixelUndoRecord(simTime, gssTime, event, board.getWidth(), new int[0],
+          new int[0]);
+    }
+
+    int[][] spans = lineSpans(local(delta.getStart()), local(delta.getEnd()));
+    int[] before = readSpans(spans);
+    applyEvent(event);
+    int[] after = readSpans(spans);
+
+    int changed = 0;
+    for (int i = 0; i < before.length; i++) {
+      if (before[i] != after[i]) {
+        changed++;
+      }
+    }
+    int[] offsets = new int[changed];
+    int[] colors = new int[changed];
+    int i = 0;
+    int j = 0;
+    for (int[] span : spans) {
+      for (int x = span[1]; x <= span[2]; x++, i++) {
+        if (before[i] != after[i]) {
+          offsets[j] = span[0] * board.getWidth() + x;
+          colors[j++] = before[i];
+        }
+      }
+    }
+    return new PixelUndoRecord(simTime, gssTime, event, board.getWidth(), offsets, colors);
+  }
+
+  /**
+   * Pixels drawLine might touch, as one {y, first x, last x} span per row of the board. Each row
+   * covers where the ideal line crosses it, plus a pixel either side for rounding.
+   */
+  private int[][] lineSpans(Point start, Point end) {
+    int yLow = Math.max(0, Math.min(start.y, end.y));
+    int yHigh = Math.min(board.getHeight() - 1, Math.max(start.y, end.y));
+    int xLow = Math.max(0, Math.min(start.x, end.x));
+    int xHigh = Math.min(board.getWidth() - 1, Math.max(start.x, end.x));
+    if (yLow > yHigh || xLow > xHigh) {
+      return new int[0][];
+    }
+
+    int[][] spans = new int[yHigh - yLow + 1][];
+    int rows = 0;
+    double slope = start.y == end.y ? 0 : (double) (end.x - start.x) / (end.y - start.y);
+    for (int y = yLow; y <= yHigh; y++) {
+      int first = xLow;
+      int last = xHigh;
+      if (start.y != end.y) {
+        double above = start.x + slope * (y - 0.5 - start.y);
+        double below = start.x + slope * (y + 0.5 - start.y);
+        first = Math.max(xLow, (int) Math.floor(Math.min(above, below)) - 1);
+        last = Math.min(xHigh, (int) Math.ceil(Math.max(above, below)) + 1);
+      }
+      // A line running off the side of the board crosses some rows outside it
+      if (first <= last) {
+        spans[rows++] = new int[]{y, first, last};
+      }
+    }
+    return Arrays.copyOf(spans, rows);
+  }
+
+  private Point local(Point point) {
+    return new Point(point.x - origin.x, point.y - origin.y);
+  }
+
+  private int[] readSpans(int[][] spans) {
+    int length = 0;
+    for (int[] span : spans) {
+      length += span[2] - span[1] + 1;
+    }
+    int[] pixels = new int[length];
+    int offset = 0;
+    for (int[] span : spans) {
+      int width = span[2] - span[1] + 1;
+      board.getRGB(span[1], span[0], width, 1, pixels, offset, width);
+      offset += width;
+    }
+    return pixels;
+  }
+
+  /**
+   * Pixels one event overwrote, as indexes into the board in row order, and their old colors.
+   */
+  private static class PixelUndoRecord extends UndoRecord {
+
+    private final int boardWidth;
+    private final int[] offsets;
+    private final int[] colors;
+
+    PixelUndoRecord(int simTime, int gssTime, GameEvent event, int boardWidth, int[] offsets,
+        int[] colors) {
+      super(simTime, gssTime, event);
+      this.boardWidth = boardWidth;
+      this.offsets = offsets;
+      this.colors = colors;
+    }
+
+    @Override
+    protected void revert(GameState state) {
+      BufferedImage board = ((WhiteboardState) state).getBoard();
+      for (int i = 0; i < offsets.length; i++) {
+        board.setRGB(offsets[i] % boardWidth, offsets[i] / boardWidth, colors[i]);
+      }
+    }
+
+    @Override
+    public int sizeBytes() {
+      return 8 * offsets.length;
     }
   }
 
   @Override
   public synchronized GameState copy() {
-    WhiteboardState copy = new WhiteboardState(deepCopy(board), getSimTime());
+    WhiteboardState copy = new WhiteboardState(deepCopy(board), getSimTime(), origin);
     copy.setGssTime(this.getGssTime());
     return copy;
   }
 
+  /**
+   * Split the board into bands of whole rows. A line only changes pixels between its end points'
+   * rows, and drawLine clips to each band without moving any of the pixels it draws, so each
+   * band's part of a line is the same as it would be on the whole board.
+   */
+  @Override
+  public synchronized GameState[] partition(int regions) {
+    if (regions < 1 || regions > board.getHeight()) {
+      throw new IllegalArgumentException(
+          "Can't split a board " + board.getHeight() + " pixels high into " + regions + " bands");
+    }
+    ColorModel cm = board.getColorModel();
+    GameState[] parts = new GameState[regions];
+    for (int i = 0; i < regions; i++) {
+      int top = bandTop(i, regions);
+      WritableRaster band = cm.createCompatibleWritableRaster(board.getWidth(),
+          bandTop(i + 1, regions) - top);
+      band.setRect(0, -top, board.getRaster());
+      parts[i] = new WhiteboardState(
+          new BufferedImage(cm, band, cm.isAlphaPremultiplied(), null), getSimTime(),
+          new Point(origin.x, origin.y + top));
+    }
+    return parts;
+  }
+
+  @Override
+  public int[] regionsOf(GameEvent event, int regions) {
+    if (!(event instanceof WhiteboardEvent delta) || delta.getStart() == null
+        || delta.getEnd() == null) {
+      return new int[]{0};
+    }
+    int first = band(Math.min(delta.getStart().y, delta.getEnd().y) - origin.y, regions);
+    int last = band(Math.max(delta.getStart().y, delta.getEnd().y) - origin.y, regions);
+    int[] touched = new int[last - first + 1];
+    for (int i = 0; i < touched.length; i++) {
+      touched[i] = first + i;
+    }
+    return touched;
+  }
+
+  @Override
+  public synchronized GameState join(GameState[] parts) {
+    ColorModel cm = board.getColorModel();
+    WritableRaster raster = cm.createCompatibleWritableRaster(board.getWidth(),
+        board.getHeight());
+    int simTime = 0;
+    for (GameState part : parts) {
+      WhiteboardState band = (WhiteboardState) part;
+      synchronized (band) {
+        raster.setRect(band.origin.x - origin.x, band.origin.y - origin.y,
+            band.board.getRaster());
+        simTime = Math.max(simTime, band.getSimTime());
+      }
+    }
+    return new WhiteboardState(new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null),
+        simTime, origin);
+  }
+
+  /**
+   * @return first row of a band, so that the bands' heights differ by at most one
+   */
+  private int bandTop(int band, int regions) {
+    return (int) ((long) band * board.getHeight() / regions);
+  }
+
+  /**
+   * @return band a row falls in, the last one whose bandTop is at or above it
+   */
+  private int band(int y, int regions) {
+    if (y <= 0) {
+      return 0;
+    }
+    if (y >= board.getHeight()) {
+      return regions - 1;
+    }
+    return (int) ((((long) y + 1) * regions - 1) / board.getHeight());
+  }
+
+  @Override
+  public int getTileCount() {
+    return tilesAcross(board.getWidth()) * tilesAcross(board.getHeight());
+  }
+
+  @Override
+  public int[] tilesIn(Rectangle area) {
+    Rectangle clipped = area.intersection(new Rectangle(board.getWidth(), board.getHeight()));
+    if (clipped.isEmpty()) {
+      return new int[0];
+    }
+    int across = tilesAcross(board.getWidth());
+    int left = clipped.x / TILE_SIZE;
+    int right = (clipped.x + clipped.width - 1) / TILE_SIZE;
+    int top = clipped.y / TILE_SIZE;
+    int bottom = (clipped.y + clipped.height - 1) / TILE_SIZE;
+    int[] tiles = new int[(right - left + 1) * (bottom - top + 1)];
+    int i = 0;
+    for (int row = top; row <= bottom; row++) {
+      for (int column = left; column <= right; column++) {
+        tiles[i++] = row * across + column;
+      }
+    }
+    return tiles;
+  }
+
+  @Override
+  public synchronized boolean tileChanged(int tile, GameState earlier) {
+    if (!(earlier instanceof WhiteboardState other)
+        || other.board.getWidth() != board.getWidth()
+        || other.board.getHeight() != board.getHeight()) {
+      return true;
+    }
+    Rectangle bounds = tileBounds(tile, board.getWidth(), board.getHeight());
+    int[] pixels = readTile(bounds, new int[bounds.width * bounds.height], 0);
+    synchronized (other) {
+      return !Arrays.equals(pixels,
+          other.readTile(bounds, new int[bounds.width * bounds.height], 0));
+    }
+  }
+
+  @Override
+  public synchronized GameStateDelta deltaOf(int[] tiles) {
+    int length = 0;
+    for (int tile : tiles) {
+      Rectangle bounds = tileBounds(tile, board.getWidth(), board.getHeight());
+      length += bounds.width * bounds.height;
+    }
+    int[] pixels = new int[length];
+    int offset = 0;
+    for (int tile : tiles) {
+      Rectangle bounds = tileBounds(tile, board.getWidth(), board.getHeight());
+      readTile(bounds, pixels, offset);
+      offset += bounds.width * bounds.height;
+    }
+    return new WhiteboardDelta(getSimTime(), getGssTime(), tiles, board.getWidth(),
+        board.getHeight(), pixels);
+  }
+
+  @Override
+  public synchronized GameState withDelta(GameStateDelta delta) {
+    if (!(delta instanceof WhiteboardDelta tiles) || tiles.getWidth() != board.getWidth()
+        || tiles.getHeight() != board.getHeight()) {
+      throw new IllegalArgumentException("Delta doesn't fit a " + board.getWidth() + "x"
+          + board.getHeight() + " board");
+    }
+    BufferedImage patched = deepCopy(board);
+    int offset = 0;
+    for (int tile : tiles.getTiles()) {
+      Rectangle bounds = tileBounds(tile, board.getWidth(), board.getHeight());
+      patched.setRGB(bounds.x, bounds.y, bounds.width, bounds.height, tiles.getPixels(), offset,
+          bounds.width);
+      offset += bounds.width * bounds.height;
+    }
+    WhiteboardState state = new WhiteboardState(patched, delta.getSimTime(), origin);
+    state.setGssTime(delta.getGssTime());
+    return state;
+  }
+
+  private int[] readTile(Rectangle bounds, int[] pixels, int offset) {
+    return board.getRGB(bounds.x, bounds.y, bounds.width, bounds.height, pixels, offset,
+        bounds.width);
+  }
+
+  private static int tilesAcross(int pixels) {
+    return (pixels + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  /**
+   * @return pixels a tile covers on a board of the given size. Tiles are numbered row by row.
+   */
+  private static Rectangle tileBounds(int tile, int width, int height) {
+    int x = tile % tilesAcross(width) * TILE_SIZE;
+    int y = tile / tilesAcross(width) * TILE_SIZE;
+    return new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+  }
+
   @Override
   public synchronized boolean equals(Object other) {
     if (!(other instanceof WhiteboardState ows)) {
@@ -0,0 +1,180 @@
+package gss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import whiteboard.WhiteboardCodecs;
+import whiteboard.WhiteboardEvent;
+
+public class TestEventJournal {
+
+  @TempDir
+  Path directory;
+
+  @BeforeAll
+  public static void registerCodecs() {
+    WhiteboardCodecs.register();
+  }
+
+  @Test
+  public void testReplayAcrossSegments() throws IOException {
+    List<GameEvent> events = randomEvents(new Random(0), 5000);
+    try (EventJournal journal = new EventJournal(directory, JournalSync.EVERY_BATCH, 4096)) {
+      for (int i = 0; i < events.size(); i++) {
+        journal.append(events.get(i));
+        if (i % 700 == 0) {
+          journal.flush();
+        }
+      }
+    }
+
+    assertTrue(segmentFiles().size() > 10, "Segments: " + segmentFiles().size());
+    assertSameEvents(events, replay());
+  }
+
+  @Test
+  public void testReplayStopsAtTornFrame() throws IOException {
+    List<GameEvent> events = randomEvents(new Random(1), 100);
+    try (EventJournal journal = new EventJournal(directory, JournalSync.NONE)) {
+      for (GameEvent event : events.subList(0, 60)) {
+        journal.append(event);
+      }
+      journal.flush();
+      for (GameEvent event : events.subList(60, 100)) {
+        journal.append(event);
+      }
+    }
+
+    // Flip a byte in the last event, as if the host crashed while its frame was written back
+    Path segment = segmentFiles().get(0);
+    List<GameEvent> written = replay();
+    assertSameEvents(events, written);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer end = ByteBuffer.allocate(1);
+      long position = lastEventEnd(channel) - 1;
+      channel.read(end, position);
+      end.put(0, (byte) ~end.get(0));
+      channel.write(end.flip(), position);
+    }
+    List<GameEvent> recovered = replay();
+    assertTrue(recovered.size() >= 60 && recovered.size() < 100, "Read " + recovered.size());
+    assertSameEvents(events.subList(0, recovered.size()), recovered);
+
+    // A journal opened again goes on in a new segment after the torn one
+    List<GameEvent> more = randomEvents(new Random(2), 10);
+    try (EventJournal journal = new EventJournal(directory, JournalSync.PERIODIC)) {
+      more.forEach(journal::append);
+    }
+    assertEquals(2, segmentFiles().size());
+    List<GameEvent> expected = new ArrayList<>(recovered);
+    expected.addAll(more);
+    assertSameEvents(expected, replay());
+  }
+
+  @Test
+  public void testClosedJournalRejectsEvents() {
+    EventJournal journal = new EventJournal(directory, JournalSync.PERIODIC);
+    journal.close();
+    assertThrows(RuntimeException.class,
+        () -> journal.append(new WhiteboardEvent(new Point(0, 0), new Point(1, 1), 1)));
+  }
+
+  /**
+   * Append events from one thread as fast as it can and report how many a second the journal
+   * writes, with each sync policy.
+   */
+  @Test
+  public void benchmarkAppend() throws IOException {
+    final int N = 2_000_000;
+    List<GameEvent> events = randomEvents(new Random(3), N);
+    for (JournalSync sync : JournalSync.values()) {
+      for (int run = 0; run < 2; run++) {
+        Path runDirectory = directory.resolve(sync + "-" + run);
+        long start = System.nanoTime();
+        long appendNanos;
+        try (EventJournal journal = new EventJournal(runDirectory, sync)) {
+          for (GameEvent event : events) {
+            journal.append(event);
+          }
+          appendNanos = System.nanoTime() - start;
+          journal.flush();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%s: %.2fM events/s written, %d ns per append\n", sync,
+            N * 1e3 / nanos, appendNanos / N);
+        assertEquals(N, EventJournal.replay(runDirectory, (e) -> {
+        }));
+      }
+    }
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().toList();
+    }
+  }
+
+  private List<GameEvent> replay() {
+    List<GameEvent> events = new ArrayList<>();
+    EventJournal.replay(directory, events::add);
+    return events;
+  }
+
+  /**
+   * @return position just after the last frame in a segment
+   */
+  private static long lastEventEnd(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(4);
+    long position = 8;
+    long end = position;
+    while (true) {
+      header.clear();
+      channel.read(header, position);
+      int length = header.getInt(0);
+      if (length == 0) {
+        return end;
+      }
+      position += 8 + length;
+      end = position;
+    }
+  }
+
+  private static List<GameEvent> randomEvents(Random random, int count) {
+    List<GameEvent> events = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      GameEvent event = new WhiteboardEvent(
+          new Point(random.nextInt(640), random.nextInt(480)),
+          new Point(random.nextInt(640), random.nextInt(480)), i / 4);
+      event.setKey(random.nextInt(8), i);
+      events.add(event);
+    }
+    return events;
+  }
+
+  private static void assertSameEvents(List<GameEvent> expected, List<GameEvent> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      WhiteboardEvent e = (WhiteboardEvent) expected.get(i);
+      WhiteboardEvent a = (WhiteboardEvent) actual.get(i);
+      assertEquals(0, e.compareTo(a), "Event " + i);
+      assertEquals(e.getStart(), a.getStart(), "Event " + i);
+      assertEquals(e.getEnd(), a.getEnd(), "Event " + i);
+    }
+  }
+}
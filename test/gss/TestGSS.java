@@ -1,39 +1,91 @@
 package gss;
 
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.Point;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import network.Address;
+import network.BufferPool;
+import network.ExecutionMode;
+import network.GvtMode;
 import network.Network;
+import network.NioTransport;
+import network.Transport;
+import network.WireCodec;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import util.TestingNetwork;
 import whiteboard.WhiteboardClient;
+import whiteboard.WhiteboardCodecs;
 import whiteboard.WhiteboardEvent;
 import whiteboard.WhiteboardState;
 
 public class TestGSS {
 
+  private static final int WIDTH = WhiteboardClient.BOARD_WIDTH;
+  private static final int HEIGHT = WhiteboardClient.BOARD_HEIGHT;
+
   private TestingNetwork network;
   private Map<Integer, GSS> servers;
   private Map<Integer, WhiteboardClient> clients;
   private int nServers;
   private int nClients;
+  private GvtMode gvtMode;
+  private StateSaving stateSaving;
   private Random random;
 
   @BeforeEach
   public void setup() {
     random = new Random();
+    gvtMode = GvtMode.VECTOR_CLOCK;
+    stateSaving = StateSaving.INCREMENTAL;
   }
 
   public void setupNetwork(float txSuccessRate, int nServers, int nClients, int[] connections) {
-    // Set up the TestingNetwork and GSSs
-    network = new TestingNetwork(txSuccessRate);
+    setupNetwork(new TestingNetwork(txSuccessRate), nServers, nClients, connections);
+  }
+
+  /**
+   * Same as above, but all messages go out and back in through a loopback NIO socket.
+   */
+  public void setupLoopbackNetwork(float txSuccessRate, int nServers, int nClients,
+      int[] connections) {
+    Transport transport = new NioTransport(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Map.of());
+    setupNetwork(new TestingNetwork(txSuccessRate, transport), nServers, nClients, connections);
+  }
+
+  /**
+   * Same as above, but every node runs its handlers and timers from its own mailbox.
+   */
+  public void setupMailboxNetwork(float txSuccessRate, int nServers, int nClients,
+      int[] connections) {
+    TestingNetwork network = new TestingNetwork(txSuccessRate);
+    network.setExecutionMode(ExecutionMode.MAILBOXES);
+    setupNetwork(network, nServers, nClients, connections);
+  }
+
+  private void setupNetwork(TestingNetwork network, int nServers, int nClients,
+      int[] connections) {
+    // Set up the TestingNetwork and GSSs. Clients get the board encoded when they join.
+    WhiteboardCodecs.register();
+    this.network = network;
     servers = new HashMap<>();
     clients = new HashMap<>();
     this.nServers = nServers;
@@ -49,15 +101,16 @@ public class TestGSS {
       clientAddresses[c] = new Address(nServers + c);
     }
     GSSConfiguration.SetConfiguration(nServers, nClients, serverAddresses, clientAddresses,
-        connections);
+        connections, gvtMode);
 
     for (int s = 0; s < nServers; s++) {
       GSS server = new GSS(serverAddresses[s], network);
+      server.setStateSaving(stateSaving);
       servers.put(s, server);
     }
     for (int c = 0; c < nClients; c++) {
       WhiteboardClient client = new WhiteboardClient(clientAddresses[c],
-          gss(connections[c]).getAddress(), network);
+          gss(connections[c]).getAddress(), network, GraphicsEnvironment.isHeadless());
       gss(connections[c]).addClient(client);
       gss(connections[c]).setState(client.getState().copy());
       clients.put(c, client);
@@ -73,6 +126,46 @@ public class TestGSS {
     for (int s = 0; s < nServers; s++) {
       gss(s).stopRunning();
     }
+    if (network != null) {
+      network.shutdown();
+    }
+  }
+
+  /**
+   * The same two events at the same sim time, as one server gets them from its client and as the
+   * other gets them forwarded over the wire, should be in the same order on both.
+   */
+  @Test
+  public void testEventOrderSameOnEveryServer() {
+    WhiteboardCodecs.register();
+    int[] vectorClock = {0, 0, 0, 0, 0, 0};
+    GameEvent first = new WhiteboardEvent(new Point(1, 1), new Point(2, 2), 10);
+    GameEvent second = new WhiteboardEvent(new Point(3, 3), new Point(4, 4), 10);
+    first.setKey(2, 7);
+    second.setKey(4, 0);
+
+    GameEventMessage[] onFirst = {
+        new GameEventMessage(first, new Address(2), new Address(0), 10, 3, vectorClock),
+        new GameEventMessage(second, new Address(1), new Address(0), 10, 5, vectorClock)};
+    GameEventMessage[] onSecond = {
+        forwarded(new GameEventMessage(first, new Address(0), new Address(1), 10, 8,
+            vectorClock)),
+        forwarded(new GameEventMessage(second, new Address(4), new Address(1), 10, 1,
+            vectorClock))};
+
+    assertEquals(2, onSecond[0].getEvent().getOrigin());
+    assertEquals(7, onSecond[0].getEvent().getSequence());
+    assertTrue(onFirst[0].compareTo(onFirst[1]) < 0);
+    assertTrue(onSecond[0].compareTo(onSecond[1]) < 0);
+    assertEquals(0, onFirst[1].compareTo(onSecond[1]));
+  }
+
+  private static GameEventMessage forwarded(GameEventMessage message) {
+    ByteBuffer buffer = WireCodec.encodePooled(message, 0);
+    buffer.flip();
+    GameEventMessage decoded = (GameEventMessage) WireCodec.decode(buffer);
+    BufferPool.release(buffer);
+    return decoded;
   }
 
   @Test
@@ -157,6 +250,259 @@ public class TestGSS {
     randomEventsTwoServers(T);
   }
 
+  @Test
+  public synchronized void testOneServerLoopback() {
+    final int T = 5;
+
+    setupLoopbackNetwork(Network.RELIABLE_TX, 1, 4, new int[]{0, 0, 0, 0});
+
+    randomEventsOneServer(T);
+  }
+
+  @Test
+  public synchronized void testTwoServersLoopbackUnreliable() {
+    final int T = 5;
+
+    setupLoopbackNetwork(Network.UNRELIABLE_TX, 2, 4, new int[]{0, 0, 1, 1});
+
+    randomEventsTwoServers(T);
+  }
+
+  @Test
+  public synchronized void testTwoServersMatternUnreliable() {
+    final int T = 5;
+
+    gvtMode = GvtMode.MATTERN;
+    setupNetwork(Network.UNRELIABLE_TX, 2, 4, new int[]{0, 0, 1, 1});
+
+    randomEventsTwoServers(T);
+
+    // The token has to get around the ring at least once before anyone knows GVT
+    await().atMost(Duration.ofSeconds(10)).until(() -> gss(0).getGlobalSimTime() > 0);
+  }
+
+  @Test
+  public synchronized void testTwoServersMailboxesUnreliable() {
+    final int T = 5;
+
+    setupMailboxNetwork(Network.UNRELIABLE_TX, 2, 4, new int[]{0, 0, 1, 1});
+
+    randomEventsTwoServers(T);
+  }
+
+  @Test
+  public synchronized void testTwoServersCopyStateUnreliable() {
+    final int T = 5;
+
+    stateSaving = StateSaving.COPY;
+    setupNetwork(Network.UNRELIABLE_TX, 2, 4, new int[]{0, 0, 1, 1});
+
+    randomEventsTwoServers(T);
+  }
+
+  @Test
+  public void testUndoRestoresState() {
+    final int T = 200;
+
+    random = new Random(0);
+    WhiteboardState state = WhiteboardState.blank(WIDTH, HEIGHT);
+    Deque<GameState> copies = new ArrayDeque<>();
+    Deque<UndoRecord> undos = new ArrayDeque<>();
+    for (int i = 1; i <= T; i++) {
+      copies.push(state.copy());
+      WhiteboardEvent event = new WhiteboardEvent(randomPoint(WIDTH, HEIGHT),
+          randomPoint(WIDTH, HEIGHT), i);
+      undos.push(state.applyEventUndoable(event));
+      state.setGssTime(i);
+    }
+
+    while (!undos.isEmpty()) {
+      undos.pop().undo(state);
+      GameState expected = copies.pop();
+      assertEquals(expected, state);
+      assertEquals(expected.getGssTime(), state.getGssTime());
+    }
+  }
+
+  @Test
+  public void testRegionsMatchWholeBoard() {
+    final int T = 500;
+    final int REGIONS = 7;
+
+    random = new Random(0);
+    WhiteboardState whole = WhiteboardState.blank(WIDTH, HEIGHT);
+    GameState[] parts = whole.partition(REGIONS);
+    GameState[] blankParts = whole.partition(REGIONS);
+    List<Deque<UndoRecord>> undos = new ArrayList<>();
+    for (int region = 0; region < REGIONS; region++) {
+      undos.add(new ArrayDeque<>());
+    }
+    for (int i = 1; i <= T; i++) {
+      // Some strokes go off the edges of the board
+      Point start = new Point(random.nextInt(-20, WIDTH + 20), random.nextInt(-20, HEIGHT + 20));
+      Point end = random.nextBoolean() ? randomPoint(WIDTH, HEIGHT)
+          : new Point(start.x + random.nextInt(-30, 30), start.y + random.nextInt(-30, 30));
+      WhiteboardEvent event = new WhiteboardEvent(start, end, i);
+      whole.applyEvent(event);
+      for (int region : whole.regionsOf(event, REGIONS)) {
+        undos.get(region).push(parts[region].applyEventUndoable(event));
+      }
+    }
+    assertEquals(whole, whole.join(parts));
+
+    // Each region's undo records only reach its own pixels
+    for (int region = 0; region < REGIONS; region++) {
+      while (!undos.get(region).isEmpty()) {
+        undos.get(region).pop().undo(parts[region]);
+      }
+    }
+    assertEquals(whole.join(blankParts), whole.join(parts));
+  }
+
+  @Test
+  public void testCheckpointIntervalAdapts() {
+    CheckpointInterval interval = new CheckpointInterval();
+    assertEquals(1, interval.get());
+
+    // No rollbacks: checkpoint as rarely as allowed
+    for (int i = 0; i < 1000; i++) {
+      interval.executed(1000);
+    }
+    interval.checkpointed(50000);
+    interval.update();
+    assertEquals(CheckpointInterval.MAX_INTERVAL, interval.get());
+
+    // A rollback every 100 events, copies 50x as expensive as events: sqrt(2 * 50 * 100) = 100
+    // is past the maximum, but one every 4 events gives sqrt(2 * 50 * 4) = 20
+    for (int i = 0; i < 4000; i++) {
+      interval.executed(1000);
+      if (i % 4 == 0) {
+        interval.rolledBack();
+      }
+    }
+    interval.update();
+    assertTrue(interval.get() > 1 && interval.get() < CheckpointInterval.MAX_INTERVAL,
+        "Interval was " + interval.get());
+  }
+
+  /**
+   * Execute short strokes through a LogicalProcess with each kind of state saving, with GVT LAG
+   * events behind, and report the time per event and the memory held for rollback per event
+   * that isn't committed yet: undo records plus a whole board for each saved copy.
+   */
+  @Test
+  public void benchmarkStateSaving() {
+    final int T = 5000;
+    final int LAG = 1000;
+    final long copyBytes = 4L * WIDTH * HEIGHT;
+
+    for (int run = 0; run < 2; run++) {
+      long[] bytesPerEvent = new long[StateSaving.values().length];
+      for (StateSaving stateSaving : StateSaving.values()) {
+        random = new Random(0);
+        LogicalProcess process = new LogicalProcess(WhiteboardState.blank(WIDTH, HEIGHT),
+            stateSaving, new LogicalProcess.Listener() {
+            });
+        Point pen = randomPoint(WIDTH, HEIGHT);
+        long start = System.nanoTime();
+        for (int i = 1; i <= T; i++) {
+          Point next = new Point(Math.floorMod(pen.x + random.nextInt(-15, 16), WIDTH),
+              Math.floorMod(pen.y + random.nextInt(-15, 16), HEIGHT));
+          process.add(new GameEventMessage(new WhiteboardEvent(pen, next, i), new Address(0),
+              new Address(0), i, 0, null));
+          pen = random.nextInt(20) == 0 ? randomPoint(WIDTH, HEIGHT) : next;
+          process.execute(Long.MAX_VALUE);
+          if (i % 100 == 0) {
+            process.collectFossils(i - LAG);
+          }
+        }
+        long nanos = System.nanoTime() - start;
+
+        long bytes = process.getUndoLogBytes() + process.getSaveStateCount() * copyBytes;
+        int held = process.getExecutedQueueSize();
+        bytesPerEvent[stateSaving.ordinal()] = bytes / held;
+        System.out.printf("%s: %d ns per event, %d bytes per uncommitted event, %d of them in "
+                + "undo records, %d copies\n", stateSaving, nanos / T, bytes / held,
+            process.getUndoLogBytes() / held, process.getSaveStateCount());
+      }
+      assertTrue(bytesPerEvent[StateSaving.INCREMENTAL.ordinal()]
+          < bytesPerEvent[StateSaving.COPY.ordinal()] / 10);
+    }
+  }
+
+  /**
+   * Run short strokes on a busy board through one LogicalProcess per region, a frame at a time
+   * with some strokes arriving a frame late, and report the throughput for each region count.
+   */
+  @Test
+  public void benchmarkRegions() {
+    final int T = 20000;
+    final int FRAME = 200;
+
+    random = new Random(0);
+    List<WhiteboardEvent> events = new ArrayList<>();
+    Point pen = randomPoint(WIDTH, HEIGHT);
+    for (int i = 1; i <= T; i++) {
+      Point next = new Point(Math.floorMod(pen.x + random.nextInt(-15, 16), WIDTH),
+          Math.floorMod(pen.y + random.nextInt(-15, 16), HEIGHT));
+      events.add(new WhiteboardEvent(pen, next, i));
+      pen = random.nextInt(20) == 0 ? randomPoint(WIDTH, HEIGHT) : next;
+    }
+
+    GameState reference = null;
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int regions : new int[]{1, 2, 4, 8, 1, 2, 4, 8}) {
+      WhiteboardState whole = WhiteboardState.blank(WIDTH, HEIGHT);
+      LogicalProcess[] processes = new LogicalProcess[regions];
+      GameState[] parts = whole.partition(regions);
+      for (int r = 0; r < regions; r++) {
+        processes[r] = new LogicalProcess(parts[r], StateSaving.INCREMENTAL,
+            new LogicalProcess.Listener() {
+            });
+      }
+
+      random = new Random(1);
+      List<GameEventMessage> late = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int frame = 0; frame < T; frame += FRAME) {
+        List<GameEventMessage> arriving = new ArrayList<>(late);
+        late.clear();
+        for (WhiteboardEvent event : events.subList(frame, frame + FRAME)) {
+          GameEventMessage message = new GameEventMessage(event, new Address(0), new Address(1),
+              event.getSimTime(), 0, new int[]{event.getSimTime()});
+          (random.nextInt(10) == 0 ? late : arriving).add(message);
+        }
+        if (frame + FRAME >= T) {
+          arriving.addAll(late);
+        }
+        for (GameEventMessage message : arriving) {
+          for (int region : whole.regionsOf(message.getEvent(), regions)) {
+            processes[region].add(message.copyForRegion());
+          }
+        }
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        for (LogicalProcess process : processes) {
+          tasks.add(ForkJoinPool.commonPool().submit(() -> process.execute(Long.MAX_VALUE)));
+        }
+        tasks.forEach(ForkJoinTask::join);
+      }
+      long nanos = System.nanoTime() - start;
+
+      long rolledBack = 0;
+      for (int r = 0; r < regions; r++) {
+        parts[r] = processes[r].getState();
+        rolledBack += processes[r].getRolledBackEventCount();
+      }
+      GameState joined = whole.join(parts);
+      if (reference == null) {
+        reference = joined;
+      }
+      assertEquals(reference, joined);
+      System.out.printf("%d regions on %d cores: %d events/s, %d region events rolled back\n",
+          regions, cores, T * 1_000_000_000L / nanos, rolledBack);
+    }
+  }
+
   private void randomEventsOneServer(int T) {
     sendRandomEvents(T, 0);
     awaitStateConvergence(5);
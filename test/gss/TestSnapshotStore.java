@@ -0,0 +1,143 @@
+package gss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import whiteboard.WhiteboardClient;
+import whiteboard.WhiteboardCodecs;
+import whiteboard.WhiteboardEvent;
+import whiteboard.WhiteboardState;
+
+public class TestSnapshotStore {
+
+  private static final int WIDTH = WhiteboardClient.BOARD_WIDTH;
+  private static final int HEIGHT = WhiteboardClient.BOARD_HEIGHT;
+
+  @TempDir
+  Path directory;
+
+  @BeforeAll
+  public static void registerCodecs() {
+    WhiteboardCodecs.register();
+  }
+
+  @Test
+  public void testDeltasBetweenFullSnapshots() throws IOException {
+    List<GameEvent> events = strokes(new Random(0), 3000);
+    WhiteboardState state = WhiteboardState.blank(WIDTH, HEIGHT);
+    long fullBytes = 0;
+    long deltaBytes = 0;
+    for (int i = 0; i < 2 * SnapshotStore.FULL_SNAPSHOT_PERIOD + 3; i++) {
+      for (GameEvent event : events.subList(100 * i, 100 * (i + 1))) {
+        state.applyEvent(event);
+      }
+      // Restart every time, so each snapshot after the first builds on one that was loaded
+      SnapshotStore store = new SnapshotStore(directory);
+      SnapshotStore.Snapshot loaded = store.load();
+      assertEquals(i == 0, loaded == null);
+      store.save(new SnapshotStore.Snapshot(state.copy(), events.get(100 * (i + 1) - 1)));
+      store.close();
+      if (i % SnapshotStore.FULL_SNAPSHOT_PERIOD == 0) {
+        fullBytes += store.getBytesWritten();
+      } else {
+        deltaBytes += store.getBytesWritten();
+      }
+
+      SnapshotStore.Snapshot latest = new SnapshotStore(directory).load();
+      assertEquals(state, latest.state());
+      assertEquals(state.getSimTime(), latest.state().getSimTime());
+      assertEquals(0, events.get(100 * (i + 1) - 1).compareTo(latest.through()));
+      assertTrue(snapshotFiles() <= SnapshotStore.FULL_SNAPSHOT_PERIOD);
+    }
+    int fulls = 3;
+    int deltas = 2 * SnapshotStore.FULL_SNAPSHOT_PERIOD + 3 - fulls;
+    System.out.printf("Full snapshots %d bytes, deltas %d bytes\n", fullBytes / fulls,
+        deltaBytes / deltas);
+    assertTrue(deltaBytes / deltas < fullBytes / fulls);
+  }
+
+  @Test
+  public void testNoSnapshot() {
+    assertNull(new SnapshotStore(directory).load());
+  }
+
+  /**
+   * Recover a board from a snapshot taken shortly before the end of a journal, for ever longer
+   * journals, and report how long that takes next to replaying the whole journal.
+   */
+  @Test
+  public void benchmarkRestart() {
+    final int TAIL = 2000;
+    for (int history : new int[]{25_000, 100_000, 400_000}) {
+      Path run = directory.resolve(Integer.toString(history));
+      List<GameEvent> events = strokes(new Random(history), history);
+      WhiteboardState state = WhiteboardState.blank(WIDTH, HEIGHT);
+      try (EventJournal journal = new EventJournal(run.resolve("events"), JournalSync.NONE,
+          4L << 20)) {
+        for (int i = 0; i < history; i++) {
+          journal.append(events.get(i));
+          state.applyEvent(events.get(i));
+          if (i == history - TAIL - 1) {
+            try (SnapshotStore store = new SnapshotStore(run.resolve("snapshots"))) {
+              store.save(new SnapshotStore.Snapshot(state.copy(), events.get(i)));
+            }
+          }
+        }
+      }
+
+      long start = System.nanoTime();
+      SnapshotStore.Snapshot snapshot = new SnapshotStore(run.resolve("snapshots")).load();
+      GameState recovered = snapshot.state();
+      long replayed = EventJournal.replay(run.resolve("events"), snapshot.through(),
+          recovered::applyEvent);
+      long restartNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      GameState full = WhiteboardState.blank(WIDTH, HEIGHT);
+      EventJournal.replay(run.resolve("events"), full::applyEvent);
+      long fullReplayNanos = System.nanoTime() - start;
+
+      System.out.printf("%d events: restart %d ms replaying %d, full replay %d ms\n", history,
+          restartNanos / 1_000_000, replayed, fullReplayNanos / 1_000_000);
+      assertEquals(TAIL, replayed);
+      assertEquals(state, recovered);
+      assertEquals(full, recovered);
+    }
+  }
+
+  private long snapshotFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  /**
+   * Short strokes of a pen that wanders the board and sometimes jumps, a few to each sim time.
+   */
+  private static List<GameEvent> strokes(Random random, int count) {
+    List<GameEvent> events = new ArrayList<>(count);
+    Point pen = new Point(WIDTH / 2, HEIGHT / 2);
+    for (int i = 0; i < count; i++) {
+      Point next = new Point(Math.floorMod(pen.x + random.nextInt(-15, 16), WIDTH),
+          Math.floorMod(pen.y + random.nextInt(-15, 16), HEIGHT));
+      GameEvent event = new WhiteboardEvent(pen, next, i / 4 + 1);
+      event.setKey(i % 4, i / 4);
+      events.add(event);
+      pen = random.nextInt(20) == 0 ? new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT))
+          : next;
+    }
+    return events;
+  }
+}
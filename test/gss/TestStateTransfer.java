@@ -0,0 +1,112 @@
+package gss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import network.Address;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import whiteboard.WhiteboardClient;
+import whiteboard.WhiteboardCodecs;
+import whiteboard.WhiteboardEvent;
+import whiteboard.WhiteboardState;
+
+public class TestStateTransfer {
+
+  private static final Address SENDER = new Address(0);
+  private static final Address RECEIVER = new Address(1);
+
+  @BeforeAll
+  public static void registerCodecs() {
+    WhiteboardCodecs.register();
+  }
+
+  @Test
+  public void testTransferOverLossyLink() {
+    WhiteboardState state = busyBoard(new Random(0), 3000);
+    GameEvent through = new WhiteboardEvent(new Point(0, 0), new Point(1, 1), 7);
+    through.setKey(2, 41);
+    ByteBuffer data = SnapshotStore.toBytes(new SnapshotStore.Snapshot(state, through), 0);
+    StateTransfer.Outgoing outgoing = new StateTransfer.Outgoing(1, data, 256,
+        state.getSimTime(), 9, 0);
+    assertTrue(outgoing.getCount() > 2 * StateTransfer.WINDOW, "Chunks: " + outgoing.getCount());
+
+    // A third of the chunks and of the acks are lost, and whatever's sent arrives a tick later
+    Random random = new Random(1);
+    Deque<StateChunkMessage> inFlight = new ArrayDeque<>();
+    StateTransfer.Incoming incoming = null;
+    int sent = 0;
+    long now = 0;
+    boolean done = false;
+    while (!done) {
+      now += 10;
+      assertTrue(now < 60_000, "Transfer should finish");
+      while (!inFlight.isEmpty()) {
+        incoming = StateTransfer.Incoming.receive(incoming, inFlight.poll());
+        if (random.nextInt(3) > 0) {
+          done = outgoing.acked(incoming.getReceived(), now);
+        }
+      }
+      int unacknowledged = 0;
+      int index = outgoing.nextChunk(now);
+      while (index >= 0) {
+        sent++;
+        assertTrue(++unacknowledged <= StateTransfer.WINDOW);
+        if (random.nextInt(3) > 0) {
+          inFlight.add(new StateChunkMessage(SENDER, RECEIVER, state.getSimTime(), 9, null,
+              outgoing.getId(), index, outgoing.getCount(), outgoing.chunk(index)));
+        }
+        index = outgoing.nextChunk(now);
+      }
+    }
+
+    System.out.printf("%d bytes in %d chunks, %d sent, %d ms\n", data.limit(),
+        outgoing.getCount(), sent, now);
+    assertTrue(incoming.isComplete());
+    SnapshotStore.Snapshot received = incoming.snapshot("test");
+    assertEquals(state, received.state());
+    assertEquals(0, through.compareTo(received.through()));
+  }
+
+  @Test
+  public void testLaterTransferReplacesEarlier() {
+    byte[] bytes = {1, 2, 3};
+    StateTransfer.Incoming first = StateTransfer.Incoming.receive(null,
+        new StateChunkMessage(SENDER, RECEIVER, 0, 1, null, 1, 0, 2, bytes));
+    StateTransfer.Incoming second = StateTransfer.Incoming.receive(first,
+        new StateChunkMessage(SENDER, RECEIVER, 0, 2, null, 2, 1, 3, bytes));
+    assertEquals(2, second.getId());
+    assertEquals(0, second.getReceived());
+
+    // Chunks of the earlier one are turned away, and a repeat changes nothing
+    assertNull(StateTransfer.Incoming.receive(second,
+        new StateChunkMessage(SENDER, RECEIVER, 0, 1, null, 1, 1, 2, bytes)));
+    StateChunkMessage head = new StateChunkMessage(SENDER, RECEIVER, 0, 2, null, 2, 0, 3, bytes);
+    assertSame(second, StateTransfer.Incoming.receive(second, head));
+    assertSame(second, StateTransfer.Incoming.receive(second, head));
+    assertEquals(2, second.getReceived());
+  }
+
+  /**
+   * Random strokes all over the board, so that it doesn't compress to almost nothing.
+   */
+  private static WhiteboardState busyBoard(Random random, int strokes) {
+    WhiteboardState state = WhiteboardState.blank(WhiteboardClient.BOARD_WIDTH,
+        WhiteboardClient.BOARD_HEIGHT);
+    for (int i = 0; i < strokes; i++) {
+      state.applyEvent(new WhiteboardEvent(
+          new Point(random.nextInt(WhiteboardClient.BOARD_WIDTH),
+              random.nextInt(WhiteboardClient.BOARD_HEIGHT)),
+          new Point(random.nextInt(WhiteboardClient.BOARD_WIDTH),
+              random.nextInt(WhiteboardClient.BOARD_HEIGHT)), i / 4 + 1));
+    }
+    return state;
+  }
+}
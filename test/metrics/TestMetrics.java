@@ -0,0 +1,139 @@
+package metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+public class TestMetrics {
+
+  @Test
+  public void testHistogramPercentiles() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Histogram histogram = registry.histogram("values", "Values");
+    assertEquals(0, histogram.percentile(0.5));
+
+    for (int value = 1; value <= 10000; value++) {
+      histogram.record(value);
+    }
+    assertEquals(10000, histogram.count());
+    assertEquals(10000L * 10001 / 2, histogram.sum());
+    assertEquals(10000, histogram.max());
+    for (double quantile : new double[]{0.01, 0.5, 0.9, 0.99, 1}) {
+      long expected = Math.round(quantile * 10000);
+      long actual = histogram.percentile(quantile);
+      assertTrue(actual >= expected && actual <= expected * 1.125 + 1,
+          quantile + ": expected about " + expected + ", got " + actual);
+    }
+  }
+
+  @Test
+  public void testBucketBounds() {
+    Random random = new Random(0);
+    for (int i = 0; i < 100000; i++) {
+      long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+      int bucket = Histogram.bucketOf(value);
+      assertTrue(value <= Histogram.upperBoundOf(bucket));
+      assertTrue(bucket == 0 || value > Histogram.upperBoundOf(bucket - 1));
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.upperBoundOf(Histogram.bucketOf(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPrometheusEndpoint() throws IOException, InterruptedException {
+    MetricsRegistry first = new MetricsRegistry("node", "0");
+    MetricsRegistry second = new MetricsRegistry("node", "1");
+    first.counter("rollbacks_total", "Rollbacks").add(3);
+    second.counter("rollbacks_total", "Rollbacks").add(5);
+    first.gauge("queue_size", "Queue size").set(7);
+    first.histogram("frame_seconds", "Frame time", 1e-3).record(2);
+    assertThrows(IllegalArgumentException.class, () -> first.counter("queue_size", "Again"));
+
+    PrometheusEndpoint endpoint = new PrometheusEndpoint(0);
+    endpoint.add(first);
+    endpoint.add(second);
+    endpoint.start();
+    try {
+      HttpResponse<String> response = HttpClient.newHttpClient().send(
+          HttpRequest.newBuilder(URI.create("http://localhost:" + endpoint.getPort() + "/metrics"))
+              .build(), HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      assertEquals("""
+          # HELP rollbacks_total Rollbacks
+          # TYPE rollbacks_total counter
+          rollbacks_total{node="0"} 3
+          rollbacks_total{node="1"} 5
+          # HELP queue_size Queue size
+          # TYPE queue_size gauge
+          queue_size{node="0"} 7
+          # HELP frame_seconds Frame time
+          # TYPE frame_seconds summary
+          frame_seconds{node="0",quantile="0.5"} 0.002
+          frame_seconds{node="0",quantile="0.9"} 0.002
+          frame_seconds{node="0",quantile="0.99"} 0.002
+          frame_seconds_sum{node="0"} 0.002
+          frame_seconds_count{node="0"} 1
+          """, response.body());
+    } finally {
+      endpoint.stop();
+    }
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry("node", "42");
+    registry.counter("events_total", "Events").add(9);
+    registry.gauge("ratio", "Ratio", () -> 0.25);
+    registry.histogram("pause", "Pause").record(100);
+
+    ObjectName name = registry.registerMBean("test");
+    assertEquals(new ObjectName("test:type=Metrics,node=42"), name);
+    assertEquals(registry.registerMBean("test"), name); // replaces the first
+    var server = ManagementFactory.getPlatformMBeanServer();
+    assertEquals(9.0, server.getAttribute(name, "events_total"));
+    assertEquals(0.25, server.getAttribute(name, "ratio"));
+    assertEquals(1.0, server.getAttribute(name, "pause_count"));
+    assertEquals(100.0, server.getAttribute(name, "pause_max"));
+    server.unregisterMBean(name);
+  }
+
+  /**
+   * Recording happens on every frame and rollback, so it mustn't allocate.
+   */
+  @Test
+  public void testRecordingDoesNotAllocate() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Counter counter = registry.counter("counter", "Counter");
+    Gauge gauge = registry.gauge("gauge", "Gauge");
+    Histogram histogram = registry.histogram("histogram", "Histogram");
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    for (int round = 0; round < 3; round++) {
+      long before = threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+      for (int i = 0; i < 1000000; i++) {
+        counter.increment();
+        gauge.set(i);
+        histogram.record(i);
+      }
+      long nanos = System.nanoTime() - start;
+      long allocated = threads.getThreadAllocatedBytes(thread) - before;
+      System.out.printf("Recording: %.1f ns per counter, gauge and histogram update, %d bytes "
+          + "allocated\n", nanos / 1e6, allocated);
+      if (round > 0) {
+        assertTrue(allocated < 1024, "Allocated " + allocated + " bytes");
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package network;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestFrameScheduler {
+
+  private FrameScheduler scheduler;
+
+  @BeforeEach
+  public void setup() {
+    scheduler = new FrameScheduler("test-frames");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  public void testFixedRateDoesNotDrift() {
+    final long PERIOD = 10;
+    final int FRAMES = 50;
+    List<long[]> frames = new CopyOnWriteArrayList<>();
+    long scheduled = System.nanoTime();
+    scheduler.scheduleAtFixedRate(() -> {
+      frames.add(new long[]{System.nanoTime(), scheduler.getMissedFrameCount()});
+      busyFor(3); // a frame that takes a while shouldn't push the next ones back
+    }, PERIOD, PERIOD);
+    long returned = System.nanoTime();
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> frames.size() >= FRAMES);
+    System.out.printf("%d frames of %d ms, %d overruns\n", FRAMES, PERIOD,
+        scheduler.getOverrunCount());
+    assertOnGrid(List.copyOf(frames).subList(0, FRAMES), scheduled + ms(PERIOD), returned + ms(PERIOD),
+        PERIOD);
+  }
+
+  @Test
+  public void testOverrunSkipsMissedFrames() {
+    final long PERIOD = 10;
+    List<long[]> frames = new CopyOnWriteArrayList<>();
+    long scheduled = System.nanoTime();
+    scheduler.scheduleAtFixedRate(() -> {
+      frames.add(new long[]{System.nanoTime(), scheduler.getMissedFrameCount()});
+      busyFor(frames.size() <= 5 ? 35 : 0);
+    }, 0, PERIOD);
+    long returned = System.nanoTime();
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> frames.size() >= 10);
+    assertTrue(scheduler.getOverrunCount() >= 5);
+    assertTrue(scheduler.getMissedFrameCount() >= 2 * 5);
+    assertOnGrid(List.copyOf(frames).subList(0, 10), scheduled, returned, PERIOD);
+  }
+
+  @Test
+  public void testOneShotsRunInDeadlineOrder() {
+    List<Integer> order = new CopyOnWriteArrayList<>();
+    scheduler.schedule(() -> order.add(3), 30);
+    scheduler.schedule(() -> order.add(1), 10);
+    scheduler.execute(() -> order.add(0));
+    scheduler.schedule(() -> order.add(2), 10);
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> order.size() == 4);
+    assertEquals(List.of(0, 1, 2, 3), order);
+  }
+
+  @Test
+  public void testCancelAndShutdown() throws InterruptedException {
+    AtomicInteger cancelledRuns = new AtomicInteger();
+    AtomicInteger runs = new AtomicInteger();
+    scheduler.scheduleAtFixedRate(cancelledRuns::incrementAndGet, 20, 5).cancel();
+    scheduler.scheduleAtFixedRate(runs::incrementAndGet, 0, 5);
+    await().atMost(Duration.ofSeconds(5)).until(() -> runs.get() >= 3);
+
+    scheduler.shutdown();
+    int runsAtShutdown = runs.get();
+    Thread.sleep(50);
+    assertTrue(runs.get() <= runsAtShutdown + 1);
+    assertEquals(0, cancelledRuns.get());
+  }
+
+  /**
+   * Check that each frame started within its own period of a fixed grid, with the frames the
+   * scheduler counted as missed skipped: never early, never in a period an earlier frame had,
+   * and never a whole period or more late without that being counted. This holds however busy
+   * the host is, since a frame that's held up only adds to the count.
+   *
+   * @param frames        start time of each frame, and missed frames counted when it started
+   * @param firstEarliest earliest the first frame's deadline can be
+   * @param firstLatest   latest the first frame's deadline can be
+   */
+  private static void assertOnGrid(List<long[]> frames, long firstEarliest, long firstLatest,
+      long periodMillis) {
+    long slot = 0;
+    long missedBefore = 0;
+    for (int i = 0; i < frames.size(); i++) {
+      long start = frames.get(i)[0];
+      // Counted as the frame was rescheduled, just before it ran
+      long missed = frames.get(i)[1] - missedBefore;
+      assertTrue(start >= firstEarliest + slot * ms(periodMillis), "Frame " + i + " ran early");
+      assertTrue(start < firstLatest + (slot + 1 + missed) * ms(periodMillis),
+          "Frame " + i + " ran late without counting the frames it missed");
+      slot += 1 + missed;
+      missedBefore = frames.get(i)[1];
+    }
+  }
+
+  private static long ms(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private static void busyFor(long millis) {
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    while (System.nanoTime() < end) {
+      Thread.onSpinWait();
+    }
+  }
+}
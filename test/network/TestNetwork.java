@@ -1,15 +1,33 @@
 package network;
 
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import gss.GSSConfiguration;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import util.Pair;
@@ -19,6 +37,7 @@ import util.TestingNode;
 
 public class TestNetwork {
 
+  private TestingNetwork network;
   private Map<Integer, Address> addresses;
   private Map<Integer, TestingNode> nodes;
   private Random random;
@@ -29,13 +48,31 @@ public class TestNetwork {
   }
 
   public void setupNetwork(float txSuccessRate, List<Integer> addressInts) {
-    TestingNetwork network = new TestingNetwork(txSuccessRate);
+    setupNetwork(new TestingNetwork(txSuccessRate), addressInts);
+  }
+
+  private void setupNetwork(TestingNetwork network, List<Integer> addressInts) {
+    this.network = network;
     addresses = new HashMap<>();
     nodes = new HashMap<>();
     for (Integer a : addressInts) {
-      Address address = new Address(a);
-      nodes.put(a, new TestingNode(address, network));
-      addresses.put(a, address);
+      addresses.put(a, new Address(a));
+    }
+
+    // Nodes look up their vector clock index in GSSConfiguration, so register them as clients
+    GSSConfiguration.SetConfiguration(0, addressInts.size(), new Address[0],
+        addressInts.stream().map(addresses::get).toArray(Address[]::new),
+        new int[addressInts.size()]);
+
+    for (Integer a : addressInts) {
+      nodes.put(a, new TestingNode(address(a), network));
+    }
+  }
+
+  @AfterEach
+  public void tearDownNetwork() {
+    if (network != null) {
+      network.shutdown();
     }
   }
 
@@ -112,6 +149,483 @@ public class TestNetwork {
     });
   }
 
+  @Test
+  public synchronized void testThreadCountStaysFlat() {
+    int N = 10;
+    int T = 100000;
+
+    // Sending many messages at once should not create a thread per message
+    setupNetwork(0.8f, IntStream.rangeClosed(1, N).boxed().collect(Collectors.toList()));
+
+    // Warm up so that the network's scheduler threads and awaitility's poller already exist
+    node(1).send(new TestingMessage(-1), address(2));
+    await().atMost(Duration.ofSeconds(2)).until(() -> !node(2).getReceivedMessages().isEmpty());
+    int threadsBefore = Thread.activeCount();
+    AtomicInteger peakThreads = new AtomicInteger(threadsBefore);
+
+    for (int i = 0; i < T; i++) {
+      int src = random.nextInt(1, N + 1);
+      int dst = random.nextInt(1, N + 1);
+      node(src).send(new TestingMessage(i), address(dst));
+      if (i % 1000 == 0) {
+        peakThreads.accumulateAndGet(Thread.activeCount(), Math::max);
+      }
+    }
+
+    await().atMost(Duration.ofSeconds(30)).until(() -> {
+      peakThreads.accumulateAndGet(Thread.activeCount(), Math::max);
+      int received = 0;
+      for (int i = 1; i <= N; i++) {
+        received += node(i).getReceivedMessages().size();
+      }
+      return received == T + 1;
+    });
+
+    // A few threads of slack for awaitility, far below one thread per message in flight
+    assertTrue(peakThreads.get() <= threadsBefore + 2,
+        "Thread count grew from " + threadsBefore + " to " + peakThreads.get());
+  }
+
+  @Test
+  public synchronized void testSendMailboxes() {
+    int N = 10;
+    int T = 2000;
+
+    TestingNetwork network = new TestingNetwork(0.8f);
+    network.setExecutionMode(ExecutionMode.MAILBOXES);
+    setupNetwork(network, IntStream.rangeClosed(1, N).boxed().collect(Collectors.toList()));
+
+    Map<Integer, List<Pair<Message, Address>>> expectedReceivedMessages = new HashMap<>();
+    for (int i = 1; i <= N; i++) {
+      expectedReceivedMessages.put(i, new ArrayList<>());
+    }
+
+    for (int i = 0; i < T; i++) {
+      int src = random.nextInt(1, N + 1);
+      int dst = random.nextInt(1, N + 1);
+      TestingMessage message = new TestingMessage(i);
+      node(src).send(message, address(dst));
+      expectedReceivedMessages.get(dst).add(new Pair<>(message, address(src)));
+    }
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> {
+      for (int i = 1; i <= N; i++) {
+        if (!node(i).getReceivedMessages().containsAll(expectedReceivedMessages.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    });
+  }
+
+  @Test
+  public synchronized void testMailboxRunsOneTaskAtATime() throws InterruptedException {
+    int P = 8;
+    int T = 20000;
+
+    TestingNetwork network = new TestingNetwork(Network.RELIABLE_TX);
+    network.setExecutionMode(ExecutionMode.MAILBOXES);
+    network.setHandlerExecutor(Executors.newFixedThreadPool(P));
+    setupNetwork(network, List.of(1));
+
+    // Unsynchronized increments from many threads only add up if the tasks never overlap
+    int[] counter = {0};
+    AtomicInteger completed = new AtomicInteger();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    Thread[] producers = new Thread[P];
+    for (int p = 0; p < P; p++) {
+      producers[p] = new Thread(() -> {
+        for (int i = 0; i < T; i++) {
+          node(1).submit(() -> {
+            if (running.incrementAndGet() > 1) {
+              overlaps.incrementAndGet();
+            }
+            counter[0]++;
+            running.decrementAndGet();
+            completed.incrementAndGet();
+          });
+        }
+      });
+      producers[p].start();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> completed.get() == P * T);
+    assertEquals(0, overlaps.get());
+    assertEquals(P * T, counter[0]);
+  }
+
+  @Test
+  public synchronized void benchmarkContention() throws InterruptedException {
+    // The first round is a warm-up
+    for (int round = 0; round < 2; round++) {
+      for (ExecutionMode mode : ExecutionMode.values()) {
+        benchmarkContention(mode);
+      }
+    }
+  }
+
+  /**
+   * Many handler threads delivering to a few nodes while a "timer" thread per node calls into
+   * the same nodes, as Swing timers do for a GSS.
+   */
+  private void benchmarkContention(ExecutionMode mode) throws InterruptedException {
+    int N = 4;
+    int P = 8;
+    int T = 50000;
+
+    TestingNetwork network = new TestingNetwork(Network.RELIABLE_TX);
+    network.setExecutionMode(mode);
+    network.setHandlerExecutor(Executors.newFixedThreadPool(P));
+    setupNetwork(network, IntStream.rangeClosed(1, N).boxed().collect(Collectors.toList()));
+
+    AtomicInteger timerCalls = new AtomicInteger();
+    long start = System.nanoTime();
+    Thread[] timers = new Thread[N];
+    for (int n = 1; n <= N; n++) {
+      TestingNode node = node(n);
+      timers[n - 1] = new Thread(() -> {
+        for (int i = 0; i < T / 10; i++) {
+          node.submit(() -> {
+            node.getReceivedMessages();
+            timerCalls.incrementAndGet();
+          });
+        }
+      });
+      timers[n - 1].start();
+    }
+    for (int i = 0; i < T; i++) {
+      int src = random.nextInt(1, N + 1);
+      int dst = random.nextInt(1, N + 1);
+      network.deliver(new TestingMessage(i), address(src), address(dst));
+    }
+    for (Thread timer : timers) {
+      timer.join();
+    }
+
+    await().atMost(Duration.ofSeconds(30)).until(() -> {
+      int received = 0;
+      for (int i = 1; i <= N; i++) {
+        received += node(i).getReceivedMessages().size();
+      }
+      return received == T && timerCalls.get() == N * (T / 10);
+    });
+    long nanos = System.nanoTime() - start;
+
+    System.out.printf("%s: %d deliveries and %d timer calls in %d ms (%.0f tasks/s)\n", mode, T,
+        N * (T / 10), nanos / 1000000, (T + N * (T / 10)) / (nanos / 1e9));
+    network.shutdown();
+  }
+
+  @Test
+  public synchronized void testReplyAcknowledgesEverythingReceived() {
+    int T = 500;
+
+    setupNetwork(0.8f, List.of(1, 2));
+
+    for (int i = 0; i < T; i++) {
+      node(1).send(new TestingMessage(i), address(2));
+    }
+    await().atMost(Duration.ofSeconds(5)).until(() -> node(2).getReceivedMessages().size() == T);
+    assertEquals(T, node(1).getUnacknowledgedMessages().size());
+
+    // One reply carries a cumulative ack for all of them
+    node(2).send(new TestingMessage(-1), address(1));
+    await().atMost(Duration.ofSeconds(5))
+        .until(() -> node(1).getUnacknowledgedMessages().isEmpty());
+  }
+
+  @Test
+  public synchronized void testSendWithoutHandler() {
+    setupNetwork(Network.RELIABLE_TX, List.of(1, 2));
+
+    // The sender finds out, every time, rather than the destination's delivery thread
+    Message unhandled = new Message(address(1), address(2), 0, 0, new int[2]);
+    for (int i = 0; i < 2; i++) {
+      assertThrows(RuntimeException.class, () -> network.send(unhandled, address(1), address(2)));
+    }
+    node(1).send(new TestingMessage(0), address(2));
+    await().atMost(Duration.ofSeconds(2)).until(() -> node(2).getReceivedMessages().size() == 1);
+  }
+
+  @Test
+  public synchronized void testBadFrameDropsOnlyItsConnection() throws IOException {
+    registerTestingMessageCodec();
+    NioTransport transport = new NioTransport(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Map.of());
+    setupNetwork(new TestingNetwork(Network.RELIABLE_TX, transport), List.of(1, 2));
+
+    // One frame from a newer wire format, and one for a node that isn't on this network
+    ByteBuffer newerVersion = ByteBuffer.allocate(256);
+    WireCodec.encode(new Message(address(1), address(2), 0, 0, new int[2]), newerVersion);
+    newerVersion.put(0, (byte) (WireCodec.VERSION + 1)).flip();
+    ByteBuffer misrouted = ByteBuffer.allocate(256);
+    WireCodec.encode(new TestingMessage(-1), misrouted);
+    misrouted.flip();
+    int[][] links = {{1, 2}, {1, 99}};
+    ByteBuffer[] bodies = {newerVersion, misrouted};
+
+    for (int i = 0; i < bodies.length; i++) {
+      try (Socket socket = new Socket(transport.getLocalAddress().getAddress(),
+          transport.getLocalAddress().getPort())) {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(Long.BYTES);
+        out.writeLong(i);
+        out.writeInt(2 * Integer.BYTES + bodies[i].remaining());
+        out.writeInt(links[i][0]);
+        out.writeInt(links[i][1]);
+        out.write(bodies[i].array(), 0, bodies[i].remaining());
+        out.flush();
+
+        // The transport hangs up on the peer that sent it, and carries on with everyone else
+        socket.setSoTimeout(5000);
+        assertEquals(-1, socket.getInputStream().read());
+      }
+      node(1).send(new TestingMessage(i), address(2));
+      int received = i + 1;
+      await().atMost(Duration.ofSeconds(5))
+          .until(() -> node(2).getReceivedMessages().size() == received);
+    }
+    assertEquals(List.of(0, 1), data(node(2).getReceivedMessages()));
+  }
+
+  @Test
+  public synchronized void testReconnectResendsUnacknowledgedFrames() throws IOException {
+    int T = 2000;
+    int CUT_AFTER_BYTES = 4000;
+
+    // Node 2 is reached through a proxy that hangs up partway through its first connection, so
+    // frames the transport had already written are lost with it
+    registerTestingMessageCodec();
+    ServerSocket proxy = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    NioTransport transport = new NioTransport(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        Map.of(new Address(2), (InetSocketAddress) proxy.getLocalSocketAddress()));
+    setupNetwork(new TestingNetwork(Network.RELIABLE_TX, transport), List.of(1, 2));
+    AtomicInteger connections = new AtomicInteger();
+    Thread proxyThread = new Thread(() -> {
+      while (!proxy.isClosed()) {
+        try {
+          Socket client = proxy.accept();
+          Socket target = new Socket(transport.getLocalAddress().getAddress(),
+              transport.getLocalAddress().getPort());
+          int limit = connections.getAndIncrement() == 0 ? CUT_AFTER_BYTES : Integer.MAX_VALUE;
+          Thread pump = new Thread(() -> forward(client, target, limit));
+          pump.setDaemon(true);
+          pump.start();
+        } catch (IOException e) {
+          return; // proxy closed
+        }
+      }
+    });
+    proxyThread.setDaemon(true);
+    proxyThread.start();
+
+    try {
+      for (int i = 0; i < T; i++) {
+        node(1).send(new TestingMessage(i), address(2));
+      }
+
+      // Everything arrives once, including what had got through before the cut
+      await().atMost(Duration.ofSeconds(10))
+          .until(() -> node(2).getReceivedMessages().size() >= T);
+      List<Integer> received = data(node(2).getReceivedMessages());
+      received.sort(null);
+      assertEquals(IntStream.range(0, T).boxed().collect(Collectors.toList()), received);
+      assertTrue(connections.get() > 1);
+
+      // A reply acks them all, and the transport can let go of its copies
+      node(2).send(new TestingMessage(-1), address(1));
+      await().atMost(Duration.ofSeconds(5))
+          .until(() -> node(1).getUnacknowledgedMessages().isEmpty());
+    } finally {
+      proxy.close();
+    }
+  }
+
+  /**
+   * Copy bytes from one socket to the other, and close both after limit bytes or at EOF.
+   */
+  private static void forward(Socket from, Socket to, int limit) {
+    try (from; to) {
+      InputStream in = from.getInputStream();
+      OutputStream out = to.getOutputStream();
+      byte[] buffer = new byte[1024];
+      int copied = 0;
+      while (copied < limit) {
+        int n = in.read(buffer, 0, Math.min(buffer.length, limit - copied));
+        if (n < 0) {
+          return;
+        }
+        out.write(buffer, 0, n);
+        copied += n;
+      }
+    } catch (IOException e) {
+      // one side hung up
+    }
+  }
+
+  private static void registerTestingMessageCodec() {
+    WireCodec.register(200, TestingMessage.class, new MessageCodec<>() {
+      @Override
+      public void encodeBody(TestingMessage message, ByteBuffer out) {
+        WireCodec.putVarInt(out, message.getData());
+      }
+
+      @Override
+      public TestingMessage decodeBody(MessageHeader header, ByteBuffer in) {
+        return new TestingMessage(WireCodec.getVarInt(in), header.simTime(),
+            header.vectorClock());
+      }
+    });
+  }
+
+  @Test
+  public void testSelectiveAcks() {
+    LinkState receiver = new LinkState();
+    for (int sequence : new int[]{1, 2, 4, 5, 7}) {
+      receiver.received(sequence);
+    }
+    assertEquals(2, receiver.cumulativeAck());
+    assertArrayEquals(new int[]{4, 5, 7}, receiver.selectiveAcks());
+
+    receiver.received(3);
+    assertEquals(5, receiver.cumulativeAck());
+    assertArrayEquals(new int[]{7}, receiver.selectiveAcks());
+
+    LinkState sender = new LinkState();
+    for (int i = 1; i <= 8; i++) {
+      sender.send(new TestingMessage(i));
+    }
+    List<Message> acked = new ArrayList<>();
+    sender.acknowledge(receiver.cumulativeAck(), receiver.selectiveAcks(), acked::add);
+    assertEquals(List.of(1, 2, 3, 4, 5, 7), dataOf(acked));
+    assertEquals(List.of(6, 8), dataOf(sender.unacknowledged()));
+  }
+
+  @Test
+  public synchronized void benchmarkAcknowledgeInFlight() {
+    int T = 100000;
+
+    // Keep T messages in flight, then ack them one at a time, lowest sim time first, which is the
+    // case where a scan for the new lowest would run after every ack
+    setupNetwork(Network.RELIABLE_TX, List.of(1, 2));
+    network.pause();
+    int[] vectorClock = new int[2];
+    long start = System.nanoTime();
+    for (int i = 0; i < T; i++) {
+      node(1).send(new Message(address(1), address(2), i, 0, vectorClock), address(2));
+    }
+    long sendNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 1; i <= T; i++) {
+      Message ack = new Message(address(2), address(1), 0, 0, vectorClock);
+      ack.setSequencing(0, i, new int[0]);
+      node(1).updateVectorClock(ack, address(2));
+      if (i < T) {
+        assertEquals(i, node(1).getVectorClock()[0]);
+      }
+    }
+    long ackNanos = System.nanoTime() - start;
+
+    assertTrue(node(1).getUnacknowledgedMessages().isEmpty());
+    System.out.printf("%d in flight: send %.0f ns/msg, ack %.0f ns/msg\n", T,
+        (double) sendNanos / T, (double) ackNanos / T);
+  }
+
+  @Test
+  public synchronized void testBatchedSend() {
+    int N = 5;
+    int T = 1000;
+
+    // Everything queued for one destination between flushes goes out as a single transmission
+    AtomicInteger transmissions = new AtomicInteger();
+    setupNetwork(new TestingNetwork(Network.RELIABLE_TX, new LocalTransport() {
+      @Override
+      public void transmit(Message message, Address src, Address dst) {
+        transmissions.incrementAndGet();
+        super.transmit(message, src, dst);
+      }
+    }), IntStream.rangeClosed(1, N).boxed().collect(Collectors.toList()));
+
+    Map<Integer, List<Pair<Message, Address>>> expectedReceivedMessages = new HashMap<>();
+    for (int i = 1; i <= N; i++) {
+      expectedReceivedMessages.put(i, new ArrayList<>());
+    }
+
+    for (int i = 0; i < T; i++) {
+      int dst = random.nextInt(2, N + 1);
+      TestingMessage message = new TestingMessage(i);
+      node(1).sendBatched(message, address(dst));
+      expectedReceivedMessages.get(dst).add(new Pair<>(message, address(1)));
+    }
+    node(1).flushOutbox();
+
+    // Contents are handed over in the order they were queued
+    await().atMost(Duration.ofSeconds(2)).until(() -> {
+      for (int i = 2; i <= N; i++) {
+        if (!data(node(i).getReceivedMessages()).equals(
+            data(expectedReceivedMessages.get(i)))) {
+          return false;
+        }
+      }
+      return true;
+    });
+    assertEquals(N - 1, transmissions.get());
+  }
+
+  @Test
+  public synchronized void testBatchedSendUnreliable() {
+    int N = 5;
+    int T = 1000;
+    int F = 20;
+
+    setupNetwork(0.8f, IntStream.rangeClosed(1, N).boxed().collect(Collectors.toList()));
+
+    Map<Integer, List<Pair<Message, Address>>> expectedReceivedMessages = new HashMap<>();
+    for (int i = 1; i <= N; i++) {
+      expectedReceivedMessages.put(i, new ArrayList<>());
+    }
+
+    for (int i = 0; i < T; i++) {
+      int src = random.nextInt(1, N + 1);
+      int dst = random.nextInt(1, N + 1);
+      TestingMessage message = new TestingMessage(i);
+      node(src).sendBatched(message, address(dst));
+      expectedReceivedMessages.get(dst).add(new Pair<>(message, address(src)));
+      if (i % (T / F) == 0) {
+        for (int n = 1; n <= N; n++) {
+          node(n).flushOutbox();
+        }
+      }
+    }
+    for (int n = 1; n <= N; n++) {
+      node(n).flushOutbox();
+    }
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> {
+      for (int i = 1; i <= N; i++) {
+        if (!node(i).getReceivedMessages().containsAll(expectedReceivedMessages.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    });
+  }
+
+  private static List<Integer> data(List<Pair<Message, Address>> received) {
+    return dataOf(received.stream().map(Pair::getFirst).collect(Collectors.toList()));
+  }
+
+  private static List<Integer> dataOf(Collection<Message> messages) {
+    return messages.stream().map(m -> ((TestingMessage) m).getData())
+        .collect(Collectors.toList());
+  }
+
   private TestingNode node(int a) {
     return nodes.getOrDefault(a, null);
   }
@@ -0,0 +1,734 @@
+package network;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import gss.GSS;
+import gss.Cancellation;
+import gss.EventJournal;
+import gss.GSSConfiguration;
+import gss.GameEvent;
+import gss.GameState;
+import gss.JournalSync;
+import gss.OptimismPolicy;
+import gss.SnapshotStore;
+import gss.StateSaving;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Pair;
+import util.TestingMessage;
+import util.TestingNode;
+import whiteboard.WhiteboardClient;
+import whiteboard.WhiteboardCodecs;
+import whiteboard.WhiteboardEvent;
+import whiteboard.WhiteboardState;
+
+public class TestSimulatedNetwork {
+
+  private static final int N_SERVERS = 2;
+  private static final int N_CLIENTS = 4;
+  private static final int[] CONNECTIONS = {0, 0, 1, 1};
+
+  private SimulatedNetwork network;
+  private WhiteboardClient firstClient;
+
+  @BeforeAll
+  public static void registerCodecs() {
+    // Clients get the board encoded when they join, even on a simulated network
+    WhiteboardCodecs.register();
+  }
+
+  @AfterEach
+  public void tearDownNetwork() {
+    if (network != null) {
+      network.shutdown();
+    }
+  }
+
+  @Test
+  public void testSameSeedSameDeliveries() {
+    List<Integer> first = deliveryOrder(1);
+    List<Integer> second = deliveryOrder(1);
+    List<Integer> other = deliveryOrder(2);
+
+    assertEquals(first, second);
+    assertNotEquals(first, other);
+  }
+
+  @Test
+  public void testPerLinkLatency() {
+    int N = 3;
+    network = new SimulatedNetwork(1, LatencyModel.fixed(10), Network.RELIABLE_TX);
+    List<TestingNode> nodes = setupNodes(N);
+    network.setLink(new Address(1), new Address(3), LatencyModel.fixed(500),
+        Network.RELIABLE_TX);
+
+    nodes.get(0).send(new TestingMessage(1), new Address(2));
+    nodes.get(0).send(new TestingMessage(2), new Address(3));
+
+    assertTrue(network.runUntil(() -> !nodes.get(1).getReceivedMessages().isEmpty(), 1000));
+    assertEquals(10, network.currentTimeMillis());
+    assertTrue(network.runUntil(() -> !nodes.get(2).getReceivedMessages().isEmpty(), 1000));
+    assertEquals(500, network.currentTimeMillis());
+  }
+
+  @Test
+  public void testSameSeedSameRollbacks() {
+    long simulatedMillis = 10 * 60 * 1000;
+
+    long[] first = runWhiteboard(7, simulatedMillis, 500, GvtMode.VECTOR_CLOCK);
+    long[] second = runWhiteboard(7, simulatedMillis, 500, GvtMode.VECTOR_CLOCK);
+
+    assertArrayEquals(first, second);
+    assertTrue(first[0] + first[1] > 0, "Scenario should cause rollbacks");
+  }
+
+  @Test
+  public void testMatternGvt() {
+    long simulatedMillis = 2 * 60 * 1000;
+
+    long[] first = runWhiteboard(3, simulatedMillis, 500, GvtMode.MATTERN);
+    long[] second = runWhiteboard(3, simulatedMillis, 500, GvtMode.MATTERN);
+
+    assertArrayEquals(first, second);
+  }
+
+  @Test
+  public void testCoastForward() {
+    long simulatedMillis = 2 * 60 * 1000;
+
+    long[] incremental = rollbacks(runWhiteboard(5, simulatedMillis, 200,
+        GvtMode.VECTOR_CLOCK, gss -> gss.setStateSaving(StateSaving.INCREMENTAL)));
+    long[] copies = rollbacks(runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK,
+        gss -> gss.setStateSaving(StateSaving.COPY)));
+
+    // How state is saved shouldn't change what gets rolled back
+    assertArrayEquals(incremental, copies);
+    assertTrue(copies[0] + copies[1] > 0, "Scenario should cause rollbacks");
+  }
+
+  @Test
+  public void testCancellation() {
+    long simulatedMillis = 2 * 60 * 1000;
+
+    GSS[] lazy = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK,
+        gss -> gss.setCancellation(Cancellation.LAZY));
+    GSS[] aggressive = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK,
+        gss -> gss.setCancellation(Cancellation.AGGRESSIVE));
+
+    // Forwarded events always come back when re-executed, so lazy cancellation never needs to
+    // cancel one, while aggressive cancellation rolls the other server back as well
+    for (int s = 0; s < N_SERVERS; s++) {
+      assertEquals(0, lazy[s].getAntiMessagesSent());
+      assertTrue(aggressive[s].getAntiMessagesSent() > 0);
+      assertTrue(aggressive[s].getAnnihilationCount() > 0);
+    }
+    assertTrue(lazy[0].getLazyCancellationHits() + lazy[1].getLazyCancellationHits() > 0);
+    System.out.printf("Rollbacks with lazy cancellation: %d, %d, with aggressive: %d, %d\n",
+        lazy[0].getRollbackCount(), lazy[1].getRollbackCount(),
+        aggressive[0].getRollbackCount(), aggressive[1].getRollbackCount());
+  }
+
+  @Test
+  public void testOptimismWindow() {
+    long simulatedMillis = 2 * 60 * 1000;
+
+    GSS[] unbounded = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK,
+        gss -> gss.setOptimismPolicy(OptimismPolicy.unbounded()));
+    GSS[] fixed = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK,
+        gss -> gss.setOptimismPolicy(OptimismPolicy.fixed(2)));
+    GSS[] adaptive = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK,
+        gss -> gss.setOptimismPolicy(OptimismPolicy.adaptive(2, 64)));
+
+    for (GSS[] servers : List.of(unbounded, fixed, adaptive)) {
+      System.out.printf("Rolled back events: %d, %d, peak executed events: %d, %d\n",
+          servers[0].getRolledBackEventCount(), servers[1].getRolledBackEventCount(),
+          servers[0].getPeakExecutedEvents(), servers[1].getPeakExecutedEvents());
+    }
+    assertTrue(rolledBackEvents(fixed) < rolledBackEvents(unbounded));
+    assertTrue(rolledBackEvents(adaptive) < rolledBackEvents(unbounded));
+  }
+
+  @Test
+  public void testStateDeltas() {
+    long simulatedMillis = 60 * 1000;
+
+    GSS[] servers = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK, gss -> {
+    });
+
+    // Clients get a whole state when they join, and deltas after that unless one goes missing
+    for (GSS server : servers) {
+      System.out.printf("Whole states sent: %d, deltas sent: %d\n", server.getFullStatesSent(),
+          server.getDeltasSent());
+      assertTrue(server.getFullStatesSent() * 10 < server.getDeltasSent());
+    }
+  }
+
+  /**
+   * A client that isn't there from the start asks to join once the board is busy, over a lossy
+   * link, gets the whole board in chunks while the first client goes on drawing, and catches up.
+   */
+  @Test
+  public void testLateJoiningClient() {
+    network = new SimulatedNetwork(3, LatencyModel.exponential(10, 40), 0.9f);
+    Address server = new Address(0);
+    Address[] clientAddresses = {new Address(1), new Address(2)};
+    GSSConfiguration.SetConfiguration(1, 2, new Address[]{server}, clientAddresses,
+        new int[]{0, 0}, GvtMode.VECTOR_CLOCK);
+
+    GSS gss = new GSS(server, network);
+    gss.setState(WhiteboardState.blank(WhiteboardClient.BOARD_WIDTH,
+        WhiteboardClient.BOARD_HEIGHT));
+    WhiteboardClient first = new WhiteboardClient(clientAddresses[0], server, network, true);
+    gss.addClient(first);
+    Random random = new Random(3);
+    Scheduler.Cancellable drawing = network.getScheduler().scheduleAtFixedRate(() -> {
+      Point start = new Point(random.nextInt(WhiteboardClient.BOARD_WIDTH),
+          random.nextInt(WhiteboardClient.BOARD_HEIGHT));
+      Point end = new Point(random.nextInt(WhiteboardClient.BOARD_WIDTH),
+          random.nextInt(WhiteboardClient.BOARD_HEIGHT));
+      first.acceptGameEvent(new WhiteboardEvent(start, end, first.getState().getSimTime() + 1));
+    }, 20, 20);
+    gss.startRunning();
+    first.startRunning();
+    network.runFor(20 * 1000);
+
+    // The server only hears of the late client from its JoinMessage
+    WhiteboardClient late = new WhiteboardClient(clientAddresses[1], server, network, true);
+    late.startRunning();
+    long joinStart = network.currentTimeMillis();
+    while (late.getState().getGssTime() == 0) {
+      network.runFor(10);
+      assertTrue(network.currentTimeMillis() - joinStart < 5000,
+          "Late client should get a state");
+    }
+    System.out.printf("Late client got the board after %d ms\n",
+        network.currentTimeMillis() - joinStart);
+    late.acceptGameEvent(new WhiteboardEvent(new Point(0, 0),
+        new Point(WhiteboardClient.BOARD_WIDTH - 1, WhiteboardClient.BOARD_HEIGHT - 1),
+        late.getState().getSimTime() + 1));
+    network.runFor(5 * 1000);
+    drawing.cancel();
+
+    boolean converged = false;
+    for (int second = 0; second < 30 && !converged; second++) {
+      network.runFor(1000);
+      converged = first.getState().equals(gss.getState())
+          && late.getState().equals(gss.getState());
+    }
+    assertTrue(converged, "Both clients should converge with the server");
+    assertTrue(gss.getStateTransfersSent() >= 2);
+    assertTrue(gss.getGlobalSimTime() > 0, "GVT should advance");
+    gss.stopRunning();
+  }
+
+  @Test
+  public void testTimeWarpMetrics() {
+    long simulatedMillis = 60 * 1000;
+
+    GSS[] servers = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK, gss -> {
+    });
+
+    for (GSS server : servers) {
+      Map<String, Double> metrics = server.getMetrics().snapshot();
+      System.out.println(metrics);
+      assertEquals(server.getRollbackCount(), metrics.get("gss_rollbacks_total"));
+      assertEquals(server.getRollbackCount(), metrics.get("gss_rollback_distance_events_count"));
+      assertEquals(server.getRolledBackEventCount(),
+          metrics.get("gss_rollback_distance_events_sum"));
+      assertTrue(metrics.get("gss_events_committed_total") > 0);
+      assertTrue(metrics.get("gss_events_executed_total")
+          >= metrics.get("gss_events_committed_total"));
+      assertTrue(metrics.get("gss_events_reexecuted_total") > 0);
+      assertTrue(metrics.get("gss_efficiency") > 0 && metrics.get("gss_efficiency") <= 1);
+      assertEquals(server.getFramesRun(), metrics.get("gss_frame_seconds_count"));
+      assertTrue(metrics.get("node_messages_received_total") > 0);
+    }
+  }
+
+  @Test
+  public void testJournal(@TempDir Path directory) {
+    long simulatedMillis = 60 * 1000;
+
+    List<EventJournal> journals = new ArrayList<>();
+    GSS[] servers = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK, gss -> {
+      EventJournal journal = new EventJournal(directory.resolve("gss-" + journals.size()),
+          JournalSync.PERIODIC);
+      journals.add(journal);
+      gss.setJournal(journal);
+    });
+    journals.forEach(EventJournal::close);
+
+    // Each journal has every event its server committed, in the same order on both
+    List<List<GameEvent>> committed = new ArrayList<>();
+    for (int s = 0; s < servers.length; s++) {
+      List<GameEvent> events = new ArrayList<>();
+      EventJournal.replay(directory.resolve("gss-" + s), events::add);
+      assertEquals(servers[s].getMetrics().snapshot().get("gss_events_committed_total"),
+          (double) events.size());
+      committed.add(events);
+    }
+    int common = Math.min(committed.get(0).size(), committed.get(1).size());
+    assertTrue(common > 0);
+    for (int i = 0; i < common; i++) {
+      assertEquals(0, committed.get(0).get(i).compareTo(committed.get(1).get(i)), "Event " + i);
+    }
+  }
+
+  @Test
+  public void testJournalWithRegions(@TempDir Path directory) {
+    long simulatedMillis = 60 * 1000;
+
+    // Only the first server has regions, so its journal can be checked against the other's
+    List<EventJournal> journals = new ArrayList<>();
+    runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK, gss -> {
+      if (journals.isEmpty()) {
+        gss.setRegions(3);
+      }
+      EventJournal journal = new EventJournal(directory.resolve("gss-" + journals.size()),
+          JournalSync.PERIODIC);
+      journals.add(journal);
+      gss.setJournal(journal);
+    });
+    journals.forEach(EventJournal::close);
+
+    // Strokes that cross regions are committed by each of them, but journaled once, in order
+    List<List<GameEvent>> committed = new ArrayList<>();
+    for (int s = 0; s < N_SERVERS; s++) {
+      List<GameEvent> events = new ArrayList<>();
+      EventJournal.replay(directory.resolve("gss-" + s), events::add);
+      for (int i = 1; i < events.size(); i++) {
+        assertTrue(events.get(i - 1).compareTo(events.get(i)) < 0, "Event " + i);
+      }
+      committed.add(events);
+    }
+    int common = Math.min(committed.get(0).size(), committed.get(1).size());
+    assertTrue(common > 0);
+    for (int i = 0; i < common; i++) {
+      assertEquals(0, committed.get(0).get(i).compareTo(committed.get(1).get(i)), "Event " + i);
+    }
+  }
+
+  @Test
+  public void testRecovery(@TempDir Path directory) {
+    long simulatedMillis = 60 * 1000;
+
+    Path events = directory.resolve("events");
+    EventJournal journal = new EventJournal(events, JournalSync.PERIODIC);
+    SnapshotStore snapshots = new SnapshotStore(directory.resolve("snapshots"));
+    runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK, gss -> {
+      if (gss.getAddress().equals(new Address(0))) {
+        gss.setJournal(journal);
+        gss.setSnapshots(snapshots);
+      }
+    });
+    journal.close();
+    snapshots.close();
+
+    // Start the first server again: it should end up where replaying the whole journal does,
+    // after replaying only the events since its last snapshot
+    WhiteboardState replayed = WhiteboardState.blank(WhiteboardClient.BOARD_WIDTH,
+        WhiteboardClient.BOARD_HEIGHT);
+    long journaled = EventJournal.replay(events, replayed::applyEvent);
+    network = new SimulatedNetwork(5, LatencyModel.exponential(10, 40), 0.9f);
+    GSS restarted = new GSS(new Address(0), network);
+    long tail = restarted.recover(WhiteboardState.blank(WhiteboardClient.BOARD_WIDTH,
+        WhiteboardClient.BOARD_HEIGHT), new SnapshotStore(directory.resolve("snapshots")), events);
+
+    System.out.printf("Recovered sim time %d replaying %d of %d journaled events\n",
+        restarted.getState().getSimTime(), tail, journaled);
+    assertTrue(tail < journaled);
+    assertEquals(replayed, restarted.getState());
+    assertEquals(replayed.getSimTime(), restarted.getState().getSimTime());
+    assertEquals(replayed.getSimTime(), restarted.getGlobalSimTime());
+  }
+
+  @Test
+  public void testInterest() {
+    long simulatedMillis = 60 * 1000;
+    Rectangle interest = new Rectangle(40, 40, 100, 80);
+
+    GSS[] servers = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK, gss -> {
+    }, interest);
+
+    // runWhiteboard checks the first client's board matches inside its area, and it's only been
+    // sent the tiles there, so the rest of its board should be out of date
+    assertNotEquals(servers[0].getState(), firstClient.getState());
+  }
+
+  @Test
+  public void testRegions() {
+    long simulatedMillis = 2 * 60 * 1000;
+
+    // Only the first server splits its board, so converging means the regions add up to the same
+    // board as the second server's
+    GSS[] servers = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK, gss -> {
+      if (gss.getAddress().equals(new Address(0))) {
+        gss.setRegions(4);
+      }
+    });
+
+    System.out.printf("Rolled back events: %d in regions, %d whole\n",
+        servers[0].getRolledBackEventCount(), servers[1].getRolledBackEventCount());
+    assertTrue(servers[0].getRollbackCount() > 0, "Regions should roll back too");
+  }
+
+  @Test
+  public void testEventDrivenFrames() {
+    long simulatedMillis = 60 * 1000;
+
+    GSS[] servers = runWhiteboard(5, simulatedMillis, 200, GvtMode.VECTOR_CLOCK,
+        gss -> gss.setEventDriven(2));
+
+    System.out.printf("Frames run with event-driven frames: %d, %d\n",
+        servers[0].getFramesRun(), servers[1].getFramesRun());
+    assertTrue(servers[0].getRollbackCount() + servers[1].getRollbackCount() > 0,
+        "Scenario should cause rollbacks");
+  }
+
+  /**
+   * One client draws now and then, and the time is measured from when it sends a stroke to when
+   * the other server has executed it: two hops of fixed latency plus whatever the servers add.
+   * Then nobody draws for a minute, and the frames run in it stand in for idle CPU.
+   */
+  @Test
+  public void benchmarkFrameModes() {
+    final int STROKES = 100;
+    final long HOP_MILLIS = 10;
+
+    double[] periodic = benchmarkFrames(STROKES, HOP_MILLIS, gss -> {
+    });
+    double[] immediate = benchmarkFrames(STROKES, HOP_MILLIS, gss -> gss.setEventDriven(0));
+    double[] batched = benchmarkFrames(STROKES, HOP_MILLIS, gss -> gss.setEventDriven(5));
+
+    assertTrue(immediate[0] < periodic[0]);
+    assertTrue(batched[0] < periodic[0]);
+    assertTrue(immediate[1] < periodic[1]);
+  }
+
+  /**
+   * @return added latency per hop in ms, and frames per second while idle
+   */
+  private double[] benchmarkFrames(int strokes, long hopMillis, Consumer<GSS> configure) {
+    network = new SimulatedNetwork(1, LatencyModel.fixed(hopMillis), Network.RELIABLE_TX);
+    Address[] serverAddresses = {new Address(0), new Address(1)};
+    Address[] clientAddresses = {new Address(2)};
+    GSSConfiguration.SetConfiguration(2, 1, serverAddresses, clientAddresses, new int[]{0},
+        GvtMode.VECTOR_CLOCK);
+
+    GSS[] servers = new GSS[2];
+    for (int s = 0; s < 2; s++) {
+      servers[s] = new GSS(serverAddresses[s], network);
+      configure.accept(servers[s]);
+      servers[s].setState(WhiteboardState.blank(WhiteboardClient.BOARD_WIDTH,
+          WhiteboardClient.BOARD_HEIGHT));
+    }
+    WhiteboardClient client = new WhiteboardClient(clientAddresses[0], serverAddresses[0],
+        network, true);
+    servers[0].addClient(client);
+    for (GSS server : servers) {
+      server.startRunning();
+    }
+    client.startRunning();
+    network.runFor(1000);
+
+    // Strokes are 317 ms apart so they land all over the other servers' frame periods
+    Random random = new Random(1);
+    long totalMillis = 0;
+    for (int i = 0; i < strokes; i++) {
+      network.runFor(317);
+      int simTime = client.getState().getSimTime() + 1;
+      client.acceptGameEvent(new WhiteboardEvent(new Point(random.nextInt(100), 10),
+          new Point(random.nextInt(100), 20), simTime));
+      long sent = network.currentTimeMillis();
+      assertTrue(network.runUntil(() -> servers[1].getState().getSimTime() >= simTime, 1000));
+      totalMillis += network.currentTimeMillis() - sent;
+    }
+    double addedPerHop = ((double) totalMillis / strokes - 2 * hopMillis) / 2;
+
+    long framesBefore = servers[0].getFramesRun() + servers[1].getFramesRun();
+    network.runFor(60 * 1000);
+    double idleFramesPerSecond =
+        (servers[0].getFramesRun() + servers[1].getFramesRun() - framesBefore) / 2 / 60.0;
+
+    System.out.printf("Added latency per hop: %.1f ms, idle frames per second: %.1f\n",
+        addedPerHop, idleFramesPerSecond);
+    for (GSS server : servers) {
+      server.stopRunning();
+    }
+    network.shutdown();
+    return new double[]{addedPerHop, idleFramesPerSecond};
+  }
+
+  /**
+   * Four clients draw every 50 ms, so many of their strokes land on the same sim time and the
+   * servers' tie-breaking decides their order.
+   */
+  @Test
+  public void benchmarkConcurrentClients() {
+    long simulatedMillis = 2 * 60 * 1000;
+
+    for (long seed = 1; seed <= 3; seed++) {
+      GSS[] servers = runWhiteboard(seed, simulatedMillis, 50, GvtMode.VECTOR_CLOCK, gss -> {
+      });
+      System.out.printf("Seed %d: rollbacks %d, %d, rolled back events %d, %d\n", seed,
+          servers[0].getRollbackCount(), servers[1].getRollbackCount(),
+          servers[0].getRolledBackEventCount(), servers[1].getRolledBackEventCount());
+    }
+  }
+
+  @Test
+  public void benchmarkGvtModes() {
+    for (int n : new int[]{10, 50, 200}) {
+      for (GvtMode mode : GvtMode.values()) {
+        benchmarkGvtMode(n, mode);
+      }
+    }
+  }
+
+  /**
+   * Every node sends to random others for a simulated minute. Reports the wall-clock cost per
+   * delivered message, the encoded size of a message, and how far GVT got.
+   */
+  private void benchmarkGvtMode(int N, GvtMode mode) {
+    int T = 50000;
+    network = new SimulatedNetwork(5, LatencyModel.uniform(5, 40), Network.RELIABLE_TX);
+    Address[] addresses = IntStream.range(0, N).mapToObj(Address::new).toArray(Address[]::new);
+    GSSConfiguration.SetConfiguration(0, N, new Address[0], addresses, new int[N], mode);
+    List<TestingNode> nodes = IntStream.range(0, N)
+        .mapToObj(i -> new TestingNode(addresses[i], network)).collect(Collectors.toList());
+
+    Random random = new Random(0);
+    long period = 60000L * N / T;
+    int[] sent = {0};
+    network.getScheduler().scheduleAtFixedRate(() -> {
+      if (sent[0] >= T) {
+        return;
+      }
+      TestingNode node = nodes.get(random.nextInt(N));
+      int simTime = (int) network.currentTimeMillis();
+      node.send(new TestingMessage(sent[0]++, simTime, node.getVectorClock()),
+          addresses[random.nextInt(N)]);
+    }, 0, Math.max(1, period / N));
+
+    long start = System.nanoTime();
+    network.runFor(70000);
+    long nanos = System.nanoTime() - start;
+
+    ByteBuffer buffer = WireCodec.encodePooled(
+        new Message(addresses[0], addresses[1], 0, 0, nodes.get(0).getVectorClock()), 0);
+    int bytes = buffer.position();
+    BufferPool.release(buffer);
+    int received = nodes.stream().mapToInt(n -> n.getReceivedMessages().size()).sum();
+
+    System.out.printf("%s, %d nodes: %.0f ns per delivery, %d byte message, GVT %d at %d ms\n",
+        mode, N, (double) nanos / received, bytes, nodes.get(0).getGlobalSimTime(),
+        network.currentTimeMillis());
+    network.shutdown();
+  }
+
+  @Test
+  public void benchmarkSimulatedHour() {
+    long simulatedMillis = 60 * 60 * 1000;
+
+    long start = System.nanoTime();
+    long[] rollbacks = runWhiteboard(11, simulatedMillis, 2000, GvtMode.VECTOR_CLOCK);
+    long wallMillis = (System.nanoTime() - start) / 1000000;
+
+    System.out.printf("Simulated %d s in %d ms (%.0fx), rollbacks per server: %d, %d\n",
+        simulatedMillis / 1000, wallMillis, (double) simulatedMillis / wallMillis, rollbacks[0],
+        rollbacks[1]);
+  }
+
+  /**
+   * Send messages between nodes over a lossy network with jittery latency.
+   *
+   * @return message data in the order it was received, node by node
+   */
+  private List<Integer> deliveryOrder(long seed) {
+    int N = 5;
+    int T = 500;
+    network = new SimulatedNetwork(seed, LatencyModel.uniform(5, 80), Network.UNRELIABLE_TX);
+    List<TestingNode> nodes = setupNodes(N);
+
+    Random random = new Random(0);
+    for (int i = 0; i < T; i++) {
+      nodes.get(random.nextInt(N))
+          .send(new TestingMessage(i), new Address(random.nextInt(N) + 1));
+    }
+    assertTrue(network.runUntil(() -> nodes.stream()
+        .mapToInt(n -> n.getReceivedMessages().size()).sum() == T, 60000));
+
+    List<Integer> order = new ArrayList<>();
+    for (TestingNode node : nodes) {
+      for (Pair<Message, Address> received : node.getReceivedMessages()) {
+        order.add(((TestingMessage) received.getFirst()).getData());
+      }
+    }
+    network.shutdown();
+    return order;
+  }
+
+  private List<TestingNode> setupNodes(int N) {
+    Address[] addresses = IntStream.rangeClosed(1, N).mapToObj(Address::new)
+        .toArray(Address[]::new);
+    GSSConfiguration.SetConfiguration(0, N, new Address[0], addresses, new int[N]);
+    return IntStream.range(0, N).mapToObj(i -> new TestingNode(addresses[i], network))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Run two servers and four whiteboard clients that each draw a random line every
+   * drawPeriodMillis, over links with long-tailed latency and some loss, then let them settle.
+   *
+   * @return rollback count of each server
+   */
+  private long[] runWhiteboard(long seed, long simulatedMillis, long drawPeriodMillis,
+      GvtMode gvtMode) {
+    return rollbacks(runWhiteboard(seed, simulatedMillis, drawPeriodMillis, gvtMode, gss -> {
+    }));
+  }
+
+  /**
+   * Same as above, with each server set up by configure before it starts.
+   *
+   * @return the servers, stopped
+   */
+  private GSS[] runWhiteboard(long seed, long simulatedMillis, long drawPeriodMillis,
+      GvtMode gvtMode, Consumer<GSS> configure) {
+    return runWhiteboard(seed, simulatedMillis, drawPeriodMillis, gvtMode, configure, null);
+  }
+
+  /**
+   * @param interest area the first client gets updates for, or null for the whole board. It's
+   *                 only checked for convergence there.
+   */
+  private GSS[] runWhiteboard(long seed, long simulatedMillis, long drawPeriodMillis,
+      GvtMode gvtMode, Consumer<GSS> configure, Rectangle interest) {
+    network = new SimulatedNetwork(seed, LatencyModel.exponential(10, 40), 0.9f);
+
+    Address[] serverAddresses = new Address[N_SERVERS];
+    Address[] clientAddresses = new Address[N_CLIENTS];
+    for (int s = 0; s < N_SERVERS; s++) {
+      serverAddresses[s] = new Address(s);
+    }
+    for (int c = 0; c < N_CLIENTS; c++) {
+      clientAddresses[c] = new Address(N_SERVERS + c);
+    }
+    GSSConfiguration.SetConfiguration(N_SERVERS, N_CLIENTS, serverAddresses, clientAddresses,
+        CONNECTIONS, gvtMode);
+
+    // The servers are far apart, the clients close to their servers
+    LatencyModel farApart = LatencyModel.exponential(60, 40);
+    network.setLink(serverAddresses[0], serverAddresses[1], farApart, 0.9f);
+    network.setLink(serverAddresses[1], serverAddresses[0], farApart, 0.9f);
+
+    GSS[] servers = new GSS[N_SERVERS];
+    for (int s = 0; s < N_SERVERS; s++) {
+      servers[s] = new GSS(serverAddresses[s], network);
+      configure.accept(servers[s]);
+      servers[s].setState(WhiteboardState.blank(WhiteboardClient.BOARD_WIDTH,
+          WhiteboardClient.BOARD_HEIGHT));
+    }
+    WhiteboardClient[] clients = new WhiteboardClient[N_CLIENTS];
+    List<Scheduler.Cancellable> drawing = new ArrayList<>();
+    for (int c = 0; c < N_CLIENTS; c++) {
+      WhiteboardClient client = new WhiteboardClient(clientAddresses[c],
+          serverAddresses[CONNECTIONS[c]], network, true);
+      servers[CONNECTIONS[c]].addClient(client);
+      clients[c] = client;
+      if (c == 0 && interest != null) {
+        client.setInterest(interest);
+      }
+
+      Random random = new Random(seed * 31 + c);
+      drawing.add(network.getScheduler().scheduleAtFixedRate(() -> {
+        Point start = new Point(random.nextInt(WhiteboardClient.BOARD_WIDTH),
+            random.nextInt(WhiteboardClient.BOARD_HEIGHT));
+        Point end = new Point(random.nextInt(WhiteboardClient.BOARD_WIDTH),
+            random.nextInt(WhiteboardClient.BOARD_HEIGHT));
+        client.acceptGameEvent(
+            new WhiteboardEvent(start, end, client.getState().getSimTime() + 1));
+      }, drawPeriodMillis + c, drawPeriodMillis));
+    }
+    for (GSS server : servers) {
+      server.startRunning();
+    }
+    for (WhiteboardClient client : clients) {
+      client.startRunning();
+    }
+
+    network.runFor(simulatedMillis);
+    drawing.forEach(Scheduler.Cancellable::cancel);
+
+    // Comparing boards is expensive, so check once per simulated second rather than per task
+    boolean converged = false;
+    for (int second = 0; second < 60 && !converged; second++) {
+      network.runFor(1000);
+      converged = servers[1].getState().equals(servers[0].getState());
+      converged &= sameIn(interest, clients[0].getState(), servers[0].getState());
+      for (int c = 1; c < N_CLIENTS; c++) {
+        converged &= clients[c].getState().equals(servers[0].getState());
+      }
+    }
+    assertTrue(converged, "Servers and clients should converge");
+
+    // Both servers should have kept fossil collecting as the clients drew
+    for (GSS server : servers) {
+      assertTrue(server.getGlobalSimTime() > 0, "GVT should advance");
+    }
+
+    for (GSS server : servers) {
+      server.stopRunning();
+    }
+    network.shutdown();
+    firstClient = clients[0];
+    return servers;
+  }
+
+  private static boolean sameIn(Rectangle area, WhiteboardState a, GameState server) {
+    if (area == null) {
+      return a.equals(server);
+    }
+    WhiteboardState b = (WhiteboardState) server;
+    for (int y = area.y; y < area.y + area.height; y++) {
+      for (int x = area.x; x < area.x + area.width; x++) {
+        if (a.getBoard().getRGB(x, y) != b.getBoard().getRGB(x, y)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static long[] rollbacks(GSS[] servers) {
+    long[] rollbacks = new long[servers.length];
+    for (int s = 0; s < servers.length; s++) {
+      rollbacks[s] = servers[s].getRollbackCount();
+    }
+    return rollbacks;
+  }
+
+  private static long rolledBackEvents(GSS[] servers) {
+    long events = 0;
+    for (GSS server : servers) {
+      events += server.getRolledBackEventCount();
+    }
+    return events;
+  }
+}
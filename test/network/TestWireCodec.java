@@ -0,0 +1,235 @@
+package network;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import gss.AntiMessage;
+import gss.GameEventMessage;
+import gss.GameState;
+import gss.GameStateDeltaMessage;
+import gss.GameStateMessage;
+import gss.InterestMessage;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import whiteboard.WhiteboardCodecs;
+import whiteboard.WhiteboardEvent;
+import whiteboard.WhiteboardState;
+
+public class TestWireCodec {
+
+  private static final int[] VECTOR_CLOCK = {12, -1, 0, Integer.MAX_VALUE, 7, 3};
+
+  @BeforeAll
+  public static void registerCodecs() {
+    WhiteboardCodecs.register();
+  }
+
+  @Test
+  public void testHeaderAndAcksRoundTrip() {
+    GameEventMessage message = new GameEventMessage(
+        new WhiteboardEvent(new Point(1, 2), new Point(300, 250), 17), new Address(0),
+        new Address(2), 17, 40, VECTOR_CLOCK);
+    message.setForwarded(true);
+    ((Message) message).setSequencing(42, 30, new int[]{32, 33, 40});
+
+    GameEventMessage decoded = (GameEventMessage) roundTrip(message);
+
+    assertEquals(message, decoded);
+    assertArrayEquals(VECTOR_CLOCK, decoded.getVectorClock());
+    assertTrue(decoded.wasForwarded());
+    assertEquals(42, decoded.getSequence());
+    assertEquals(30, decoded.getCumulativeAck());
+    assertArrayEquals(new int[]{32, 33, 40}, decoded.getSelectiveAcks());
+
+    WhiteboardEvent event = (WhiteboardEvent) decoded.getEvent();
+    assertEquals(17, event.getSimTime());
+    assertEquals(new Point(1, 2), event.getStart());
+    assertEquals(new Point(300, 250), event.getEnd());
+  }
+
+  @Test
+  public void testHeartbeatRoundTrip() {
+    GameEventMessage heartbeat = new GameEventMessage(null, new Address(1), new Address(0), 5,
+        6, VECTOR_CLOCK);
+
+    GameEventMessage decoded = (GameEventMessage) roundTrip(heartbeat);
+
+    assertEquals(heartbeat, decoded);
+    assertNull(decoded.getEvent());
+    assertFalse(decoded.wasForwarded());
+  }
+
+  @Test
+  public void testAntiMessageRoundTrip() {
+    long outputId = 5L << 32 | 0xfffffff0L;
+    AntiMessage anti = new AntiMessage(new Address(1), new Address(0), 9, 12, VECTOR_CLOCK,
+        outputId);
+
+    AntiMessage decoded = (AntiMessage) roundTrip(anti);
+
+    assertEquals(anti, decoded);
+    assertEquals(outputId, decoded.getOutputId());
+  }
+
+  @Test
+  public void testStateRoundTrip() {
+    WhiteboardState state = drawnState(new Random(1), 200);
+    GameStateMessage message = new GameStateMessage(state, new Address(0), new Address(3),
+        state.getSimTime(), state.getGssTime(), VECTOR_CLOCK);
+
+    Message decoded = roundTrip(message);
+
+    assertInstanceOf(GameStateMessage.class, decoded);
+    WhiteboardState decodedState = (WhiteboardState) ((GameStateMessage) decoded).getState();
+    assertEquals(state, decodedState);
+    assertEquals(state.getGssTime(), decodedState.getGssTime());
+  }
+
+  @Test
+  public void testDeltaRoundTrip() {
+    WhiteboardState earlier = drawnState(new Random(1), 200);
+    WhiteboardState later = (WhiteboardState) earlier.copy();
+    later.applyEvent(new WhiteboardEvent(new Point(40, 50), new Point(52, 61), 201));
+    later.setGssTime(201);
+    List<Integer> changed = new ArrayList<>();
+    for (int tile = 0; tile < later.getTileCount(); tile++) {
+      if (later.tileChanged(tile, earlier)) {
+        changed.add(tile);
+      }
+    }
+    assertFalse(changed.isEmpty());
+    assertTrue(changed.size() < 4, "A short stroke should only touch a tile or two");
+
+    GameStateDeltaMessage message = new GameStateDeltaMessage(
+        later.deltaOf(changed.stream().mapToInt(Integer::intValue).toArray()), 200,
+        new Address(0), new Address(3), later.getSimTime(), 9, VECTOR_CLOCK);
+    ByteBuffer buffer = WireCodec.encodePooled(message, 0);
+    int deltaBytes = buffer.position();
+    buffer.flip();
+    GameStateDeltaMessage decoded = (GameStateDeltaMessage) WireCodec.decode(buffer);
+    BufferPool.release(buffer);
+
+    assertEquals(200, decoded.getBaseGssTime());
+    GameState patched = earlier.withDelta(decoded.getDelta());
+    assertEquals(later, patched);
+    assertEquals(201, patched.getGssTime());
+
+    buffer = WireCodec.encodePooled(new GameStateMessage(later, new Address(0), new Address(3),
+        later.getSimTime(), 9, VECTOR_CLOCK), 0);
+    System.out.printf("Delta for one stroke: %d bytes, whole state: %d bytes\n", deltaBytes,
+        buffer.position());
+    assertTrue(deltaBytes * 4 < buffer.position());
+    BufferPool.release(buffer);
+  }
+
+  @Test
+  public void testInterestRoundTrip() {
+    for (Rectangle area : new Rectangle[]{new Rectangle(40, 32, 100, 80), null}) {
+      InterestMessage decoded = (InterestMessage) roundTrip(new InterestMessage(new Address(4),
+          new Address(0), 12, 7, VECTOR_CLOCK, area));
+      assertEquals(area, decoded.getArea());
+      assertEquals(7, decoded.getGssTime());
+    }
+  }
+
+  @Test
+  public void testBatchRoundTrip() {
+    List<Message> contents = List.of(
+        new GameEventMessage(new WhiteboardEvent(new Point(1, 1), new Point(2, 2), 8),
+            new Address(0), new Address(1), 8, 3, VECTOR_CLOCK),
+        new GameEventMessage(new WhiteboardEvent(new Point(2, 2), new Point(3, 3), 5),
+            new Address(0), new Address(1), 5, 4, VECTOR_CLOCK));
+    MessageBatch batch = new MessageBatch(new Address(0), new Address(1), contents, VECTOR_CLOCK);
+
+    MessageBatch decoded = (MessageBatch) roundTrip(batch);
+
+    assertEquals(batch, decoded);
+    assertEquals(5, decoded.getSimTime());
+    assertEquals(8, decoded.getHighestSimTime());
+    assertEquals(contents, decoded.getMessages());
+    assertEquals(8, ((GameEventMessage) decoded.getMessages().get(0)).getEvent().getSimTime());
+  }
+
+  @Test
+  public void benchmarkSizeAndThroughput() {
+    final int N = 200000;
+    Random random = new Random(2);
+
+    GameEventMessage event = new GameEventMessage(
+        new WhiteboardEvent(new Point(120, 80), new Point(126, 77), 1234), new Address(0),
+        new Address(3), 1234, 5678, VECTOR_CLOCK);
+    WhiteboardState state = drawnState(random, 500);
+    GameStateMessage stateMessage = new GameStateMessage(state, new Address(0), new Address(3),
+        state.getSimTime(), state.getGssTime(), VECTOR_CLOCK);
+
+    ByteBuffer buffer = WireCodec.encodePooled(event, 0);
+    System.out.printf("GameEventMessage: %d bytes\n", buffer.position());
+    BufferPool.release(buffer);
+    buffer = WireCodec.encodePooled(stateMessage, 0);
+    System.out.printf("GameStateMessage (%dx%d board, 500 lines): %d bytes, raw pixels %d bytes\n",
+        state.getBoard().getWidth(), state.getBoard().getHeight(), buffer.position(),
+        state.getBoard().getWidth() * state.getBoard().getHeight() * Integer.BYTES);
+    BufferPool.release(buffer);
+
+    buffer = BufferPool.acquire(BufferPool.MIN_CAPACITY);
+    long start = System.nanoTime();
+    for (int i = 0; i < N; i++) {
+      buffer.clear();
+      WireCodec.encode(event, buffer);
+    }
+    long encodeNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < N; i++) {
+      buffer.flip();
+      WireCodec.decode(buffer);
+      buffer.position(buffer.limit());
+    }
+    long decodeNanos = System.nanoTime() - start;
+    BufferPool.release(buffer);
+
+    System.out.printf("GameEventMessage encode: %.0f msgs/s, decode: %.0f msgs/s\n",
+        N / (encodeNanos / 1e9), N / (decodeNanos / 1e9));
+
+    final int S = 200;
+    start = System.nanoTime();
+    for (int i = 0; i < S; i++) {
+      buffer = WireCodec.encodePooled(stateMessage, 0);
+      buffer.flip();
+      WireCodec.decode(buffer);
+      BufferPool.release(buffer);
+    }
+    System.out.printf("GameStateMessage encode+decode: %.0f msgs/s\n",
+        S / ((System.nanoTime() - start) / 1e9));
+  }
+
+  private static Message roundTrip(Message message) {
+    ByteBuffer buffer = WireCodec.encodePooled(message, 0);
+    buffer.flip();
+    Message decoded = WireCodec.decode(buffer);
+    assertFalse(buffer.hasRemaining());
+    BufferPool.release(buffer);
+    return decoded;
+  }
+
+  private static WhiteboardState drawnState(Random random, int lines) {
+    WhiteboardState state = WhiteboardState.blank(360, 280);
+    for (int i = 1; i <= lines; i++) {
+      state.applyEvent(new WhiteboardEvent(
+          new Point(random.nextInt(360), random.nextInt(280)),
+          new Point(random.nextInt(360), random.nextInt(280)), i));
+    }
+    state.setGssTime(lines);
+    return state;
+  }
+}
@@ -0,0 +1,140 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TestTimeIndexedLog {
+
+  @Test
+  public void testAddAndSeek() {
+    TimeIndexedLog<Integer> log = new TimeIndexedLog<>(Integer::intValue);
+    assertNull(log.peekFirst());
+    assertNull(log.peekLast());
+    assertEquals(0, log.indexOf(5));
+
+    for (int time : new int[]{1, 3, 3, 3, 7, 10}) {
+      log.add(time);
+    }
+    assertEquals(6, log.size());
+    assertEquals(1, log.peekFirst());
+    assertEquals(10, log.peekLast());
+    assertEquals(0, log.indexOf(0));
+    assertEquals(1, log.indexOf(2));
+    assertEquals(1, log.indexOf(3));
+    assertEquals(4, log.indexOf(4));
+    assertEquals(6, log.indexOf(11));
+    assertEquals(3, log.lastBefore(7));
+    assertNull(log.lastBefore(1));
+
+    assertThrows(IllegalArgumentException.class, () -> log.add(9));
+    assertThrows(IndexOutOfBoundsException.class, () -> log.get(6));
+  }
+
+  @Test
+  public void testRemoveAcrossWraparound() {
+    TimeIndexedLog<Integer> log = new TimeIndexedLog<>(Integer::intValue);
+    List<Integer> expected = new ArrayList<>();
+    int time = 0;
+    for (int round = 0; round < 50; round++) {
+      for (int i = 0; i < 10; i++) {
+        log.add(time);
+        expected.add(time);
+        time++;
+      }
+
+      // roll back the newest few, newest first
+      List<Integer> removed = new ArrayList<>();
+      int from = time - 3;
+      assertEquals(3, log.removeFrom(from, removed::add));
+      assertEquals(List.of(from + 2, from + 1, from), removed);
+      expected.removeIf((t) -> t >= from);
+      time = from;
+
+      // and fossil collect all but the newest few
+      int horizon = time - 5;
+      int pruned = (int) expected.stream().filter((t) -> t < horizon).count();
+      assertEquals(pruned, log.removeBefore(horizon));
+      expected.removeIf((t) -> t < horizon);
+
+      List<Integer> actual = new ArrayList<>();
+      log.forEach(actual::add);
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testIteratorFailsFast() {
+    TimeIndexedLog<Integer> log = new TimeIndexedLog<>(Integer::intValue);
+    log.add(1);
+    log.add(2);
+    Iterator<Integer> iterator = log.iterator();
+    iterator.next();
+    log.add(3);
+    assertThrows(ConcurrentModificationException.class, iterator::next);
+  }
+
+  /**
+   * Compare against the reverse-ordered priority queues GSS used to keep its history in, on the
+   * same mix of appends, short rollbacks and fossil collection.
+   */
+  @Test
+  public void benchmarkAgainstPriorityQueue() {
+    final int T = 200000;
+    final int HISTORY = 2000;
+
+    for (int run = 0; run < 3; run++) {
+      Random random = new Random(0);
+      TimeIndexedLog<Integer> log = new TimeIndexedLog<>(Integer::intValue);
+      long start = System.nanoTime();
+      int time = 0;
+      for (int i = 0; i < T; i++) {
+        log.add(time++);
+        if (random.nextInt(10) == 0) {
+          time -= log.removeFrom(time - random.nextInt(8), (t) -> {
+          });
+        }
+        if (i % 100 == 0) {
+          log.removeBefore(time - HISTORY);
+        }
+      }
+      long logNanos = System.nanoTime() - start;
+      int logSize = log.size();
+
+      random = new Random(0);
+      PriorityQueue<Integer> queue = new PriorityQueue<>(Collections.reverseOrder());
+      start = System.nanoTime();
+      time = 0;
+      for (int i = 0; i < T; i++) {
+        queue.add(time++);
+        if (random.nextInt(10) == 0) {
+          int target = time - random.nextInt(8);
+          while (!queue.isEmpty() && queue.peek() >= target) {
+            queue.poll();
+            time--;
+          }
+        }
+        if (i % 100 == 0) {
+          final int horizon = time - HISTORY;
+          queue.removeIf((t) -> t < horizon);
+        }
+      }
+      long queueNanos = System.nanoTime() - start;
+
+      System.out.printf("TimeIndexedLog: %d ns per event. PriorityQueue: %d ns per event\n",
+          logNanos / T, queueNanos / T);
+      assertEquals(queue.size(), logSize);
+      assertTrue(logNanos < queueNanos);
+    }
+  }
+}
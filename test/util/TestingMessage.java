@@ -1,5 +1,6 @@
 package util;
 
+import gss.GSSConfiguration;
 import network.Address;
 import network.Message;
 
@@ -8,7 +9,11 @@ public class TestingMessage extends Message {
   private final int data;
 
   public TestingMessage(int data) {
-    super(new Address(0), new Address(1), 0, 0, new int[]{0});
+    this(data, 0, new int[GSSConfiguration.getNumNodes()]);
+  }
+
+  public TestingMessage(int data, int simTime, int[] vectorClock) {
+    super(new Address(0), new Address(1), simTime, 0, vectorClock);
     this.data = data;
   }
 
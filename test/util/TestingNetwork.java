@@ -5,6 +5,7 @@ import java.util.Queue;
 import network.Address;
 import network.Message;
 import network.Network;
+import network.Transport;
 
 public class TestingNetwork extends Network {
 
@@ -17,6 +18,12 @@ public class TestingNetwork extends Network {
     queuedMessages = new LinkedList<>();
   }
 
+  public TestingNetwork(float txSuccessRate, Transport transport) {
+    super(txSuccessRate, transport);
+    paused = false;
+    queuedMessages = new LinkedList<>();
+  }
+
   public void setSuccessRate(float txSuccessRate) {
     this.txSuccessRate = txSuccessRate;
   }
@@ -28,10 +35,11 @@ public class TestingNetwork extends Network {
   public void unpause() {
     paused = false;
 
-    // send all pending messages
+    // send all pending messages, once
     for (Triple<Message, Address, Address> t : queuedMessages) {
       send(t.getFirst(), t.getSecond(), t.getThird());
     }
+    queuedMessages.clear();
   }
 
   @Override